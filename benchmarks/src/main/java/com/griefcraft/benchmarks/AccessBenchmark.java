@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.benchmarks;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access checks against a private protection for the different kinds of players that use it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessBenchmark {
+
+    /**
+     * The amount of rights on the protection
+     */
+    @Param({"1", "10", "100"})
+    public int rights;
+
+    private LWC lwc;
+
+    private Protection protection;
+
+    private Player owner;
+
+    private Player member;
+
+    private Player stranger;
+
+    private Player admin;
+
+    @Setup
+    public void setup() {
+        lwc = BenchmarkEnvironment.getLWC();
+        owner = BenchmarkEnvironment.createPlayer("Owner", false);
+        member = BenchmarkEnvironment.createPlayer("Member" + (rights - 1), false);
+        stranger = BenchmarkEnvironment.createPlayer("Stranger", false);
+        admin = BenchmarkEnvironment.createPlayer("Admin", true);
+        protection = BenchmarkEnvironment.createProtection(1, 0, 64, 0, owner.getUniqueId().toString(), rights);
+    }
+
+    @Benchmark
+    public boolean owner() {
+        return lwc.canAccessProtection(owner, protection);
+    }
+
+    /**
+     * The member is the last right on the protection
+     */
+    @Benchmark
+    public boolean member() {
+        return lwc.canAccessProtection(member, protection);
+    }
+
+    /**
+     * Checks every right and then fires the access event
+     */
+    @Benchmark
+    public boolean stranger() {
+        return lwc.canAccessProtection(stranger, protection);
+    }
+
+    @Benchmark
+    public boolean admin() {
+        return lwc.canAccessProtection(admin, protection);
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.benchmarks;
+
+import com.griefcraft.integration.permissions.SuperPermsPermissions;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Permission;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.Database;
+import com.griefcraft.sql.PhysDB;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Sets up an LWC instance that runs without a server. Bukkit objects are stubbed and the database is an in-memory
+ * SQLite database, so the benchmarks only measure LWC itself.
+ */
+public final class BenchmarkEnvironment {
+
+    /**
+     * The world every benchmark protection is in
+     */
+    public static final String WORLD = "world";
+
+    /**
+     * The LWC instance shared by the benchmarks
+     */
+    private static LWC lwc = null;
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * Get the shared LWC instance, creating it the first time it is needed
+     *
+     * @return
+     */
+    public static synchronized LWC getLWC() {
+        if (lwc == null) {
+            lwc = new BenchmarkLWC();
+            lwc.getConfiguration().setProperty("database.path", ":memory:");
+            lwc.setPermissions(new SuperPermsPermissions());
+        }
+
+        return lwc;
+    }
+
+    /**
+     * Open and load a new in-memory SQLite database
+     *
+     * @return
+     */
+    public static PhysDB openDatabase() throws Exception {
+        getLWC();
+
+        PhysDB database = new PhysDB(Database.Type.SQLite);
+
+        if (!database.connect()) {
+            throw new IllegalStateException("Could not connect to the in-memory database");
+        }
+
+        database.load();
+        return database;
+    }
+
+    /**
+     * Insert protections with the given encoded data into a database
+     *
+     * @param database
+     * @param amount
+     * @param data
+     */
+    public static void insertProtections(PhysDB database, int amount, String data) throws SQLException {
+        PreparedStatement statement = database.prepare("INSERT INTO " + database.getPrefix() + "protections (owner, type, x, y, z, data, blockId, world, password, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        database.setAutoCommit(false);
+
+        try {
+            for (int i = 0; i < amount; i++) {
+                statement.setString(1, "Owner" + (i % 200));
+                statement.setInt(2, Protection.Type.PRIVATE.ordinal());
+                statement.setInt(3, i);
+                statement.setInt(4, 64);
+                statement.setInt(5, i / 16);
+                statement.setString(6, data);
+                statement.setInt(7, Material.CHEST.getId());
+                statement.setString(8, WORLD);
+                statement.setString(9, "");
+                statement.setString(10, "2014-01-01 00:00:00.0");
+                statement.setLong(11, 0);
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        } finally {
+            database.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Create a protection that is not in the database
+     *
+     * @param id
+     * @param x
+     * @param y
+     * @param z
+     * @param owner
+     * @param rights the amount of player rights to give the protection
+     * @return
+     */
+    public static Protection createProtection(int id, int x, int y, int z, String owner, int rights) {
+        Protection protection = new Protection();
+        protection.setId(id);
+        protection.setWorld(WORLD);
+        protection.setX(x);
+        protection.setY(y);
+        protection.setZ(z);
+        protection.setBlockId(Material.CHEST.getId());
+        protection.setType(Protection.Type.PRIVATE);
+        protection.setOwner(owner);
+        protection.setPassword("");
+
+        for (int i = 0; i < rights; i++) {
+            protection.addPermission(new Permission("Member" + i, Permission.Type.PLAYER, Permission.Access.PLAYER));
+        }
+
+        return protection;
+    }
+
+    /**
+     * Create a player that only answers the calls LWC makes when checking access. Any other call returns the
+     * default value for its return type.
+     *
+     * @param name
+     * @param op
+     * @return
+     */
+    public static Player createPlayer(final String name, final boolean op) {
+        final UUID uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+        final ItemStack hand = new ItemStack(Material.AIR);
+
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{ Player.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String methodName = method.getName();
+
+                if (methodName.equals("getName") || methodName.equals("getDisplayName")) {
+                    return name;
+                } else if (methodName.equals("getUniqueId")) {
+                    return uuid;
+                } else if (methodName.equals("isOp")) {
+                    return op;
+                } else if (methodName.equals("hasPermission")) {
+                    return op;
+                } else if (methodName.equals("getItemInHand")) {
+                    return hand;
+                } else if (methodName.equals("getEffectivePermissions")) {
+                    return Collections.emptySet();
+                } else if (methodName.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (methodName.equals("equals")) {
+                    return proxy == args[0];
+                } else if (methodName.equals("toString")) {
+                    return "BenchmarkPlayer{" + name + "}";
+                }
+
+                Class<?> returnType = method.getReturnType();
+
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else if (returnType == double.class) {
+                    return 0D;
+                } else if (returnType == float.class) {
+                    return 0F;
+                } else if (returnType == short.class) {
+                    return (short) 0;
+                } else if (returnType == byte.class) {
+                    return (byte) 0;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * An LWC instance that is not attached to a plugin
+     */
+    private static class BenchmarkLWC extends LWC {
+
+        /**
+         * The logger LWC logs to instead of the plugin's logger
+         */
+        private final Logger logger = Logger.getLogger("LWC");
+
+        public BenchmarkLWC() {
+            super(null);
+        }
+
+        @Override
+        public void log(String str) {
+            logger.info(str);
+        }
+
+    }
+
+}
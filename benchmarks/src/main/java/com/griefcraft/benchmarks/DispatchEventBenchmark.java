@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.benchmarks;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Permission;
+import com.griefcraft.model.Protection;
+import com.griefcraft.scripting.JavaModule;
+import com.griefcraft.scripting.ModuleLoader;
+import com.griefcraft.scripting.event.LWCAccessEvent;
+import com.griefcraft.scripting.event.LWCProtectionInteractEvent;
+import com.griefcraft.scripting.event.LWCReloadEvent;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatching events to modules. Half of the modules listen to access requests and the other half listen to
+ * protection interactions, so access events also measure skipping the modules that do not listen to them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchEventBenchmark {
+
+    /**
+     * The amount of modules registered. LWC registers around 30 modules itself
+     */
+    @Param({"0", "10", "30"})
+    public int modules;
+
+    private ModuleLoader loader;
+
+    private Player player;
+
+    private Protection protection;
+
+    private LWCReloadEvent reloadEvent;
+
+    @Setup
+    public void setup() {
+        LWC lwc = BenchmarkEnvironment.getLWC();
+        loader = new ModuleLoader(lwc);
+
+        for (int i = 0; i < modules; i++) {
+            loader.registerModule(null, (i & 1) == 0 ? new AccessModule() : new InteractModule());
+        }
+
+        player = BenchmarkEnvironment.createPlayer("Player", false);
+        protection = BenchmarkEnvironment.createProtection(1, 0, 64, 0, "Owner", 0);
+        reloadEvent = new LWCReloadEvent();
+    }
+
+    @Benchmark
+    public Permission.Access accessRequest() {
+        LWCAccessEvent event = new LWCAccessEvent(player, protection, Permission.Access.NONE);
+        loader.dispatchEvent(event);
+        return event.getAccess();
+    }
+
+    /**
+     * No module listens to this event
+     */
+    @Benchmark
+    public LWCReloadEvent reload() {
+        loader.dispatchEvent(reloadEvent);
+        return reloadEvent;
+    }
+
+    public static class AccessModule extends JavaModule {
+
+        @Override
+        public void onAccessRequest(LWCAccessEvent event) {
+            if (event.getProtection().getId() < 0) {
+                event.setAccess(Permission.Access.PLAYER);
+            }
+        }
+
+    }
+
+    public static class InteractModule extends JavaModule {
+
+        @Override
+        public void onProtectionInteract(LWCProtectionInteractEvent event) {
+            event.setResult(Result.CANCEL);
+        }
+
+    }
+
+}
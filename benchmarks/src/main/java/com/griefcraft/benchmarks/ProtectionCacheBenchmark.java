@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.benchmarks;
+
+import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups, inserts and evictions in the protection cache
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtectionCacheBenchmark {
+
+    /**
+     * The amount of protections cached before each benchmark
+     */
+    @Param({"1000", "10000"})
+    public int size;
+
+    private ProtectionCache cache;
+
+    /**
+     * Protections that are cached
+     */
+    private Protection[] cached;
+
+    /**
+     * Protections that are not cached yet. Adding them to a full cache evicts the eldest protections
+     */
+    private Protection[] uncached;
+
+    private int index = 0;
+
+    private int evictIndex = 0;
+
+    @Setup
+    public void setup() {
+        LWC lwc = BenchmarkEnvironment.getLWC();
+        lwc.getConfiguration().setProperty("core.cacheSize", size);
+
+        cache = new ProtectionCache(lwc);
+        cached = new Protection[size];
+        uncached = new Protection[size];
+
+        for (int i = 0; i < size; i++) {
+            cached[i] = BenchmarkEnvironment.createProtection(i + 1, i, 64, i / 16, "Owner" + (i % 200), 0);
+            uncached[i] = BenchmarkEnvironment.createProtection(size + i + 1, i, 65, i / 16, "Owner" + (i % 200), 0);
+            cache.addProtection(cached[i]);
+        }
+    }
+
+    /**
+     * @return the next index to use, cycling through every protection
+     */
+    private int next() {
+        if (++index >= size) {
+            index = 0;
+        }
+
+        return index;
+    }
+
+    @Benchmark
+    public Protection getHit() {
+        Protection protection = cached[next()];
+        return cache.getProtection(BenchmarkEnvironment.WORLD, protection.getX(), protection.getY(), protection.getZ());
+    }
+
+    @Benchmark
+    public Protection getMiss() {
+        Protection protection = uncached[next()];
+        return cache.getProtection(BenchmarkEnvironment.WORLD, protection.getX(), protection.getY(), protection.getZ());
+    }
+
+    @Benchmark
+    public Protection getById() {
+        return cache.getProtectionById(cached[next()].getId());
+    }
+
+    @Benchmark
+    public boolean isKnownNull() {
+        Protection protection = uncached[next()];
+        return cache.isKnownNull(BenchmarkEnvironment.WORLD, protection.getX(), protection.getY(), protection.getZ());
+    }
+
+    @Benchmark
+    public int putExisting() {
+        cache.addProtection(cached[next()]);
+        return cache.size();
+    }
+
+    /**
+     * Cycles through both sets of protections. The cache only holds one set so every insert evicts the eldest protection
+     */
+    @Benchmark
+    public int putEvict() {
+        int next = evictIndex++;
+
+        if (evictIndex >= size * 2) {
+            evictIndex = 0;
+        }
+
+        cache.addProtection(next < size ? uncached[next] : cached[next - size]);
+        return cache.size();
+    }
+
+    @Benchmark
+    public int removeAndAdd() {
+        Protection protection = cached[next()];
+        cache.removeProtection(protection);
+        cache.addProtection(protection);
+        return cache.size();
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.benchmarks;
+
+import com.griefcraft.util.config.ProtectionConfiguration;
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving protections.blocks settings. LWC.resolveProtectionConfiguration and LWC.isProtectable delegate to the
+ * compiled configuration benchmarked here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtectionConfigurationBenchmark {
+
+    private ProtectionConfiguration configuration;
+
+    @Setup
+    public void setup() {
+        configuration = new ProtectionConfiguration(BenchmarkEnvironment.getLWC().getConfiguration());
+    }
+
+    /**
+     * A block that is protectable in the default configuration
+     */
+    @Benchmark
+    public boolean isProtectable() {
+        return configuration.isProtectable(Material.CHEST, 0);
+    }
+
+    /**
+     * A block that is not configured at all, the most common case when a player clicks a block
+     */
+    @Benchmark
+    public boolean isProtectableUnconfigured() {
+        return configuration.isProtectable(Material.STONE, 0);
+    }
+
+    @Benchmark
+    public String resolveAutoRegister() {
+        return configuration.get(Material.CHEST, "autoRegister");
+    }
+
+    /**
+     * A node that is compiled the first time it is used instead of when the configuration is loaded
+     */
+    @Benchmark
+    public String resolveCustomNode() {
+        return configuration.get(Material.CHEST, "benchmark");
+    }
+
+    /**
+     * Compiling the configuration, which happens when LWC is loaded or reloaded
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ProtectionConfiguration compile() {
+        return new ProtectionConfiguration(BenchmarkEnvironment.getLWC().getConfiguration());
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.benchmarks;
+
+import com.griefcraft.model.Permission;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.PhysDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading protections out of the database and decoding their rights, for both the compact data format and the
+ * legacy json format
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolveProtectionBenchmark {
+
+    /**
+     * The amount of protections in the database
+     */
+    private static final int PROTECTIONS = 1000;
+
+    /**
+     * The amount of rights on each protection
+     */
+    @Param({"0", "5", "50"})
+    public int rights;
+
+    /**
+     * The format the protection's data is stored in
+     */
+    @Param({"compact", "json"})
+    public String format;
+
+    private PhysDB database;
+
+    private PreparedStatement statement;
+
+    /**
+     * The encoded data every protection has
+     */
+    private String data;
+
+    private int id = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Protection template = BenchmarkEnvironment.createProtection(0, 0, 0, 0, "Owner", rights);
+        data = format.equals("json") ? template.getData().toJSONString() : template.encodeData();
+
+        database = BenchmarkEnvironment.openDatabase();
+        BenchmarkEnvironment.insertProtections(database, PROTECTIONS, data);
+        statement = database.prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + database.getPrefix() + "protections WHERE id = ?");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.dispose();
+    }
+
+    /**
+     * @return the next protection id to load, cycling through every protection
+     */
+    private int next() {
+        if (++id > PROTECTIONS) {
+            id = 1;
+        }
+
+        return id;
+    }
+
+    /**
+     * Load the next protection from the database
+     *
+     * @return
+     */
+    private Protection load() throws Exception {
+        statement.setInt(1, next());
+        ResultSet set = statement.executeQuery();
+
+        try {
+            return set.next() ? database.resolveProtection(set) : null;
+        } finally {
+            set.close();
+        }
+    }
+
+    /**
+     * Load a protection without touching its rights, e.g. when it is only needed for its location
+     */
+    @Benchmark
+    public Protection resolve() throws Exception {
+        return load();
+    }
+
+    /**
+     * Load a protection and check a player's access to it, which decodes the rights
+     */
+    @Benchmark
+    public Permission.Access resolveAndDecode() throws Exception {
+        return load().getAccess("Member0", Permission.Type.PLAYER);
+    }
+
+    /**
+     * Decode the rights without going through the database
+     */
+    @Benchmark
+    public Permission.Access decode() {
+        Protection protection = new Protection();
+        protection.setEncodedData(data);
+        return protection.getAccess("Member0", Permission.Type.PLAYER);
+    }
+
+    /**
+     * Encode the rights as they would be when the protection is saved
+     */
+    @Benchmark
+    public String encode() throws Exception {
+        Protection protection = new Protection();
+        protection.setEncodedData(data);
+        protection.getPermissions();
+        return protection.encodeData();
+    }
+
+}
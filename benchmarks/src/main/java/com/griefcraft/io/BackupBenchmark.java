@@ -0,0 +1,225 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.io;
+
+import com.griefcraft.benchmarks.BenchmarkEnvironment;
+import com.griefcraft.model.Protection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading protections in backup files, in the original format and in chunks. This is in the io package because the backup's read and write
+ * methods are only visible to the backup manager. Scores are protections per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackupBenchmark {
+
+    /**
+     * The amount of protections written to or read from a backup per invocation
+     */
+    private static final int PROTECTIONS = 10000;
+
+    /**
+     * The amount of protections in each chunk of a chunked backup
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    @Param({"true", "false"})
+    public boolean compression;
+
+    private RestorableProtection[] protections;
+
+    private EnumSet<BackupManager.Flag> flags;
+
+    /**
+     * The backup that is written to
+     */
+    private File writeFile;
+
+    /**
+     * A backup that already contains the protections
+     */
+    private File readFile;
+
+    /**
+     * The chunked backup that is written to
+     */
+    private File chunkedWriteFile;
+
+    /**
+     * A chunked backup that already contains the protections
+     */
+    private File chunkedReadFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkEnvironment.getLWC();
+
+        flags = EnumSet.of(BackupManager.Flag.BACKUP_PROTECTIONS);
+        if (compression) {
+            flags.add(BackupManager.Flag.COMPRESSION);
+        }
+
+        protections = new RestorableProtection[PROTECTIONS];
+        for (int i = 0; i < PROTECTIONS; i++) {
+            Protection protection = BenchmarkEnvironment.createProtection(i + 1, i, 64, i / 16, "Owner" + (i % 200), i % 4);
+            protection.setCreation("2014-01-01 00:00:00");
+            protections[i] = RestorableProtection.wrapProtection(protection);
+        }
+
+        writeFile = File.createTempFile("lwc-benchmark", ".lwc");
+        readFile = File.createTempFile("lwc-benchmark", ".lwc");
+        write(readFile);
+
+        chunkedWriteFile = File.createTempFile("lwc-benchmark", ".lwcb");
+        chunkedReadFile = File.createTempFile("lwc-benchmark", ".lwcb");
+        writeChunked(chunkedReadFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writeFile.delete();
+        readFile.delete();
+        chunkedWriteFile.delete();
+        chunkedReadFile.delete();
+    }
+
+    /**
+     * Write every protection to a backup file
+     *
+     * @param file
+     */
+    private void write(File file) throws IOException {
+        Backup backup = new Backup(file, Backup.OperationMode.WRITE, flags);
+
+        try {
+            backup.writeHeader();
+
+            for (RestorableProtection protection : protections) {
+                backup.writeRestorable(protection);
+            }
+        } finally {
+            backup.close();
+        }
+    }
+
+    /**
+     * Write every protection to a chunked backup, one chunk per 1000 protections
+     *
+     * @param file
+     */
+    private void writeChunked(File file) throws IOException {
+        ChunkedBackup backup = ChunkedBackup.create(file, compression);
+        List<Restorable> chunk = new ArrayList<Restorable>(CHUNK_SIZE);
+
+        for (int i = 0; i < PROTECTIONS; i++) {
+            chunk.add(protections[i]);
+
+            if (chunk.size() == CHUNK_SIZE || i == PROTECTIONS - 1) {
+                backup.write(ChunkedBackup.encode(BenchmarkEnvironment.WORLD, i / CHUNK_SIZE, 0, chunk, compression));
+                chunk.clear();
+            }
+        }
+
+        backup.finish();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROTECTIONS)
+    public void write() throws IOException {
+        write(writeFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROTECTIONS)
+    public int read() throws IOException {
+        Backup backup = new Backup(readFile, Backup.OperationMode.READ, flags);
+        int count = 0;
+
+        try {
+            backup.readHeader();
+
+            while (backup.readRestorable() != null) {
+                count ++;
+            }
+        } finally {
+            backup.close();
+        }
+
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROTECTIONS)
+    public void writeChunked() throws IOException {
+        writeChunked(chunkedWriteFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROTECTIONS)
+    public int readChunked() throws IOException {
+        ChunkedBackup backup = ChunkedBackup.open(chunkedReadFile);
+        int count = 0;
+
+        try {
+            for (ChunkedBackup.Chunk chunk : backup.getChunks()) {
+                count += backup.read(chunk).size();
+            }
+        } finally {
+            backup.close();
+        }
+
+        return count;
+    }
+
+}
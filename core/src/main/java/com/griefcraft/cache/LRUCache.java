@@ -28,6 +28,7 @@
 
 package com.griefcraft.cache;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 
 public class LRUCache<K, V> extends LinkedHashMap<K, V> {
@@ -69,6 +70,28 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
         return size() > maxCapacity;
     }
 
+    /**
+     * Change the max number of entries allowed, removing the least recently used entries if there are too many
+     *
+     * @param maxCapacity
+     */
+    public void setMaxCapacity(int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+
+        Iterator<K> iter = keySet().iterator();
+        while (size() > maxCapacity && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * @return the max number of entries allowed
+     */
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
     /**
      * @return amount of reads on the cache
      */
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map keyed by primitive longs. Lookups neither box the key nor allocate,
+ * which makes it suitable for the spatial indexes that are hit on every block interaction.
+ * <p/>
+ * Null values are not supported: get() returning null always means the key is not mapped.
+ */
+public class LongObjectHashMap<V> {
+
+    /**
+     * The max fill ratio before the table is doubled
+     */
+    private final static float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The smallest table that will be allocated
+     */
+    private final static int MIN_CAPACITY = 16;
+
+    /**
+     * The keys in the table
+     */
+    private long[] keys;
+
+    /**
+     * The values in the table. A null value marks a free slot
+     */
+    private Object[] values;
+
+    /**
+     * The number of mapped keys
+     */
+    private int size = 0;
+
+    /**
+     * Bit mask used to wrap indexes around the table
+     */
+    private int mask;
+
+    /**
+     * The size at which the table will be grown
+     */
+    private int resizeAt;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+    }
+
+    /**
+     * Get the value mapped to the given key
+     *
+     * @param key
+     * @return the value, or null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = slot(key);
+        Object value;
+
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (V) value;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if the given key is mapped
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Map a key to a value
+     *
+     * @param key
+     * @param value
+     * @return the previous value for the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("LongObjectHashMap does not support null values");
+        }
+
+        int index = slot(key);
+        Object existing;
+
+        while ((existing = values[index]) != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return (V) existing;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove the given key
+     *
+     * @param key
+     * @return the value that was removed, or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = slot(key);
+        Object existing;
+
+        while ((existing = values[index]) != null) {
+            if (keys[index] == key) {
+                shiftKeys(index);
+                size--;
+                return (V) existing;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove the given key only if it is currently mapped to a value equal to the given value
+     *
+     * @param key
+     * @param value
+     * @return true if the key was removed
+     */
+    public boolean remove(long key, V value) {
+        int index = slot(key);
+        Object existing;
+
+        while ((existing = values[index]) != null) {
+            if (keys[index] == key) {
+                if (existing != value && !existing.equals(value)) {
+                    return false;
+                }
+
+                shiftKeys(index);
+                size--;
+                return true;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the number of mapped keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no keys are mapped
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove every mapping. The table keeps its current capacity.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Allocate an empty table
+     *
+     * @param capacity must be a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Move every entry into a table of the given capacity
+     *
+     * @param capacity
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+
+            if (value == null) {
+                continue;
+            }
+
+            int index = slot(oldKeys[i]);
+
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = oldKeys[i];
+            values[index] = value;
+        }
+    }
+
+    /**
+     * Close the gap left by a removed entry by shifting back any entries in its probe chain, so that lookups
+     * never need tombstones
+     *
+     * @param gap
+     */
+    private void shiftKeys(int gap) {
+        int index = gap;
+
+        while (true) {
+            index = (index + 1) & mask;
+            Object value = values[index];
+
+            if (value == null) {
+                break;
+            }
+
+            int ideal = slot(keys[index]);
+
+            // the entry may stay if its ideal slot lies cyclically within (gap, index]
+            boolean stays = gap <= index ? (gap < ideal && ideal <= index) : (gap < ideal || ideal <= index);
+
+            if (!stays) {
+                keys[gap] = keys[index];
+                values[gap] = value;
+                gap = index;
+            }
+        }
+
+        values[gap] = null;
+    }
+
+    /**
+     * Get the preferred slot for a key
+     *
+     * @param key
+     * @return
+     */
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+}
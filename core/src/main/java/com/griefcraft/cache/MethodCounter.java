@@ -11,9 +11,9 @@ import java.util.Map;
 public class MethodCounter {
 
     /**
-     * A map of the counts
+     * A map of the counts. The values are mutable so counting does not box a new Integer each time
      */
-    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+    private final Map<String, int[]> counts = new HashMap<String, int[]>();
 
     /**
      * Increment a method in the counts
@@ -40,7 +40,8 @@ public class MethodCounter {
      * @return
      */
     public int get(String method) {
-        return counts.containsKey(method) ? counts.get(method) : 0;
+        int[] count = counts.get(method);
+        return count != null ? count[0] : 0;
     }
 
     /**
@@ -49,7 +50,13 @@ public class MethodCounter {
      * @return
      */
     public Map<String, Integer> sortByValue() {
-        return Collections.unmodifiableMap(sortByComparator(counts, false));
+        Map<String, Integer> snapshot = new HashMap<String, Integer>();
+
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue()[0]);
+        }
+
+        return Collections.unmodifiableMap(sortByComparator(snapshot, false));
     }
 
     /**
@@ -59,12 +66,14 @@ public class MethodCounter {
      * @param delta
      */
     private void deltaMethod(String method, int delta) {
-        if (!counts.containsKey(method)) {
-            counts.put(method, delta);
+        int[] count = counts.get(method);
+
+        if (count == null) {
+            counts.put(method, new int[]{delta});
             return;
         }
 
-        counts.put(method, counts.get(method) + delta);
+        count[0] += delta;
     }
 
     /**
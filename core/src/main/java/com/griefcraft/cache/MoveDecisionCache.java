@@ -0,0 +1,237 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import com.griefcraft.model.Protection;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers if items may be moved out of (or into) an inventory by the hopper next to it, so hopper chains do not
+ * need to resolve protections and configuration for every item they move.
+ * <p/>
+ * A decision is only used while the protections it was made with have not changed and are still the instances in the
+ * protection cache (their revision changes when they leave it). Anything else that can change a decision (protections
+ * being created, the configuration being reloaded) must {@link #clear()} the cache.
+ */
+public class MoveDecisionCache {
+
+    /**
+     * No decision is cached
+     */
+    public static final int UNKNOWN = 0;
+
+    /**
+     * The move is allowed
+     */
+    public static final int ALLOW = 1;
+
+    /**
+     * The move is denied
+     */
+    public static final int DENY = 2;
+
+    /**
+     * The slot used when the move was not initiated by a hopper
+     */
+    public static final int NO_HOPPER = 27;
+
+    /**
+     * Returned by {@link #slot(int, int, int)} when the hopper is not next to the inventory
+     */
+    public static final int NOT_ADJACENT = -1;
+
+    /**
+     * The maximum amount of inventories decisions are kept for before the cache is emptied
+     */
+    private static final int MAX_ENTRIES = 20000;
+
+    /**
+     * The cached decisions in each world, keyed by the inventory's block
+     */
+    private final Map<String, LongObjectHashMap<Entry>> worlds = new HashMap<String, LongObjectHashMap<Entry>>();
+
+    /**
+     * The amount of inventories decisions are cached for
+     */
+    private int size = 0;
+
+    /**
+     * Get the slot a hopper at the given offset from the inventory uses
+     *
+     * @param dx
+     * @param dy
+     * @param dz
+     * @return the slot, or {@link #NOT_ADJACENT} if the hopper is not next to the inventory
+     */
+    public static int slot(int dx, int dy, int dz) {
+        if (dx < -1 || dx > 1 || dy < -1 || dy > 1 || dz < -1 || dz > 1) {
+            return NOT_ADJACENT;
+        }
+
+        return (dx + 1) * 9 + (dy + 1) * 3 + (dz + 1);
+    }
+
+    /**
+     * Get the cached decision for a move
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @param slot
+     * @return {@link #ALLOW}, {@link #DENY} or {@link #UNKNOWN}
+     */
+    public int get(String world, int x, int y, int z, int slot) {
+        LongObjectHashMap<Entry> entries = worlds.get(world);
+
+        if (entries == null) {
+            return UNKNOWN;
+        }
+
+        Entry entry = entries.get(ProtectionCache.blockKey(x, y, z));
+
+        if (entry == null || entry.decisions[slot] == UNKNOWN) {
+            return UNKNOWN;
+        }
+
+        // the inventory's protection changed, none of the decisions for it can be trusted
+        if (entry.protection != null && entry.protection.getRevision() != entry.revision) {
+            entries.remove(ProtectionCache.blockKey(x, y, z));
+            size --;
+            return UNKNOWN;
+        }
+
+        Protection hopperProtection = entry.hopperProtections[slot];
+
+        if (hopperProtection != null && hopperProtection.getRevision() != entry.hopperRevisions[slot]) {
+            entry.decisions[slot] = UNKNOWN;
+            return UNKNOWN;
+        }
+
+        return entry.decisions[slot];
+    }
+
+    /**
+     * Cache the decision for a move
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @param slot
+     * @param deny
+     * @param protection the inventory's protection, may be null
+     * @param hopperProtection the hopper's protection if it was used to make the decision, may be null
+     */
+    public void put(String world, int x, int y, int z, int slot, boolean deny, Protection protection, Protection hopperProtection) {
+        LongObjectHashMap<Entry> entries = worlds.get(world);
+
+        if (entries == null) {
+            entries = new LongObjectHashMap<Entry>();
+            worlds.put(world, entries);
+        }
+
+        long key = ProtectionCache.blockKey(x, y, z);
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.protection != protection || (protection != null && protection.getRevision() != entry.revision)) {
+            if (entry == null) {
+                if (size >= MAX_ENTRIES) {
+                    clear();
+                    put(world, x, y, z, slot, deny, protection, hopperProtection);
+                    return;
+                }
+
+                size ++;
+            }
+
+            entry = new Entry(protection);
+            entries.put(key, entry);
+        }
+
+        entry.decisions[slot] = (byte) (deny ? DENY : ALLOW);
+        entry.hopperProtections[slot] = hopperProtection;
+        entry.hopperRevisions[slot] = hopperProtection != null ? hopperProtection.getRevision() : 0;
+    }
+
+    /**
+     * Forget every cached decision
+     */
+    public void clear() {
+        worlds.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the amount of inventories decisions are cached for
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The decisions cached for one inventory
+     */
+    private static class Entry {
+
+        /**
+         * The inventory's protection when the decisions were made
+         */
+        private final Protection protection;
+
+        /**
+         * The revision of the inventory's protection when the decisions were made
+         */
+        private final int revision;
+
+        /**
+         * The decision for each hopper slot
+         */
+        private final byte[] decisions = new byte[NO_HOPPER + 1];
+
+        /**
+         * The hopper protection each decision was made with
+         */
+        private final Protection[] hopperProtections = new Protection[NO_HOPPER + 1];
+
+        /**
+         * The revision of the hopper protection each decision was made with
+         */
+        private final int[] hopperRevisions = new int[NO_HOPPER + 1];
+
+        private Entry(Protection protection) {
+            this.protection = protection;
+            this.revision = protection != null ? protection.getRevision() : 0;
+        }
+
+    }
+
+}
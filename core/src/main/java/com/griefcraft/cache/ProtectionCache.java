@@ -35,6 +35,12 @@ import org.bukkit.Location;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class ProtectionCache {
 
     /**
@@ -47,35 +53,56 @@ public class ProtectionCache {
      */
     private final static int ADAPTIVE_CACHE_MAX = 100000;
 
+    /**
+     * Used as the reference value for protections that have no known blocks
+     */
+    private final static long[] NO_KNOWN_BLOCKS = new long[0];
+
+    /**
+     * Used for byKnownNulls
+     */
+    private final static Object FAKE_VALUE = new Object();
+
     /**
      * The LWC instance this set belongs to
      */
     private final LWC lwc;
 
     /**
-     * Hard references to protections still cached
+     * Hard references to protections still cached. The value is the IndexEntry describing where the protection
+     * was indexed, so it can be unindexed when it is evicted.
      */
     private final LRUCache<Protection, Object> references;
 
     /**
-     * Weak references to protections and their cache key (protection.getCacheKey())
+     * Weak references to protections and their protection id
      */
-    private final WeakLRUCache<String, Protection> byCacheKey;
+    private final WeakLRUCache<Integer, Protection> byId;
 
     /**
-     * Weak references to protections and their protection id
+     * The spatial indexes for each world, keyed by the world name
      */
-    private final WeakLRUCache<Integer, Protection> byId;
+    private final Map<String, WorldIndex> worlds = new HashMap<String, WorldIndex>();
+
+    /**
+     * The keys of the known nulls in the order they were added; used as a ring buffer to evict the oldest
+     */
+    private long[] knownNullKeys;
+
+    /**
+     * The world index each entry in knownNullKeys belongs to
+     */
+    private WorldIndex[] knownNullWorlds;
 
     /**
-     * A block that isn't the protected block itself but matches it in a protection matcher
+     * The position of the oldest known null in the ring buffer
      */
-    private final WeakLRUCache<String, Protection> byKnownBlock;
+    private int knownNullHead = 0;
 
     /**
-     * A cache of blocks that are known to not have a protection
+     * The amount of entries in the ring buffer
      */
-    private final LRUCache<String, Object> byKnownNulls;
+    private int knownNullCount = 0;
 
     /**
      * The capacity of the cache
@@ -93,19 +120,56 @@ public class ProtectionCache {
     private final MethodCounter counter = new MethodCounter();
 
     /**
-     * Used for byKnownNulls
+     * Incremented each time a protection is removed from the cache. Chunk loads that were started before a
+     * removal may still contain the removed protection.
      */
-    private final static Object FAKE_VALUE = new Object();
+    private long removals = 0;
 
     public ProtectionCache(LWC lwc) {
         this.lwc = lwc;
         this.capacity = lwc.getConfiguration().getInt("core.cacheSize", 10000);
 
-        this.references = new LRUCache<Protection, Object>(capacity);
-        this.byCacheKey = new WeakLRUCache<String, Protection>(capacity);
+        this.references = new LRUCache<Protection, Object>(capacity) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Protection, Object> eldest) {
+                if (size() > maxCapacity) {
+                    unindex(eldest.getKey(), eldest.getValue(), true);
+                    eldest.getKey().invalidateRevision();
+                    return true;
+                }
+
+                return false;
+            }
+        };
         this.byId = new WeakLRUCache<Integer, Protection>(capacity);
-        this.byKnownBlock = new WeakLRUCache<String, Protection>(capacity);
-        this.byKnownNulls = new LRUCache<String, Object>(Math.min(10000, capacity)); // enforce a min size so we have a known buffer
+
+        int knownNullCapacity = Math.min(10000, capacity); // enforce a min size so we have a known buffer
+        this.knownNullKeys = new long[knownNullCapacity];
+        this.knownNullWorlds = new WorldIndex[knownNullCapacity];
+    }
+
+    /**
+     * Pack block coordinates into the key used by the spatial indexes.
+     * x and z use 26 bits each (+-33 million) and y uses the remaining 12 bits.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long blockKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (long) (y & 0xFFF);
+    }
+
+    /**
+     * Pack chunk coordinates into the key used by the chunk index
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
     }
 
     /**
@@ -171,11 +235,12 @@ public class ProtectionCache {
         // remove hard refs
         references.clear();
 
-        // remove weak refs
-        byCacheKey.clear();
+        // remove the indexes
         byId.clear();
-        byKnownBlock.clear();
-        byKnownNulls.clear();
+        worlds.clear();
+        Arrays.fill(knownNullWorlds, null);
+        knownNullHead = 0;
+        knownNullCount = 0;
     }
 
     /**
@@ -208,23 +273,40 @@ public class ProtectionCache {
 
         counter.increment("addProtection");
 
-        // Add the hard reference
-        references.put(protection, null);
-
-        // Add weak references which are used to lookup protections
-        byCacheKey.put(protection.getCacheKey(), protection);
-        byId.put(protection.getId(), protection);
+        long[] knownBlocks = NO_KNOWN_BLOCKS;
 
         // get the protection's finder if it was found via that
         if (protection.getProtectionFinder() != null) {
-            Block protectedBlock = protection.getBlock();
+            List<BlockState> blocks = protection.getProtectionFinder().getBlocks();
+            long[] keys = new long[blocks.size()];
+            int count = 0;
 
-            for (BlockState state : protection.getProtectionFinder().getBlocks()) {
-                if (!protectedBlock.equals(state.getBlock())) {
-                    String cacheKey = cacheKey(state.getLocation());
-                    byKnownBlock.put(cacheKey, protection);
+            for (BlockState state : blocks) {
+                if (state.getX() != protection.getX() || state.getY() != protection.getY() || state.getZ() != protection.getZ()) {
+                    keys[count++] = blockKey(state.getX(), state.getY(), state.getZ());
                 }
             }
+
+            knownBlocks = count == keys.length ? keys : Arrays.copyOf(keys, count);
+        }
+
+        // Drop where it was indexed the previous time it was cached. It is removed before being re-added so that the
+        // references cache holds this instance as the key rather than an older, equal instance
+        unindex(protection, references.remove(protection), false);
+
+        IndexEntry entry = new IndexEntry(protection, knownBlocks);
+        WorldIndex index = getWorldIndex(entry.world, true);
+
+        // Add the hard reference
+        references.put(protection, entry);
+
+        // Add the references which are used to lookup protections
+        index.byLocation.put(entry.location, protection);
+        index.getChunk(entry.chunk, true).protections.add(protection);
+        byId.put(protection.getId(), protection);
+
+        for (long key : knownBlocks) {
+            index.byKnownBlock.put(key, protection);
         }
     }
 
@@ -235,67 +317,165 @@ public class ProtectionCache {
      */
     public void removeProtection(Protection protection) {
         counter.increment("removeProtection");
+        removals ++;
 
-        references.remove(protection);
-        byId.remove(protection.getId());
+        unindex(protection, references.remove(protection), false);
+        protection.invalidateRevision();
 
         if (protection.getProtectionFinder() != null) {
             for (BlockState state : protection.getProtectionFinder().getBlocks()) {
-                remove(cacheKey(state.getLocation()));
+                remove(state.getWorld().getName(), state.getX(), state.getY(), state.getZ());
             }
         }
     }
 
     /**
-     * Remove the given cache key from any caches
+     * Remove the given block from any caches
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      */
-    public void remove(String cacheKey) {
-        byCacheKey.remove(cacheKey);
-        byKnownBlock.remove(cacheKey);
-        byKnownNulls.remove(cacheKey);
+    public void remove(String world, int x, int y, int z) {
+        WorldIndex index = worlds.get(world);
+
+        if (index == null) {
+            return;
+        }
+
+        long key = blockKey(x, y, z);
+
+        if (index.byLocation.remove(key) != null) {
+            removals ++;
+
+            // the protection may still exist, so the chunk can no longer answer for missing protections
+            ChunkIndex chunk = index.getChunk(chunkKey(x >> 4, z >> 4), false);
+
+            if (chunk != null) {
+                chunk.loaded = false;
+            }
+        }
+
+        index.byKnownBlock.remove(key);
+        index.knownNulls.remove(key);
     }
 
     /**
-     * Make a cache key known as null in the cache
+     * Remove the given block from any caches
      *
-     * @param cacheKey
+     * @param block
      */
-    public void addKnownNull(String cacheKey) {
+    public void remove(Block block) {
+        remove(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Make a block known as null in the cache
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addKnownNull(String world, int x, int y, int z) {
         counter.increment("addKnownNull");
-        byKnownNulls.put(cacheKey, FAKE_VALUE);
+
+        WorldIndex index = getWorldIndex(world, true);
+        long key = blockKey(x, y, z);
+
+        if (index.knownNulls.put(key, FAKE_VALUE) != null) {
+            return;
+        }
+
+        // evict the oldest known null if the buffer is full
+        if (knownNullCount == knownNullKeys.length) {
+            knownNullWorlds[knownNullHead].knownNulls.remove(knownNullKeys[knownNullHead]);
+            knownNullWorlds[knownNullHead] = null;
+            knownNullHead = (knownNullHead + 1) % knownNullKeys.length;
+            knownNullCount--;
+        }
+
+        int tail = (knownNullHead + knownNullCount) % knownNullKeys.length;
+        knownNullKeys[tail] = key;
+        knownNullWorlds[tail] = index;
+        knownNullCount++;
     }
 
     /**
-     * Check if a cache key is known to not exist in the database
+     * Check if a block is known to not exist in the database
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      * @return
      */
-    public boolean isKnownNull(String cacheKey) {
+    public boolean isKnownNull(String world, int x, int y, int z) {
         counter.increment("isKnownNull");
-        return byKnownNulls.containsKey(cacheKey);
+
+        WorldIndex index = worlds.get(world);
+        return index != null && index.knownNulls.containsKey(blockKey(x, y, z));
     }
 
     /**
-     * Get a protection in the cache via its cache key
+     * Check if a location is known to not exist in the database
      *
-     * @param cacheKey
+     * @param location
      * @return
      */
-    public Protection getProtection(String cacheKey) {
+    public boolean isKnownNull(Location location) {
+        return isKnownNull(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Check if a block is known to not exist in the database
+     *
+     * @param block
+     * @return
+     */
+    public boolean isKnownNull(Block block) {
+        return isKnownNull(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Get a protection in the cache located at the given coordinates
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public Protection getProtection(String world, int x, int y, int z) {
         counter.increment("getProtection");
 
+        WorldIndex index = worlds.get(world);
+
+        if (index == null) {
+            return null;
+        }
+
+        long key = blockKey(x, y, z);
         Protection protection;
 
         // Check the direct cache first
-        if ((protection = byCacheKey.get(cacheKey)) != null) {
+        if ((protection = index.byLocation.get(key)) != null) {
             return protection;
         }
 
         // now use the 'others' cache
-        return byKnownBlock.get(cacheKey);
+        return index.byKnownBlock.get(key);
+    }
+
+    /**
+     * Get a protection in the cache located at the given location
+     *
+     * @param location
+     * @return
+     */
+    public Protection getProtection(Location location) {
+        return getProtection(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
     /**
@@ -305,7 +485,7 @@ public class ProtectionCache {
      * @return
      */
     public Protection getProtection(Block block) {
-        return getProtection(cacheKey(block.getWorld().getName(), block.getX(), block.getY(), block.getZ()));
+        return getProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
     }
 
     /**
@@ -315,18 +495,117 @@ public class ProtectionCache {
      * @return
      */
     public Protection getProtection(BlockState block) {
-        return getProtection(cacheKey(block.getWorld().getName(), block.getX(), block.getY(), block.getZ()));
+        return getProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
     }
 
     /**
-     * Check if the known block protection cache contains the given key
+     * Check if the known block protection cache contains the given block
      *
      * @param block
      * @return
      */
     public boolean isKnownBlock(Block block) {
         counter.increment("isKnownBlock");
-        return byKnownBlock.containsKey(cacheKey(block.getWorld().getName(), block.getX(), block.getY(), block.getZ()));
+
+        WorldIndex index = worlds.get(block.getWorld().getName());
+        return index != null && index.byKnownBlock.containsKey(blockKey(block.getX(), block.getY(), block.getZ()));
+    }
+
+    /**
+     * Cache all of the protections in a chunk. Until the chunk is unloaded or one of its protections is evicted,
+     * the chunk is known to hold no protections other than the ones that are cached.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @param protections every protection in the chunk
+     */
+    public void loadChunk(String world, int chunkX, int chunkZ, List<Protection> protections) {
+        counter.increment("loadChunk");
+
+        List<Protection> cached = new ArrayList<Protection>(protections.size());
+
+        for (Protection protection : protections) {
+            // keep the instance that is already cached so any changes pending on it are not lost
+            Protection existing = byId.get(protection.getId());
+
+            if (existing == null || !references.containsKey(existing)) {
+                addProtection(protection);
+                existing = protection;
+            }
+
+            cached.add(existing);
+        }
+
+        // if any of them were pushed out of the cache while loading, the chunk cannot be authoritative
+        for (Protection protection : cached) {
+            if (!references.containsKey(protection)) {
+                return;
+            }
+        }
+
+        getWorldIndex(world, true).getChunk(chunkKey(chunkX, chunkZ), true).loaded = true;
+    }
+
+    /**
+     * Get the amount of times a protection was removed from the cache. If this changes while a chunk is being
+     * loaded off of the main thread, the loaded protections should not be given to {@link #loadChunk}.
+     *
+     * @return
+     */
+    public long getRemovals() {
+        return removals;
+    }
+
+    /**
+     * Remove the protections in a chunk from the cache. Protections that are still waiting to be saved are kept.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void unloadChunk(String world, int chunkX, int chunkZ) {
+        WorldIndex index = worlds.get(world);
+
+        if (index == null) {
+            return;
+        }
+
+        ChunkIndex chunk = index.byChunk.remove(chunkKey(chunkX, chunkZ));
+
+        if (chunk == null) {
+            return;
+        }
+
+        counter.increment("unloadChunk");
+
+        for (Protection protection : chunk.protections.toArray(new Protection[chunk.protections.size()])) {
+            if (lwc.getDatabaseThread() != null && lwc.getDatabaseThread().contains(protection)) {
+                continue;
+            }
+
+            unindex(protection, references.remove(protection), false);
+            protection.invalidateRevision();
+        }
+    }
+
+    /**
+     * Check if every protection in the given chunk is known to be in the cache
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    public boolean isChunkLoaded(String world, int chunkX, int chunkZ) {
+        WorldIndex index = worlds.get(world);
+
+        if (index == null) {
+            return false;
+        }
+
+        ChunkIndex chunk = index.byChunk.get(chunkKey(chunkX, chunkZ));
+        return chunk != null && chunk.loaded;
     }
 
     /**
@@ -345,22 +624,166 @@ public class ProtectionCache {
      *
      * @param location
      * @return
+     * @deprecated the cache is indexed by world and packed block coordinates; use the methods taking coordinates
      */
+    @Deprecated
     public String cacheKey(Location location) {
-        return cacheKey(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        return location.getWorld().getName() + ":" + location.getBlockX() + ":" + location.getBlockY() + ":" + location.getBlockZ();
+    }
+
+    /**
+     * Get a protection in the cache via its cache key
+     *
+     * @param cacheKey
+     * @return
+     * @deprecated use {@link #getProtection(String, int, int, int)}
+     */
+    @Deprecated
+    public Protection getProtection(String cacheKey) {
+        int[] coordinates = new int[3];
+        String world = parseCacheKey(cacheKey, coordinates);
+        return world == null ? null : getProtection(world, coordinates[0], coordinates[1], coordinates[2]);
+    }
+
+    /**
+     * Remove the given cache key from any caches
+     *
+     * @param cacheKey
+     * @deprecated use {@link #remove(String, int, int, int)}
+     */
+    @Deprecated
+    public void remove(String cacheKey) {
+        int[] coordinates = new int[3];
+        String world = parseCacheKey(cacheKey, coordinates);
+
+        if (world != null) {
+            remove(world, coordinates[0], coordinates[1], coordinates[2]);
+        }
+    }
+
+    /**
+     * Make a cache key known as null in the cache
+     *
+     * @param cacheKey
+     * @deprecated use {@link #addKnownNull(String, int, int, int)}
+     */
+    @Deprecated
+    public void addKnownNull(String cacheKey) {
+        int[] coordinates = new int[3];
+        String world = parseCacheKey(cacheKey, coordinates);
+
+        if (world != null) {
+            addKnownNull(world, coordinates[0], coordinates[1], coordinates[2]);
+        }
+    }
+
+    /**
+     * Check if a cache key is known to not exist in the database
+     *
+     * @param cacheKey
+     * @return
+     * @deprecated use {@link #isKnownNull(String, int, int, int)}
+     */
+    @Deprecated
+    public boolean isKnownNull(String cacheKey) {
+        int[] coordinates = new int[3];
+        String world = parseCacheKey(cacheKey, coordinates);
+        return world != null && isKnownNull(world, coordinates[0], coordinates[1], coordinates[2]);
+    }
+
+    /**
+     * Split a cache key (world:x:y:z) into its world and coordinates. The world is taken as everything before the
+     * coordinates, so world names containing a colon are kept whole.
+     *
+     * @param cacheKey
+     * @param coordinates filled with the x, y and z coordinates
+     * @return the world, or null if the cache key is not valid
+     */
+    private static String parseCacheKey(String cacheKey, int[] coordinates) {
+        if (cacheKey == null) {
+            return null;
+        }
+
+        int end = cacheKey.length();
+
+        for (int index = 2; index >= 0; index--) {
+            int separator = cacheKey.lastIndexOf(':', end - 1);
+
+            if (separator <= 0) {
+                return null;
+            }
+
+            try {
+                coordinates[index] = Integer.parseInt(cacheKey.substring(separator + 1, end));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            end = separator;
+        }
+
+        return cacheKey.substring(0, end);
+    }
+
+    /**
+     * Remove a protection from the indexes, only where it is still the indexed protection
+     *
+     * @param protection
+     * @param reference the value the protection had in the references cache
+     * @param evicted true if the protection still exists and was only pushed out of the cache
+     */
+    private void unindex(Protection protection, Object reference, boolean evicted) {
+        if (!(reference instanceof IndexEntry)) {
+            return;
+        }
+
+        IndexEntry entry = (IndexEntry) reference;
+        WorldIndex index = worlds.get(entry.world);
+
+        if (index != null) {
+            index.byLocation.remove(entry.location, protection);
+
+            for (long key : entry.knownBlocks) {
+                index.byKnownBlock.remove(key, protection);
+            }
+
+            ChunkIndex chunk = index.getChunk(entry.chunk, false);
+
+            if (chunk != null) {
+                chunk.protections.remove(protection);
+
+                // an evicted protection is still in the database, so the chunk is no longer fully cached
+                if (evicted) {
+                    chunk.loaded = false;
+                }
+
+                if (!chunk.loaded && chunk.protections.isEmpty()) {
+                    index.byChunk.remove(entry.chunk);
+                }
+            }
+        }
+
+        if (protection.equals(byId.get(protection.getId()))) {
+            byId.remove(protection.getId());
+        }
     }
 
     /**
-     * Generate a cache key using the given data
+     * Get the spatial index for a world
      *
      * @param world
-     * @param x
-     * @param y
-     * @param z
+     * @param create if the index should be created if it does not exist yet
      * @return
      */
-    private String cacheKey(String world, int x, int y, int z) {
-        return world + ":" + x + ":" + y + ":" + z;
+    private WorldIndex getWorldIndex(String world, boolean create) {
+        WorldIndex index = worlds.get(world);
+
+        if (index == null && create) {
+            index = new WorldIndex();
+            worlds.put(world, index);
+        }
+
+        return index;
     }
 
     /**
@@ -368,10 +791,125 @@ public class ProtectionCache {
      */
     private void adjustCacheSizes() {
         references.maxCapacity = totalCapacity();
-        byCacheKey.maxCapacity = totalCapacity();
         byId.maxCapacity = totalCapacity();
-        byKnownBlock.maxCapacity = totalCapacity();
-        byKnownNulls.maxCapacity = totalCapacity();
+
+        // grow the known null buffer, keeping the oldest entry first
+        long[] keys = new long[totalCapacity()];
+        WorldIndex[] indexes = new WorldIndex[totalCapacity()];
+        int count = Math.min(knownNullCount, keys.length);
+
+        for (int i = 0; i < knownNullCount; i++) {
+            int from = (knownNullHead + i) % knownNullKeys.length;
+
+            if (i < knownNullCount - count) {
+                knownNullWorlds[from].knownNulls.remove(knownNullKeys[from]);
+                continue;
+            }
+
+            keys[i - (knownNullCount - count)] = knownNullKeys[from];
+            indexes[i - (knownNullCount - count)] = knownNullWorlds[from];
+        }
+
+        knownNullKeys = keys;
+        knownNullWorlds = indexes;
+        knownNullHead = 0;
+        knownNullCount = count;
+    }
+
+    /**
+     * The spatial indexes for a single world
+     */
+    private static final class WorldIndex {
+
+        /**
+         * Protections keyed by the block they are registered on
+         */
+        private final LongObjectHashMap<Protection> byLocation = new LongObjectHashMap<Protection>();
+
+        /**
+         * Blocks that aren't the protected block itself but match it in a protection matcher
+         */
+        private final LongObjectHashMap<Protection> byKnownBlock = new LongObjectHashMap<Protection>();
+
+        /**
+         * Blocks that are known to not have a protection
+         */
+        private final LongObjectHashMap<Object> knownNulls = new LongObjectHashMap<Object>();
+
+        /**
+         * The cached protections grouped by the chunk they are in
+         */
+        private final LongObjectHashMap<ChunkIndex> byChunk = new LongObjectHashMap<ChunkIndex>();
+
+        /**
+         * Get the index for a chunk
+         *
+         * @param chunkKey
+         * @param create if the index should be created if it does not exist yet
+         * @return
+         */
+        private ChunkIndex getChunk(long chunkKey, boolean create) {
+            ChunkIndex chunk = byChunk.get(chunkKey);
+
+            if (chunk == null && create) {
+                chunk = new ChunkIndex();
+                byChunk.put(chunkKey, chunk);
+            }
+
+            return chunk;
+        }
+
+    }
+
+    /**
+     * The cached protections in a single chunk
+     */
+    private static final class ChunkIndex {
+
+        /**
+         * The protections cached in the chunk
+         */
+        private final List<Protection> protections = new ArrayList<Protection>(4);
+
+        /**
+         * True if every protection in the chunk was loaded into the cache
+         */
+        private boolean loaded = false;
+
+    }
+
+    /**
+     * Where a protection was indexed at the time it was cached
+     */
+    private static final class IndexEntry {
+
+        /**
+         * The world the protection was in
+         */
+        private final String world;
+
+        /**
+         * The block key of the protection
+         */
+        private final long location;
+
+        /**
+         * The chunk key of the protection
+         */
+        private final long chunk;
+
+        /**
+         * The block keys of the blocks matched to the protection
+         */
+        private final long[] knownBlocks;
+
+        private IndexEntry(Protection protection, long[] knownBlocks) {
+            this.world = protection.getWorld();
+            this.location = blockKey(protection.getX(), protection.getY(), protection.getZ());
+            this.chunk = chunkKey(protection.getX() >> 4, protection.getZ() >> 4);
+            this.knownBlocks = knownBlocks;
+        }
+
     }
 
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.sql.PhysDB;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the amount of protections each owner has, in total and per block id, so protection limits can be checked
+ * without counting rows in the database.
+ * <p/>
+ * The counts are loaded in the background when LWC starts and are kept up to date as protections are registered and
+ * removed. Until they are loaded, an owner's counts are loaded from the database the first time they are needed.
+ * Anything that removes protections without going through {@link com.griefcraft.model.Protection#remove()} must
+ * {@link #load()} the counts again.
+ */
+public class ProtectionCountCache {
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The counts for each owner, keyed by the lowercase owner
+     */
+    private final ConcurrentHashMap<String, OwnerCounts> owners = new ConcurrentHashMap<String, OwnerCounts>();
+
+    /**
+     * Owners whose counts changed while every count was being loaded. The loaded counts for them may be out of date so
+     * they are loaded again when they are needed
+     */
+    private final Set<String> changedWhileLoading = new HashSet<String>();
+
+    /**
+     * Incremented each time the counts are reloaded so an older load that finishes late is discarded
+     */
+    private int generation = 0;
+
+    /**
+     * If every owner's counts are loaded. Once they are, an owner without counts has no protections
+     */
+    private volatile boolean loaded = false;
+
+    /**
+     * If the counts are currently being loaded
+     */
+    private boolean loading = false;
+
+    public ProtectionCountCache(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Drop every count and load them again in the background
+     */
+    public void load() {
+        final int loadGeneration;
+
+        synchronized (this) {
+            owners.clear();
+            loadGeneration = ++ generation;
+            loading = true;
+            loaded = false;
+            changedWhileLoading.clear();
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                PhysDB database = lwc.getPhysicalDatabase();
+                Map<String, OwnerCounts> counts = null;
+
+                try {
+                    counts = database.loadProtectionCounts();
+                } catch (Exception e) {
+                    // fall back to loading each owner's counts when they are needed
+                    lwc.log("Failed to load protection counts: " + e.getMessage());
+                } finally {
+                    database.releaseConnection();
+                }
+
+                complete(loadGeneration, counts);
+            }
+        }, "LWC Protection Counter");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Add the loaded counts
+     *
+     * @param loadGeneration
+     * @param counts the loaded counts, or null if they could not be loaded
+     */
+    private synchronized void complete(int loadGeneration, Map<String, OwnerCounts> counts) {
+        if (loadGeneration != generation) {
+            return;
+        }
+
+        loading = false;
+
+        // counts will keep being loaded for each owner when they are needed
+        if (counts == null) {
+            changedWhileLoading.clear();
+            return;
+        }
+
+        for (Map.Entry<String, OwnerCounts> entry : counts.entrySet()) {
+            if (!changedWhileLoading.contains(entry.getKey())) {
+                owners.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * @return true if every owner's counts are loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return the amount of owners that have counts
+     */
+    public int size() {
+        return owners.size();
+    }
+
+    /**
+     * Get the amount of protections a player owns, by their UUID or by their name
+     *
+     * @param player
+     * @return
+     */
+    public int getProtectionCount(Player player) {
+        return getCounts(player.getUniqueId().toString()).getTotal() + getCounts(player.getName()).getTotal();
+    }
+
+    /**
+     * Get the amount of protections of one block id a player owns, by their UUID or by their name
+     *
+     * @param player
+     * @param blockId
+     * @return
+     */
+    public int getProtectionCount(Player player, int blockId) {
+        return getCounts(player.getUniqueId().toString()).get(blockId) + getCounts(player.getName()).get(blockId);
+    }
+
+    /**
+     * Get the amount of protections an owner has
+     *
+     * @param owner
+     * @return
+     */
+    public int getProtectionCount(String owner) {
+        return getCounts(owner).getTotal();
+    }
+
+    /**
+     * Get the amount of protections of one block id an owner has
+     *
+     * @param owner
+     * @param blockId
+     * @return
+     */
+    public int getProtectionCount(String owner, int blockId) {
+        return getCounts(owner).get(blockId);
+    }
+
+    /**
+     * Count a protection that was registered
+     *
+     * @param owner
+     * @param blockId
+     */
+    public void increment(String owner, int blockId) {
+        change(owner, blockId, 1);
+    }
+
+    /**
+     * Stop counting a protection that was removed
+     *
+     * @param owner
+     * @param blockId
+     */
+    public void decrement(String owner, int blockId) {
+        change(owner, blockId, -1);
+    }
+
+    /**
+     * Forget an owner's counts after their protections changed in a way that was not counted. They are loaded from
+     * the database again when they are needed.
+     *
+     * @param owner
+     */
+    public void invalidate(String owner) {
+        if (owner == null) {
+            return;
+        }
+
+        String key = owner.toLowerCase();
+
+        synchronized (this) {
+            owners.remove(key);
+
+            if (loading || loaded) {
+                changedWhileLoading.add(key);
+            }
+        }
+    }
+
+    /**
+     * Apply a change to an owner's counts
+     *
+     * @param owner
+     * @param blockId
+     * @param delta
+     */
+    private void change(String owner, int blockId, int delta) {
+        if (owner == null) {
+            return;
+        }
+
+        String key = owner.toLowerCase();
+        OwnerCounts counts;
+
+        synchronized (this) {
+            if (loading) {
+                changedWhileLoading.add(key);
+            }
+
+            counts = owners.get(key);
+
+            // if their counts are not known yet they will include this change when they are loaded from the database
+            if (counts == null) {
+                if (!loaded || changedWhileLoading.contains(key)) {
+                    return;
+                }
+
+                counts = new OwnerCounts();
+                owners.put(key, counts);
+            }
+        }
+
+        counts.add(blockId, delta);
+    }
+
+    /**
+     * Get an owner's counts, loading them from the database if they are not known
+     *
+     * @param owner
+     * @return
+     */
+    private OwnerCounts getCounts(String owner) {
+        String key = owner.toLowerCase();
+        OwnerCounts counts = owners.get(key);
+
+        if (counts != null) {
+            return counts;
+        }
+
+        boolean query;
+
+        synchronized (this) {
+            query = !loaded || changedWhileLoading.remove(key);
+        }
+
+        counts = query ? lwc.getPhysicalDatabase().loadProtectionCounts(owner) : new OwnerCounts();
+        OwnerCounts existing = owners.putIfAbsent(key, counts);
+
+        return existing != null ? existing : counts;
+    }
+
+    /**
+     * The amount of protections one owner has
+     */
+    public static class OwnerCounts {
+
+        /**
+         * The total amount of protections
+         */
+        private int total = 0;
+
+        /**
+         * The amount of protections for each block id. The values are mutable so counting does not box a new Integer
+         */
+        private final Map<Integer, int[]> blocks = new HashMap<Integer, int[]>();
+
+        /**
+         * @return the total amount of protections
+         */
+        public synchronized int getTotal() {
+            return total;
+        }
+
+        /**
+         * Get the amount of protections for a block id
+         *
+         * @param blockId
+         * @return
+         */
+        public synchronized int get(int blockId) {
+            int[] count = blocks.get(blockId);
+            return count != null ? count[0] : 0;
+        }
+
+        /**
+         * Add to the amount of protections for a block id
+         *
+         * @param blockId
+         * @param amount
+         */
+        public synchronized void add(int blockId, int amount) {
+            int[] count = blocks.get(blockId);
+
+            if (count == null) {
+                blocks.put(blockId, new int[]{ amount });
+            } else {
+                count[0] += amount;
+            }
+
+            total += amount;
+        }
+
+    }
+
+}
@@ -30,12 +30,16 @@ package com.griefcraft.io;
 
 import org.bukkit.inventory.ItemStack;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
@@ -114,10 +118,10 @@ public class Backup {
 
         // create the stream we need
         if (operationMode == OperationMode.READ) {
-            FileInputStream fis = new FileInputStream(file);
+            InputStream fis = new BufferedInputStream(new FileInputStream(file));
             inputStream = new DataInputStream(compression ? new GZIPInputStream(fis) : fis);
         } else if (operationMode == OperationMode.WRITE) {
-            FileOutputStream fos = new FileOutputStream(file);
+            OutputStream fos = new BufferedOutputStream(new FileOutputStream(file));
             outputStream = new DataOutputStream(compression ? new GZIPOutputStream(fos) : fos);
         }
     }
@@ -132,6 +136,29 @@ public class Backup {
             throw new UnsupportedOperationException("READ is not allowed on this backup.");
         }
 
+        return readRestorable(inputStream);
+    }
+
+    /**
+     * Write an entity to the backup file
+     *
+     * @param restorable
+     */
+    protected void writeRestorable(Restorable restorable) throws IOException {
+        if (operationMode != OperationMode.WRITE) {
+            throw new UnsupportedOperationException("WRITE is not allowed on this backup.");
+        }
+
+        writeRestorable(outputStream, restorable);
+    }
+
+    /**
+     * Read an entity from a stream
+     *
+     * @param inputStream
+     * @return the entity, or null at the end of the stream
+     */
+    static Restorable readRestorable(DataInputStream inputStream) throws IOException {
         // The object type
         int type = (byte) inputStream.read();
 
@@ -188,15 +215,12 @@ public class Backup {
     }
 
     /**
-     * Write an entity to the backup file
+     * Write an entity to a stream
      *
+     * @param outputStream
      * @param restorable
      */
-    protected void writeRestorable(Restorable restorable) throws IOException {
-        if (operationMode != OperationMode.WRITE) {
-            throw new UnsupportedOperationException("WRITE is not allowed on this backup.");
-        }
-
+    static void writeRestorable(DataOutputStream outputStream, Restorable restorable) throws IOException {
         // write the id
         outputStream.write((byte) restorable.getType());
 
@@ -205,7 +229,7 @@ public class Backup {
             RestorableProtection rprotection = (RestorableProtection) restorable;
 
             outputStream.writeInt(rprotection.getId());
-            outputStream.writeByte(rprotection.getType());
+            outputStream.writeByte(rprotection.getProtectionType());
             outputStream.writeShort(rprotection.getBlockId());
             outputStream.writeUTF(rprotection.getOwner());
             outputStream.writeUTF(rprotection.getWorld());
@@ -237,8 +261,6 @@ public class Backup {
                 outputStream.writeShort(stack.getDurability());
             }
         }
-
-        outputStream.flush();
     }
 
     /**
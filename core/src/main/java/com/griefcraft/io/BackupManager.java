@@ -29,25 +29,19 @@
 package com.griefcraft.io;
 
 import com.griefcraft.lwc.LWC;
-import com.griefcraft.model.Protection;
-import com.griefcraft.sql.Database;
-import com.griefcraft.sql.PhysDB;
 import org.bukkit.Bukkit;
-import org.bukkit.Server;
-import org.bukkit.block.Block;
-import org.bukkit.plugin.Plugin;
-import org.bukkit.scheduler.BukkitScheduler;
 
 import java.io.File;
 import java.io.IOException;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class BackupManager {
@@ -80,9 +74,14 @@ public class BackupManager {
     private static String FILE_EXTENSION_UNCOMPRESSED = ".lwc";
 
     /**
-     * The amount of protection block gets to batch at once
+     * The file extension of chunked backups
      */
-    private static int BATCH_SIZE = 250;
+    private static String FILE_EXTENSION_CHUNKED = ".lwcb";
+
+    /**
+     * The amount of chunks decoded ahead of the chunk being restored
+     */
+    private static int RESTORE_READ_AHEAD = 4;
 
     /**
      * The folder backups are stored in
@@ -126,6 +125,12 @@ public class BackupManager {
      */
     public Result restoreBackup(String name) {
         try {
+            ChunkedBackup chunkedBackup = loadChunkedBackup(name);
+
+            if (chunkedBackup != null) {
+                return restoreChunks(chunkedBackup, chunkedBackup.getChunks());
+            }
+
             Backup backup = loadBackup(name);
 
             if (backup == null) {
@@ -180,6 +185,128 @@ public class BackupManager {
         }
     }
 
+    /**
+     * Restore the protections and blocks in one world from a chunked backup. This should be ran in a separate thread.
+     *
+     * @param name
+     * @param world
+     * @return OK if successful, otherwise FAILURE
+     */
+    public Result restoreBackup(String name, String world) {
+        try {
+            ChunkedBackup backup = loadChunkedBackup(name);
+
+            if (backup == null) {
+                return Result.FAILURE;
+            }
+
+            return restoreChunks(backup, backup.getChunks(world));
+        } catch (IOException e) {
+            System.out.println("[BackupManager] Caught: " + e.getMessage());
+            return Result.FAILURE;
+        }
+    }
+
+    /**
+     * Restore the protections and blocks in one region (512x512 blocks) of a world from a chunked backup.
+     * This should be ran in a separate thread.
+     *
+     * @param name
+     * @param world
+     * @param regionX the block x coordinate divided by 512
+     * @param regionZ the block z coordinate divided by 512
+     * @return OK if successful, otherwise FAILURE
+     */
+    public Result restoreBackup(String name, String world, int regionX, int regionZ) {
+        try {
+            ChunkedBackup backup = loadChunkedBackup(name);
+
+            if (backup == null) {
+                return Result.FAILURE;
+            }
+
+            return restoreChunks(backup, backup.getChunks(world, regionX, regionZ));
+        } catch (IOException e) {
+            System.out.println("[BackupManager] Caught: " + e.getMessage());
+            return Result.FAILURE;
+        }
+    }
+
+    /**
+     * Restore chunks from a chunked backup. The next few chunks are read and decoded by another thread while a chunk
+     * is being restored.
+     *
+     * @param backup
+     * @param chunks
+     * @return OK if successful, otherwise FAILURE
+     */
+    private Result restoreChunks(final ChunkedBackup backup, List<ChunkedBackup.Chunk> chunks) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        LinkedList<Future<List<Restorable>>> decoded = new LinkedList<Future<List<Restorable>>>();
+        int count = 0;
+        int protectionCount = 0;
+        int blockCount = 0;
+
+        try {
+            Iterator<ChunkedBackup.Chunk> iterator = chunks.iterator();
+
+            while (iterator.hasNext() || !decoded.isEmpty()) {
+                while (iterator.hasNext() && decoded.size() < RESTORE_READ_AHEAD) {
+                    final ChunkedBackup.Chunk chunk = iterator.next();
+
+                    decoded.add(executor.submit(new Callable<List<Restorable>>() {
+                        public List<Restorable> call() throws Exception {
+                            return backup.read(chunk);
+                        }
+                    }));
+                }
+
+                for (Restorable restorable : decoded.removeFirst().get()) {
+                    restorable.restore();
+
+                    if (count % 2000 == 0) {
+                        System.out.println("[Backup] Restored restorables: " + count);
+                    }
+                    count ++;
+
+                    if (restorable.getType() == 0) {
+                        protectionCount ++;
+                    } else if (restorable.getType() == 1) {
+                        blockCount ++;
+                    }
+                }
+            }
+
+            System.out.println(String.format("[BackupManager] Restored %d restorables from %d chunks. %d were protections, %d blocks.", count, chunks.size(), protectionCount, blockCount));
+            return Result.OK;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Result.FAILURE;
+        } finally {
+            executor.shutdownNow();
+
+            try {
+                backup.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Load a chunked backup
+     *
+     * @param name
+     * @return the backup, or null if there is no chunked backup with that name
+     */
+    public ChunkedBackup loadChunkedBackup(String name) throws IOException {
+        File file = new File(BACKUP_FOLDER, name + FILE_EXTENSION_CHUNKED);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        return ChunkedBackup.open(file);
+    }
+
     /**
      * Load a backup
      *
@@ -216,125 +343,13 @@ public class BackupManager {
      * @param flags
      * @return
      */
-    public Backup createBackup(String name, final EnumSet<Flag> flags) {
-        final LWC lwc = LWC.getInstance();
-        final Plugin plugin = lwc.getPlugin();
-        Server server = Bukkit.getServer();
-        final BukkitScheduler scheduler = server.getScheduler();
-        String extension = flags.contains(Flag.COMPRESSION) ? FILE_EXTENSION_COMPRESSED : FILE_EXTENSION_UNCOMPRESSED;
-        File backupFile = new File(backupFolder, name + extension);
-
-        // Our backup file
-        try {
-            final Backup backup = new Backup(backupFile, Backup.OperationMode.WRITE, flags);
-
-            scheduler.scheduleAsyncDelayedTask(plugin, new Runnable() {
-                public void run() {
-                    try {
-                        System.out.println("Processing backup request now in a separate thread");
-
-                        // the list of protections work off of. We batch updates to the world
-                        // so we can more than 20 results/second.
-                        final List<Protection> protections = new ArrayList<Protection>(BATCH_SIZE);
-
-                        // amount of protections
-                        int totalProtections = lwc.getPhysicalDatabase().getProtectionCount();
-
-                        // Write the header
-                        backup.writeHeader();
-
-                        // TODO separate stream logic to somewhere else :)
-                        // Create a new database connection, we are just reading
-                        PhysDB database = new PhysDB();
-                        database.connect();
-                        database.load();
-
-                        // TODO separate stream logic to somewhere else :)
-                        Statement resultStatement = database.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-
-                        if (lwc.getPhysicalDatabase().getType() == Database.Type.MySQL) {
-                            resultStatement.setFetchSize(Integer.MIN_VALUE);
-                        }
-
-                        String prefix = lwc.getPhysicalDatabase().getPrefix();
-                        ResultSet result = resultStatement.executeQuery("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections");
-                        int count = 0;
-
-                        while (result.next()) {
-                            final Protection tprotection = database.resolveProtection(result);
-
-                            if (count % 2000 == 0) {
-                                System.out.println("[Backup] Parsed protections: " + count + "/" + totalProtections);
-                            }
-                            count ++;
-
-                            if (protections.size() != BATCH_SIZE) {
-                                // Wait until we have BATCH_SIZE protections
-                                protections.add(tprotection);
-
-                                if (protections.size() != totalProtections) {
-                                    continue;
-                                }
-                            }
-
-                            // Get all of the blocks in the world
-                            Future<Void> getBlocks = scheduler.callSyncMethod(plugin, new Callable<Void>() {
-                                public Void call() throws Exception {
-                                    for (Protection protection : protections) {
-                                        protection.getBlock(); // this will cache it also :D
-                                    }
-
-                                    return null;
-                                }
-                            });
-
-                            // Get all of the blocks
-                            getBlocks.get();
-
-                            for (Protection protection : protections) {
-                                try {
-                                    // if we are writing the block to the backup, do that before we write the protection
-                                    if (flags.contains(Flag.BACKUP_BLOCKS)) {
-                                        // now we can get the block from the world
-                                        Block block = protection.getBlock();
-
-                                        // Wrap the block object in a RestorableBlock object
-                                        RestorableBlock rblock = RestorableBlock.wrapBlock(block);
-
-                                        // Write it
-                                        backup.writeRestorable(rblock);
-                                    }
-
-                                    // Now write the protection after the block if we are writing protections
-                                    if (flags.contains(Flag.BACKUP_PROTECTIONS)) {
-                                        RestorableProtection rprotection = RestorableProtection.wrapProtection(protection);
-
-                                        // Write it
-                                        backup.writeRestorable(rprotection);
-                                    }
-                                } catch (Exception e) {
-                                    System.out.println("Caught: " + e.getMessage() + ". Carrying on...");
-                                }
-                            }
-
-                            // Clear the protection set, we are done with them
-                            protections.clear();
-                        }
-
-                        // close the sql statements
-                        result.close();
-                        resultStatement.close();
-
-                        // close the backup file
-                        backup.close();
-
-                        System.out.println("Backup completed!");
-                    } catch (Exception e) { // database.connect() throws Exception
-                        System.out.println("Backup exception caught: " + e.getMessage());
-                    }
-                }
-            });
+    public ChunkedBackup createBackup(String name, final EnumSet<Flag> flags) {
+        LWC lwc = LWC.getInstance();
+        File backupFile = new File(backupFolder, name + FILE_EXTENSION_CHUNKED);
 
+        try {
+            ChunkedBackup backup = ChunkedBackup.create(backupFile, flags.contains(Flag.COMPRESSION));
+            Bukkit.getServer().getScheduler().scheduleAsyncDelayedTask(lwc.getPlugin(), new BackupWriter(lwc, backup, flags));
             return backup;
         } catch (IOException e) {
             e.printStackTrace();
@@ -350,7 +365,7 @@ public class BackupManager {
      * @param flags
      * @return
      */
-    public Backup createBackup(EnumSet<Flag> flags) {
+    public ChunkedBackup createBackup(EnumSet<Flag> flags) {
         return createBackup(new SimpleDateFormat(DATE_FORMAT).format(new Date()), flags);
     }
 
@@ -360,7 +375,7 @@ public class BackupManager {
      *
      * @return
      */
-    public Backup createBackup() {
+    public ChunkedBackup createBackup() {
         return createBackup(EnumSet.of(Flag.COMPRESSION, Flag.BACKUP_BLOCKS, Flag.BACKUP_PROTECTIONS));
     }
 
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.io;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.Database;
+import com.griefcraft.sql.PhysDB;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Streams every protection out of the database into a {@link ChunkedBackup}. Protections are grouped by region and
+ * each region's chunk is wrapped and compressed by a pool of threads while the database is still being read.
+ * Blocks are read from the world on the main thread, once per chunk.
+ */
+class BackupWriter implements Runnable {
+
+    /**
+     * The most protections put in one chunk
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    /**
+     * The most protections waiting in partially filled regions before every region is written out
+     */
+    private static final int MAX_BUFFERED = 50000;
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The backup being written
+     */
+    private final ChunkedBackup backup;
+
+    /**
+     * What to back up
+     */
+    private final EnumSet<BackupManager.Flag> flags;
+
+    /**
+     * The protections waiting to be written for each region
+     */
+    private final Map<String, Region> regions = new HashMap<String, Region>();
+
+    /**
+     * The amount of protections waiting in the regions
+     */
+    private int buffered = 0;
+
+    /**
+     * The amount of threads encoding chunks
+     */
+    private int threads;
+
+    /**
+     * The chunks being encoded
+     */
+    private CompletionService<ChunkedBackup.Chunk> encoder;
+
+    /**
+     * The amount of chunks being encoded that have not been written yet
+     */
+    private int pending = 0;
+
+    /**
+     * The amount of chunks written
+     */
+    private int written = 0;
+
+    /**
+     * The protections that are waiting to be written in one region
+     */
+    private static class Region {
+
+        private final String world;
+
+        private final int regionX;
+
+        private final int regionZ;
+
+        private final List<Protection> protections = new ArrayList<Protection>();
+
+        private Region(String world, int regionX, int regionZ) {
+            this.world = world;
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+        }
+
+    }
+
+    BackupWriter(LWC lwc, ChunkedBackup backup, EnumSet<BackupManager.Flag> flags) {
+        this.lwc = lwc;
+        this.backup = backup;
+        this.flags = flags;
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis();
+        threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LWC Backup Encoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        encoder = new ExecutorCompletionService<ChunkedBackup.Chunk>(executor);
+
+        try {
+            System.out.println("Processing backup request now in a separate thread");
+
+            // This thread is given its own connection from the pool, we are just reading
+            PhysDB database = lwc.getPhysicalDatabase();
+            int totalProtections = database.getProtectionCount();
+
+            Statement resultStatement = database.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+            if (database.getType() == Database.Type.MySQL) {
+                resultStatement.setFetchSize(Integer.MIN_VALUE);
+            }
+
+            ResultSet result = resultStatement.executeQuery("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + database.getPrefix() + "protections");
+            int count = 0;
+
+            while (result.next()) {
+                Protection protection = database.resolveProtection(result);
+
+                if (count % 20000 == 0) {
+                    System.out.println("[Backup] Parsed protections: " + count + "/" + totalProtections);
+                }
+                count ++;
+
+                if (protection == null || protection.getWorld() == null) {
+                    continue;
+                }
+
+                Region region = getRegion(protection);
+                region.protections.add(protection);
+                buffered ++;
+
+                if (region.protections.size() >= CHUNK_SIZE) {
+                    submit(region);
+                } else if (buffered >= MAX_BUFFERED) {
+                    submitAll();
+                }
+            }
+
+            // close the sql statements
+            result.close();
+            resultStatement.close();
+
+            // write out what is left
+            submitAll();
+
+            while (pending > 0) {
+                write(encoder.take());
+            }
+
+            backup.finish();
+            System.out.println(String.format("Backup completed! %d protections in %d chunks took %dms", count, written, System.currentTimeMillis() - start));
+        } catch (Exception e) {
+            System.out.println("Backup exception caught: " + e.getMessage());
+
+            try {
+                backup.close();
+            } catch (Exception ex) { }
+        } finally {
+            executor.shutdownNow();
+            lwc.getPhysicalDatabase().releaseConnection();
+        }
+    }
+
+    /**
+     * Get the region a protection is in
+     *
+     * @param protection
+     * @return
+     */
+    private Region getRegion(Protection protection) {
+        int regionX = protection.getX() >> ChunkedBackup.REGION_SHIFT;
+        int regionZ = protection.getZ() >> ChunkedBackup.REGION_SHIFT;
+        String key = protection.getWorld() + ":" + regionX + ":" + regionZ;
+        Region region = regions.get(key);
+
+        if (region == null) {
+            region = new Region(protection.getWorld(), regionX, regionZ);
+            regions.put(key, region);
+        }
+
+        return region;
+    }
+
+    /**
+     * Encode every region that has protections waiting
+     */
+    private void submitAll() throws Exception {
+        for (Region region : regions.values()) {
+            if (!region.protections.isEmpty()) {
+                submit(region);
+            }
+        }
+
+        regions.clear();
+    }
+
+    /**
+     * Encode the protections waiting in a region into a chunk
+     *
+     * @param region
+     */
+    private void submit(final Region region) throws Exception {
+        final List<Protection> protections = new ArrayList<Protection>(region.protections);
+        final List<RestorableBlock> blocks = flags.contains(BackupManager.Flag.BACKUP_BLOCKS) ? wrapBlocks(protections) : null;
+        final boolean backupProtections = flags.contains(BackupManager.Flag.BACKUP_PROTECTIONS);
+        final boolean compressed = backup.isCompressed();
+
+        buffered -= protections.size();
+        region.protections.clear();
+
+        // don't let encoded chunks pile up in memory faster than they can be written
+        while (pending >= threads * 2) {
+            write(encoder.take());
+        }
+
+        encoder.submit(new Callable<ChunkedBackup.Chunk>() {
+            public ChunkedBackup.Chunk call() throws Exception {
+                List<Restorable> restorables = new ArrayList<Restorable>(protections.size() * 2);
+
+                for (int index = 0; index < protections.size(); index++) {
+                    try {
+                        // the block is written before the protection so it exists when the protection is restored
+                        if (blocks != null && blocks.get(index) != null) {
+                            restorables.add(blocks.get(index));
+                        }
+
+                        if (backupProtections) {
+                            RestorableProtection rprotection = RestorableProtection.wrapProtection(protections.get(index));
+
+                            if (rprotection != null) {
+                                restorables.add(rprotection);
+                            }
+                        }
+                    } catch (Exception e) {
+                        System.out.println("Caught: " + e.getMessage() + ". Carrying on...");
+                    }
+                }
+
+                return ChunkedBackup.encode(region.world, region.regionX, region.regionZ, restorables, compressed);
+            }
+        });
+
+        pending ++;
+
+        // write any chunks that are already done
+        Future<ChunkedBackup.Chunk> done;
+        while ((done = encoder.poll()) != null) {
+            write(done);
+        }
+    }
+
+    /**
+     * Write an encoded chunk to the backup
+     *
+     * @param future
+     */
+    private void write(Future<ChunkedBackup.Chunk> future) throws Exception {
+        pending --;
+        backup.write(future.get());
+        written ++;
+    }
+
+    /**
+     * Read the blocks of the protections from the world on the main thread
+     *
+     * @param protections
+     * @return the blocks in the same order as the protections
+     */
+    private List<RestorableBlock> wrapBlocks(final List<Protection> protections) throws Exception {
+        Plugin plugin = lwc.getPlugin();
+        BukkitScheduler scheduler = Bukkit.getServer().getScheduler();
+
+        Future<List<RestorableBlock>> future = scheduler.callSyncMethod(plugin, new Callable<List<RestorableBlock>>() {
+            public List<RestorableBlock> call() throws Exception {
+                List<RestorableBlock> blocks = new ArrayList<RestorableBlock>(protections.size());
+
+                for (Protection protection : protections) {
+                    RestorableBlock block = null;
+
+                    try {
+                        block = RestorableBlock.wrapBlock(protection.getBlock());
+                    } catch (Exception e) {
+                        System.out.println("Caught: " + e.getMessage() + ". Carrying on...");
+                    }
+
+                    blocks.add(block);
+                }
+
+                return blocks;
+            }
+        });
+
+        return future.get();
+    }
+
+}
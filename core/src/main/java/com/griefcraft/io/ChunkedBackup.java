@@ -0,0 +1,475 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A backup made of chunks that each hold the restorables of one region (512x512 blocks) of a world, followed by an
+ * index of the chunks. Each chunk is compressed on its own so chunks can be encoded in parallel, and one world or
+ * region can be restored without reading the rest of the backup.
+ * <p/>
+ * Layout: header, chunks, index, the index's offset. Restorables inside a chunk use the same encoding as {@link Backup}.
+ */
+public class ChunkedBackup {
+
+    /**
+     * The revision of chunked backups
+     */
+    public static final int REVISION = 2;
+
+    /**
+     * Marks the start of a chunked backup ("LWCB")
+     */
+    private static final int MAGIC = 0x4C574342;
+
+    /**
+     * The size of the header in bytes
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The amount of bits block coordinates are shifted by to get their region coordinate
+     */
+    public static final int REGION_SHIFT = 9;
+
+    /**
+     * A chunk of restorables from one region
+     */
+    public static class Chunk {
+
+        /**
+         * The world the restorables are in
+         */
+        private final String world;
+
+        /**
+         * The region's x coordinate
+         */
+        private final int regionX;
+
+        /**
+         * The region's z coordinate
+         */
+        private final int regionZ;
+
+        /**
+         * The amount of restorables in the chunk
+         */
+        private final int restorables;
+
+        /**
+         * Where the chunk starts in the file, -1 until it is written
+         */
+        private long offset = -1;
+
+        /**
+         * The encoded chunk
+         */
+        private byte[] data;
+
+        /**
+         * The length of the encoded chunk
+         */
+        private int length;
+
+        private Chunk(String world, int regionX, int regionZ, int restorables) {
+            this.world = world;
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+            this.restorables = restorables;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public int getRegionX() {
+            return regionX;
+        }
+
+        public int getRegionZ() {
+            return regionZ;
+        }
+
+        public int getRestorables() {
+            return restorables;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+    }
+
+    /**
+     * The file the backup is at
+     */
+    private final File file;
+
+    /**
+     * The file a backup is written to until it is complete, so an unfinished backup is never restored from
+     */
+    private final File partialFile;
+
+    /**
+     * The file we read from or write to
+     */
+    private final RandomAccessFile access;
+
+    /**
+     * If the chunks are compressed
+     */
+    private final boolean compressed;
+
+    /**
+     * The time the backup was created
+     */
+    private final long created;
+
+    /**
+     * The chunks in the backup
+     */
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+    /**
+     * If the backup is being written
+     */
+    private final boolean writing;
+
+    private ChunkedBackup(File file, File partialFile, RandomAccessFile access, boolean compressed, long created, boolean writing) {
+        this.file = file;
+        this.partialFile = partialFile;
+        this.access = access;
+        this.compressed = compressed;
+        this.created = created;
+        this.writing = writing;
+    }
+
+    /**
+     * Create a new backup. It is written next to the file and only replaces it once it is finished.
+     *
+     * @param file
+     * @param compressed
+     * @return
+     */
+    public static ChunkedBackup create(File file, boolean compressed) throws IOException {
+        File partialFile = new File(file.getPath() + ".part");
+        RandomAccessFile access = new RandomAccessFile(partialFile, "rw");
+        access.setLength(0);
+
+        ChunkedBackup backup = new ChunkedBackup(file, partialFile, access, compressed, System.currentTimeMillis() / 1000, true);
+
+        access.writeInt(MAGIC);
+        access.writeShort(REVISION);
+        access.writeLong(backup.created);
+        access.writeBoolean(compressed);
+        access.write(new byte[HEADER_SIZE - 15]); // reserved space
+        return backup;
+    }
+
+    /**
+     * Open a backup and read its index
+     *
+     * @param file
+     * @return
+     */
+    public static ChunkedBackup open(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+
+        try {
+            if (access.length() < HEADER_SIZE + 8 || access.readInt() != MAGIC) {
+                throw new IOException("Not a chunked backup: " + file.getName());
+            }
+
+            int revision = access.readShort();
+
+            if (revision != REVISION) {
+                throw new IOException("Unsupported backup revision: " + revision);
+            }
+
+            long created = access.readLong();
+            boolean compressed = access.readBoolean();
+            ChunkedBackup backup = new ChunkedBackup(file, null, access, compressed, created, false);
+
+            // the index's offset is at the end of the file
+            access.seek(access.length() - 8);
+            access.seek(access.readLong());
+
+            DataInputStream index = new DataInputStream(new BufferedInputStream(new RandomAccessInputStream(access)));
+            int count = index.readInt();
+
+            for (int i = 0; i < count; i++) {
+                Chunk chunk = new Chunk(index.readUTF(), index.readInt(), index.readInt(), index.readInt());
+                chunk.offset = index.readLong();
+                chunk.length = index.readInt();
+                backup.chunks.add(chunk);
+            }
+
+            return backup;
+        } catch (IOException e) {
+            access.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Encode restorables from one region into a chunk. This does not touch the backup file so it can be done by
+     * any thread.
+     *
+     * @param world
+     * @param regionX
+     * @param regionZ
+     * @param restorables
+     * @param compressed
+     * @return
+     */
+    public static Chunk encode(String world, int regionX, int regionZ, List<Restorable> restorables, boolean compressed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(restorables.size() * 64);
+        OutputStream stream = compressed ? new GZIPOutputStream(bytes) : bytes;
+        DataOutputStream outputStream = new DataOutputStream(stream);
+
+        for (Restorable restorable : restorables) {
+            Backup.writeRestorable(outputStream, restorable);
+        }
+
+        outputStream.close();
+
+        Chunk chunk = new Chunk(world, regionX, regionZ, restorables.size());
+        chunk.data = bytes.toByteArray();
+        chunk.length = chunk.data.length;
+        return chunk;
+    }
+
+    /**
+     * Decode the restorables in a chunk that was read from the backup
+     *
+     * @param data
+     * @param compressed
+     * @return
+     */
+    private static List<Restorable> decode(byte[] data, boolean compressed) throws IOException {
+        InputStream stream = new ByteArrayInputStream(data);
+        DataInputStream inputStream = new DataInputStream(compressed ? new GZIPInputStream(stream) : stream);
+        List<Restorable> restorables = new ArrayList<Restorable>();
+
+        Restorable restorable;
+        while ((restorable = Backup.readRestorable(inputStream)) != null) {
+            restorables.add(restorable);
+        }
+
+        return restorables;
+    }
+
+    /**
+     * Append an encoded chunk to the backup
+     *
+     * @param chunk
+     */
+    public synchronized void write(Chunk chunk) throws IOException {
+        if (!writing) {
+            throw new UnsupportedOperationException("WRITE is not allowed on this backup.");
+        }
+
+        chunk.offset = access.getFilePointer();
+        access.write(chunk.data);
+        chunk.data = null;
+        chunks.add(chunk);
+    }
+
+    /**
+     * Write the index, close the backup and move it to its file
+     */
+    public synchronized void finish() throws IOException {
+        if (!writing) {
+            throw new UnsupportedOperationException("WRITE is not allowed on this backup.");
+        }
+
+        long indexOffset = access.getFilePointer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunks.size() * 32 + 12);
+        DataOutputStream index = new DataOutputStream(bytes);
+
+        index.writeInt(chunks.size());
+
+        for (Chunk chunk : chunks) {
+            index.writeUTF(chunk.world);
+            index.writeInt(chunk.regionX);
+            index.writeInt(chunk.regionZ);
+            index.writeInt(chunk.restorables);
+            index.writeLong(chunk.offset);
+            index.writeInt(chunk.length);
+        }
+
+        index.writeLong(indexOffset);
+        index.close();
+
+        access.write(bytes.toByteArray());
+        access.close();
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+
+        if (!partialFile.renameTo(file)) {
+            throw new IOException("Could not move the finished backup to " + file.getName());
+        }
+    }
+
+    /**
+     * Read and decode the restorables in a chunk
+     *
+     * @param chunk
+     * @return
+     */
+    public List<Restorable> read(Chunk chunk) throws IOException {
+        byte[] data = new byte[chunk.length];
+
+        synchronized (this) {
+            access.seek(chunk.offset);
+            access.readFully(data);
+        }
+
+        return decode(data, compressed);
+    }
+
+    /**
+     * Close the backup without writing anything else to it. A backup that was being written is discarded.
+     */
+    public void close() throws IOException {
+        access.close();
+
+        if (writing) {
+            partialFile.delete();
+        }
+    }
+
+    /**
+     * @return every chunk in the backup
+     */
+    public List<Chunk> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * Get the chunks for one world
+     *
+     * @param world
+     * @return
+     */
+    public List<Chunk> getChunks(String world) {
+        List<Chunk> matched = new ArrayList<Chunk>();
+
+        for (Chunk chunk : chunks) {
+            if (chunk.world.equalsIgnoreCase(world)) {
+                matched.add(chunk);
+            }
+        }
+
+        return matched;
+    }
+
+    /**
+     * Get the chunks for one region of a world
+     *
+     * @param world
+     * @param regionX
+     * @param regionZ
+     * @return
+     */
+    public List<Chunk> getChunks(String world, int regionX, int regionZ) {
+        List<Chunk> matched = new ArrayList<Chunk>();
+
+        for (Chunk chunk : getChunks(world)) {
+            if (chunk.regionX == regionX && chunk.regionZ == regionZ) {
+                matched.add(chunk);
+            }
+        }
+
+        return matched;
+    }
+
+    /**
+     * @return the file the backup is at
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the time the backup was created, in seconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return true if the chunks are compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Reads from the current position of a random access file
+     */
+    private static class RandomAccessInputStream extends InputStream {
+
+        private final RandomAccessFile access;
+
+        public RandomAccessInputStream(RandomAccessFile access) {
+            this.access = access;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return access.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return access.read(buffer, offset, length);
+        }
+
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.io;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.History;
+import com.griefcraft.sql.PhysDB;
+import com.griefcraft.util.StringUtil;
+import com.griefcraft.util.TimeUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves inactive history that is older than the configured age out of the database. The history is appended to
+ * a compressed archive for the month it was created in (history-2014-05.tsv.gz) and then deleted a batch at a
+ * time. Every batch is written as its own gzip member before it is deleted, so an archive is always complete up
+ * to the last batch that was removed from the database.
+ */
+public class HistoryArchiver implements Runnable {
+
+    /**
+     * The folder the archives are written to
+     */
+    public static String ARCHIVE_FOLDER = "plugins/LWC/history/";
+
+    /**
+     * How long to pause between batches, in milliseconds
+     */
+    private static final long BATCH_DELAY = 100L;
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * If the archiver is running right now
+     */
+    private boolean running = false;
+
+    /**
+     * The amount of history archived by the last run
+     */
+    private volatile long archived = 0;
+
+    public HistoryArchiver(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * @return the configured age inactive history is archived at, in seconds
+     */
+    public long getMaxAge() {
+        return TimeUtil.parseTime(" " + lwc.getConfiguration().getString("history.maxAge", "90 days"));
+    }
+
+    /**
+     * @return the amount of history archived by the last run
+     */
+    public long getArchived() {
+        return archived;
+    }
+
+    public void run() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+
+            running = true;
+        }
+
+        PhysDB database = lwc.getPhysicalDatabase();
+
+        try {
+            long maxAge = getMaxAge();
+
+            if (maxAge <= 0) {
+                lwc.log("Not archiving history: invalid history.maxAge");
+                return;
+            }
+
+            int batchSize = Math.max(1, lwc.getConfiguration().getInt("history.batchSize", 1000));
+            long before = System.currentTimeMillis() / 1000L - maxAge;
+            long start = System.currentTimeMillis();
+            int lastId = 0;
+            archived = 0;
+
+            while (true) {
+                List<History> batch = database.loadInactiveHistory(before, lastId, batchSize);
+
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                lastId = batch.get(batch.size() - 1).getId();
+
+                // archive first; only the history that is safely on disk is deleted
+                archive(batch);
+
+                archived += database.removeInactiveHistory(before, batch);
+
+                Thread.sleep(BATCH_DELAY);
+            }
+
+            if (archived > 0) {
+                lwc.log("Archived " + archived + " history entries older than " + TimeUtil.timeToString(maxAge) + " in " + ((System.currentTimeMillis() - start) / 1000L) + "s");
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (Exception e) {
+            lwc.log("Failed to archive history: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            database.releaseConnection();
+
+            synchronized (this) {
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Append a batch of history to the archives of the months it was created in
+     *
+     * @param batch
+     */
+    private void archive(List<History> batch) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Map<String, List<History>> partitions = new LinkedHashMap<String, List<History>>();
+
+        for (History history : batch) {
+            String month = format.format(new Date(history.getTimestamp() * 1000L));
+            List<History> partition = partitions.get(month);
+
+            if (partition == null) {
+                partition = new ArrayList<History>();
+                partitions.put(month, partition);
+            }
+
+            partition.add(history);
+        }
+
+        File folder = new File(ARCHIVE_FOLDER);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder.getPath());
+        }
+
+        for (Map.Entry<String, List<History>> entry : partitions.entrySet()) {
+            File file = new File(folder, "history-" + entry.getKey() + ".tsv.gz");
+            Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file, true)), "UTF-8");
+
+            try {
+                for (History history : entry.getValue()) {
+                    writer.write(history.getId() + "\t" + history.getProtectionId() + "\t" + clean(history.getPlayer()) + "\t"
+                            + history.getX() + "\t" + history.getY() + "\t" + history.getZ() + "\t"
+                            + history.getType() + "\t" + history.getStatus() + "\t" + clean(history.getSafeMetaData()) + "\t"
+                            + history.getTimestamp() + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Make a value safe to write as one tab separated field
+     *
+     * @param value
+     * @return
+     */
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        return StringUtil.fastReplace(StringUtil.fastReplace(StringUtil.fastReplace(value, '\t', ' '), '\n', ' '), '\r', ' ');
+    }
+
+}
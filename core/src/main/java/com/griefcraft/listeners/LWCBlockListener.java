@@ -37,6 +37,7 @@ import com.griefcraft.scripting.event.LWCProtectionRegisterEvent;
 import com.griefcraft.scripting.event.LWCProtectionRegistrationPostEvent;
 import com.griefcraft.scripting.event.LWCRedstoneEvent;
 import com.griefcraft.util.Colors;
+import com.griefcraft.util.LookupThread;
 import com.griefcraft.util.matchers.DoubleChestMatcher;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
@@ -175,11 +176,10 @@ public class LWCBlockListener implements Listener {
         }
 
         ProtectionCache cache = lwc.getProtectionCache();
-        String cacheKey = cache.cacheKey(block.getLocation());
 
         // In the event they place a block, remove any known nulls there
-        if (cache.isKnownNull(cacheKey)) {
-            cache.remove(cacheKey);
+        if (cache.isKnownNull(block)) {
+            cache.remove(block);
         }
 
         Protection protection = lwc.findProtection(block.getLocation());
@@ -305,15 +305,20 @@ public class LWCBlockListener implements Listener {
         }
 
         // Check the affected blocks
+        List<Block> blocks = new ArrayList<Block>(event.getLength() + 2);
+
         for (int i = 0; i < event.getLength() + 2; i++) {
             Block block = piston.getRelative(direction, i);
-            Protection protection = lwc.findProtection(block.getLocation());
 
             // We don't want that!
             if (block.getType() == Material.AIR) {
                 break;
             }
 
+            blocks.add(block);
+        }
+
+        for (Protection protection : lwc.findProtections(blocks).values()) {
             if (protection != null) {
                 event.setCancelled(true);
                 break;
@@ -332,11 +337,10 @@ public class LWCBlockListener implements Listener {
         Block block = event.getBlockPlaced();
 
         ProtectionCache cache = lwc.getProtectionCache();
-        String cacheKey = cache.cacheKey(block.getLocation());
 
         // In the event they place a block, remove any known nulls there
-        if (cache.isKnownNull(cacheKey)) {
-            cache.remove(cacheKey);
+        if (cache.isKnownNull(block)) {
+            cache.remove(block);
         }
 
         // check if the block is blacklisted
@@ -382,12 +386,34 @@ public class LWCBlockListener implements Listener {
             return;
         }
 
-        LWC lwc = plugin.getLWC();
-        Player player = event.getPlayer();
-        Block block = event.getBlockPlaced();
+        final LWC lwc = plugin.getLWC();
+        final Player player = event.getPlayer();
+        final Block block = event.getBlockPlaced();
+        final Material placed = block.getType();
+
+        // the event can no longer be cancelled, so the lookup does not need to block the server thread
+        lwc.getLookupThread().findProtection(block, new LookupThread.Callback() {
+            public void onLookup(Protection current) {
+                // the block may have changed while its chunk was being loaded
+                if (block.getType() != placed || !player.isOnline()) {
+                    return;
+                }
+
+                onBlockPlaced(lwc, player, block, current);
+            }
+        });
+    }
 
+    /**
+     * Update the cache for, or auto register, a placed block once the protection at it is known
+     *
+     * @param lwc
+     * @param player
+     * @param block
+     * @param current the protection matched at the block, or null
+     */
+    private void onBlockPlaced(LWC lwc, Player player, Block block, Protection current) {
         // Update the cache if a protection is matched here
-        Protection current = lwc.findProtection(block.getLocation());
         if (current != null) {
             if (!current.isBlockInWorld()) {
                 // Corrupted protection
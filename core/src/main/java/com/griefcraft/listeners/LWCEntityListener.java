@@ -46,6 +46,8 @@ import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.EntityInteractEvent;
 import org.bukkit.plugin.Plugin;
 
+import java.util.Map;
+
 public class LWCEntityListener implements Listener {
 
     /**
@@ -53,6 +55,16 @@ public class LWCEntityListener implements Listener {
      */
     private LWCPlugin plugin;
 
+    /**
+     * The last explosion looked up by {@link #onEntityExplode(EntityExplodeEvent)}
+     */
+    private EntityExplodeEvent lastExplosion = null;
+
+    /**
+     * The protections found for the last explosion
+     */
+    private Map<Block, Protection> lastExplosionProtections = null;
+
     public LWCEntityListener(LWCPlugin plugin) {
         this.plugin = plugin;
     }
@@ -96,10 +108,13 @@ public class LWCEntityListener implements Listener {
         }
 
         LWC lwc = LWC.getInstance();
+        Map<Block, Protection> protections = lwc.findProtections(event.blockList());
 
-        for (Block block : event.blockList()) {
-            Protection protection = plugin.getLWC().findProtection(block.getLocation());
+        // the monitor handler can reuse the lookups
+        lastExplosion = event;
+        lastExplosionProtections = protections;
 
+        for (Protection protection : protections.values()) {
             if (protection != null) {
                 boolean ignoreExplosions = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(protection.getBlock(), "ignoreExplosions"));
 
@@ -117,9 +132,20 @@ public class LWCEntityListener implements Listener {
         }
 
         LWC lwc = LWC.getInstance();
+        Map<Block, Protection> protections = lastExplosion == event ? lastExplosionProtections : null;
+
+        lastExplosion = null;
+        lastExplosionProtections = null;
 
         for (Block block : event.blockList()) {
-            Protection protection = plugin.getLWC().findProtection(block.getLocation());
+            Protection protection;
+
+            // blocks may have been added to the explosion since it was looked up
+            if (protections != null && protections.containsKey(block)) {
+                protection = protections.get(block);
+            } else {
+                protection = lwc.findProtection(block.getLocation());
+            }
 
             if (protection != null) {
                 boolean ignoreExplosions = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(protection.getBlock(), "ignoreExplosions"));
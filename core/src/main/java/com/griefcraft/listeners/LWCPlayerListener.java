@@ -28,6 +28,7 @@
 
 package com.griefcraft.listeners;
 
+import com.griefcraft.cache.MoveDecisionCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.lwc.LWCPlugin;
 import com.griefcraft.model.Flag;
@@ -56,6 +57,7 @@ import org.bukkit.event.inventory.InventoryMoveItemEvent;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.player.PlayerDropItemEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.Inventory;
@@ -80,6 +82,25 @@ public class LWCPlayerListener implements Listener {
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         UUIDRegistry.updateCache(player.getUniqueId(), player.getName());
+
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        // resolve their groups and admin status now instead of on their first interaction
+        LWCPlayer lwcPlayer = LWCPlayer.getPlayer(player);
+        lwcPlayer.invalidatePermissions();
+        lwcPlayer.getPermissionSnapshot();
+    }
+
+    @EventHandler
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        // permissions can be different per world
+        LWCPlayer.getPlayer(event.getPlayer()).invalidatePermissions();
     }
 
     @EventHandler(ignoreCancelled = true)
@@ -138,37 +159,55 @@ public class LWCPlayerListener implements Listener {
             return false;
         }
 
+        // Reuse the decision made for the last move between these blocks if neither protection changed since
+        MoveDecisionCache decisions = lwc.getMoveDecisionCache();
+        String worldName = location.getWorld().getName();
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        int slot = MoveDecisionCache.NO_HOPPER;
+
+        if (hopperLocation != null) {
+            slot = MoveDecisionCache.slot(hopperLocation.getBlockX() - x, hopperLocation.getBlockY() - y, hopperLocation.getBlockZ() - z);
+        }
+
+        if (slot != MoveDecisionCache.NOT_ADJACENT) {
+            int decision = decisions.get(worldName, x, y, z, slot);
+
+            if (decision != MoveDecisionCache.UNKNOWN) {
+                return decision == MoveDecisionCache.DENY;
+            }
+        }
+
         // High-intensity zone: increase protection cache if it's full, otherwise
         // the database will be getting rammed
         lwc.getProtectionCache().increaseIfNecessary();
 
         // Attempt to load the protection at that location
         Protection protection = lwc.findProtection(location);
+        Protection hopperProtection = null;
+        boolean deny = false;
 
         // If no protection was found we can safely ignore it
-        if (protection == null) {
-            return false;
-        }
+        if (protection != null) {
+            if (hopperLocation != null && Boolean.parseBoolean(lwc.resolveProtectionConfiguration(Material.HOPPER, "enabled"))) {
+                hopperProtection = lwc.findProtection(hopperLocation);
+            }
 
-        if (hopperLocation != null && Boolean.parseBoolean(lwc.resolveProtectionConfiguration(Material.HOPPER, "enabled"))) {
-            Protection hopperProtection = lwc.findProtection(hopperLocation);
+            // if they're owned by the same person then we can allow the move
+            if (hopperProtection == null || !protection.getOwner().equals(hopperProtection.getOwner())) {
+                boolean denyHoppers = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(Material.getMaterial(protection.getBlockId()), "denyHoppers"));
 
-            if (hopperProtection != null) {
-                // if they're owned by the same person then we can allow the move
-                if (protection.getOwner().equals(hopperProtection.getOwner())) {
-                    return false;
-                }
+                // xor = (a && !b) || (!a && b)
+                deny = denyHoppers ^ protection.hasFlag(Flag.Type.HOPPER);
             }
         }
 
-        boolean denyHoppers = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(Material.getMaterial(protection.getBlockId()), "denyHoppers"));
-
-        // xor = (a && !b) || (!a && b)
-        if (denyHoppers ^ protection.hasFlag(Flag.Type.HOPPER)) {
-            return true;
+        if (slot != MoveDecisionCache.NOT_ADJACENT) {
+            decisions.put(worldName, x, y, z, slot, deny, protection, hopperProtection);
         }
 
-        return false;
+        return deny;
     }
 
     @EventHandler(priority = EventPriority.HIGH)
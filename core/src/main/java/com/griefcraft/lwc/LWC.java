@@ -28,7 +28,9 @@
 
 package com.griefcraft.lwc;
 
+import com.griefcraft.cache.MoveDecisionCache;
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionCountCache;
 import com.griefcraft.integration.ICurrency;
 import com.griefcraft.integration.IPermissions;
 import com.griefcraft.integration.currency.BOSECurrency;
@@ -42,12 +44,12 @@ import com.griefcraft.integration.permissions.PEXPermissions;
 import com.griefcraft.integration.permissions.SuperPermsPermissions;
 import com.griefcraft.integration.permissions.VaultPermissions;
 import com.griefcraft.integration.permissions.bPermissions;
+import com.griefcraft.io.HistoryArchiver;
 import com.griefcraft.io.BackupManager;
 import com.griefcraft.listeners.LWCMCPCSupport;
 import com.griefcraft.migration.ConfigPost300;
 import com.griefcraft.migration.MySQLPost200;
-import com.griefcraft.model.Flag;
-import com.griefcraft.model.History;
+import com.griefcraft.migration.UUIDConverter;
 import com.griefcraft.model.LWCPlayer;
 import com.griefcraft.model.Permission;
 import com.griefcraft.model.Protection;
@@ -68,6 +70,7 @@ import com.griefcraft.modules.admin.AdminRebuild;
 import com.griefcraft.modules.admin.AdminReload;
 import com.griefcraft.modules.admin.AdminRemove;
 import com.griefcraft.modules.admin.AdminReport;
+import com.griefcraft.modules.admin.AdminUUIDs;
 import com.griefcraft.modules.admin.AdminVersion;
 import com.griefcraft.modules.admin.AdminView;
 import com.griefcraft.modules.admin.BaseAdminModule;
@@ -105,17 +108,25 @@ import com.griefcraft.scripting.event.LWCReloadEvent;
 import com.griefcraft.scripting.event.LWCSendLocaleEvent;
 import com.griefcraft.sql.Database;
 import com.griefcraft.sql.PhysDB;
+import com.griefcraft.sql.ProtectionFilter;
 import com.griefcraft.util.Colors;
 import com.griefcraft.util.DatabaseThread;
+import com.griefcraft.util.HistoryWriter;
+import com.griefcraft.util.LookupThread;
 import com.griefcraft.util.ProtectionFinder;
+import com.griefcraft.util.ProtectionRemover;
+import com.griefcraft.util.RegionProtector;
 import com.griefcraft.util.Statistics;
 import com.griefcraft.util.StringUtil;
+import com.griefcraft.util.TimeUtil;
 import com.griefcraft.util.UUIDRegistry;
 import com.griefcraft.util.config.Configuration;
+import com.griefcraft.util.config.ProtectionConfiguration;
 import com.griefcraft.util.locale.LocaleUtil;
 import com.griefcraft.util.matchers.DoubleChestMatcher;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
@@ -130,15 +141,12 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 import org.mcstats.Metrics;
 
+import java.io.File;
 import java.io.IOException;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -155,6 +163,16 @@ public class LWC {
      */
     private static LWC instance;
 
+    /**
+     * The most chunks a bulk lookup will load at once
+     */
+    private static final int BULK_LOOKUP_MAX_CHUNKS = 25;
+
+    /**
+     * How often the known players are saved, in ticks
+     */
+    private static final long UUID_CACHE_SAVE_INTERVAL = 20L * 60 * 5;
+
     /**
      * Core LWC configuration
      */
@@ -175,6 +193,36 @@ public class LWC {
      */
     private final ProtectionCache protectionCache;
 
+    /**
+     * The cached hopper move decisions
+     */
+    private final MoveDecisionCache moveDecisionCache = new MoveDecisionCache();
+
+    /**
+     * The amount of protections each owner has
+     */
+    private final ProtectionCountCache protectionCountCache = new ProtectionCountCache(this);
+
+    /**
+     * Converts the player names in protections to UUIDs
+     */
+    private UUIDConverter uuidConverter;
+
+    /**
+     * How long a player's resolved permissions are used for, in milliseconds
+     */
+    private long permissionCacheTime = 10000L;
+
+    /**
+     * Removes protections in bulk for purge, purgebanned and expire
+     */
+    private final ProtectionRemover protectionRemover = new ProtectionRemover(this);
+
+    /**
+     * Protects the blocks in a region in bulk for protectregion
+     */
+    private final RegionProtector regionProtector = new RegionProtector(this);
+
     /**
      * Physical database instance
      */
@@ -190,6 +238,16 @@ public class LWC {
      */
     private DatabaseThread databaseThread;
 
+    /**
+     * Writes history to the database in batches
+     */
+    private HistoryWriter historyWriter;
+
+    /**
+     * Loads protections from the database without blocking the server thread
+     */
+    private LookupThread lookupThread;
+
     /**
      * The permissions handler
      */
@@ -201,9 +259,9 @@ public class LWC {
     private ICurrency currency;
 
     /**
-     * Protection configuration cache
+     * The protection configuration compiled for every material
      */
-    private final Map<String, String> protectionConfigurationCache = new HashMap<String, String>();
+    private ProtectionConfiguration protectionConfiguration;
 
     public LWC(LWCPlugin plugin) {
         this.plugin = plugin;
@@ -428,9 +486,11 @@ public class LWC {
                     return true;
                 }
 
-                for (String groupName : permissions.getGroups(player)) {
-                    if (protection.getAccess(groupName, Permission.Type.GROUP) == Permission.Access.ADMIN) {
-                        return true;
+                if (protection.hasPermissions(Permission.Type.GROUP)) {
+                    for (String groupName : getGroups(player)) {
+                        if (protection.getAccess(groupName, Permission.Type.GROUP) == Permission.Access.ADMIN) {
+                            return true;
+                        }
                     }
                 }
 
@@ -585,11 +645,31 @@ public class LWC {
 
         log("Flushing protection updates (" + databaseThread.size() + ")");
 
+        if (uuidConverter != null) {
+            uuidConverter.stop();
+        }
+
+        protectionRemover.stop();
+        regionProtector.stop();
+
+        UUIDRegistry.save(new File(UUIDRegistry.CACHE_FILE));
+
+        if (lookupThread != null) {
+            lookupThread.stop();
+            lookupThread = null;
+        }
+
         if (databaseThread != null) {
             databaseThread.stop();
             databaseThread = null;
         }
 
+        // history saved by the last protection updates is written last
+        if (historyWriter != null) {
+            historyWriter.stop();
+            historyWriter = null;
+        }
+
         if (physicalDatabase != null) {
             physicalDatabase.dispose();
         }
@@ -754,24 +834,17 @@ public class LWC {
                     return true;
                 }
 
-                // Check for item keys
-                for (Permission permission : protection.getPermissions()) {
-                    if (permission.getType() != Permission.Type.ITEM) {
-                        continue;
-                    }
-
-                    // Get the item they need to have
-                    int item = Integer.parseInt(permission.getName());
-
-                    // Are they wielding it?
-                    if (player.getItemInHand().getTypeId() == item) {
-                        return true;
-                    }
+                // Check for item keys; are they wielding one?
+                if (protection.hasPermissions(Permission.Type.ITEM) && protection.hasItemKey(player.getItemInHand().getTypeId())) {
+                    return true;
                 }
 
-                for (String groupName : permissions.getGroups(player)) {
-                    if (protection.getAccess(groupName, Permission.Type.GROUP).ordinal() >= Permission.Access.PLAYER.ordinal()) {
-                        return true;
+                // the player's groups are only looked up if there are groups to check
+                if (protection.hasPermissions(Permission.Type.GROUP)) {
+                    for (String groupName : getGroups(player)) {
+                        if (protection.getAccess(groupName, Permission.Type.GROUP).ordinal() >= Permission.Access.PLAYER.ordinal()) {
+                            return true;
+                        }
                     }
                 }
 
@@ -792,6 +865,10 @@ public class LWC {
      * @return true if the player is an LWC mod
      */
     public boolean isMod(Player player) {
+        if (player.isOnline()) {
+            return wrapPlayer(player).getPermissionSnapshot().isMod();
+        }
+
         return hasPermission(player, "lwc.mod");
     }
 
@@ -802,6 +879,11 @@ public class LWC {
      * @return true if the player is an LWC admin
      */
     public boolean isAdmin(Player player) {
+        // online players have their permissions resolved once per core.permissionCacheTime
+        if (player.isOnline()) {
+            return wrapPlayer(player).getPermissionSnapshot().isAdmin();
+        }
+
         if (player.isOp()) {
             if (configuration.getBoolean("core.opIsLWCAdmin", true)) {
                 return true;
@@ -811,6 +893,27 @@ public class LWC {
         return hasPermission(player, "lwc.admin");
     }
 
+    /**
+     * Get a player's groups. The groups of online players are resolved once per core.permissionCacheTime.
+     *
+     * @param player
+     * @return
+     */
+    public List<String> getGroups(Player player) {
+        if (player.isOnline()) {
+            return wrapPlayer(player).getGroups();
+        }
+
+        return permissions.getGroups(player);
+    }
+
+    /**
+     * @return how long a player's resolved permissions are used for, in milliseconds
+     */
+    public long getPermissionCacheTime() {
+        return permissionCacheTime;
+    }
+
     /**
      * Check if a player has a permissions node
      *
@@ -929,199 +1032,32 @@ public class LWC {
     }
 
     /**
-     * Fast remove all protections for a player. ~100k protections / second.
-     *
-     * @param sender
-     * @param player
-     * @param shouldRemoveBlocks
-     * @return
-     */
-    public int fastRemoveProtectionsByPlayer(CommandSender sender, String player, boolean shouldRemoveBlocks) {
-        // remove their protections first
-        int ret = fastRemoveProtections(sender, "Lower(owner) = Lower('" + player + "')", shouldRemoveBlocks);
-
-        // invalid any history objects associated with the player
-        physicalDatabase.invalidateHistory(player);
-
-        return ret;
-    }
-
-    /**
-     * Remove protections very quickly with raw SQL calls
+     * Remove a protected block from the world, including the other half of a double chest
      *
-     * @param sender
-     * @param where
-     * @param shouldRemoveBlocks
-     * @return
+     * @param block
+     * @return true if the block was removed
      */
-    public int fastRemoveProtections(CommandSender sender, String where, boolean shouldRemoveBlocks) {
-        List<Integer> exemptedBlocks = configuration.getIntList("optional.exemptBlocks", new ArrayList<Integer>());
-        List<Integer> toRemove = new LinkedList<Integer>();
-        List<Block> removeBlocks = null;
-        int totalProtections = physicalDatabase.getProtectionCount();
-        int completed = 0;
-        int count = 0;
-
-        // flush all changes to the database before working on the live database
-        databaseThread.flush();
-
-        if (shouldRemoveBlocks) {
-            removeBlocks = new LinkedList<Block>();
-        }
-
-        if (where != null && !where.trim().isEmpty()) {
-            where = " WHERE " + where.trim();
+    public boolean removeBlock(Block block) {
+        if (block == null || !isProtectable(block)) {
+            return false;
         }
 
-        sender.sendMessage("Loading protections via STREAM mode");
+        // possibility of a double chest
+        if (DoubleChestMatcher.PROTECTABLES_CHESTS.contains(block.getType())) {
+            Block doubleChest = findAdjacentDoubleChest(block);
 
-        try {
-            Statement resultStatement = physicalDatabase.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-
-            if (physicalDatabase.getType() == Database.Type.MySQL) {
-                resultStatement.setFetchSize(Integer.MIN_VALUE);
+            if (doubleChest != null) {
+                removeInventory(doubleChest);
+                doubleChest.setType(Material.AIR);
             }
-
-            String prefix = physicalDatabase.getPrefix();
-            ResultSet result = resultStatement.executeQuery("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections" + where);
-
-            while (result.next()) {
-                Protection protection = physicalDatabase.resolveProtection(result);
-                World world = protection.getBukkitWorld();
-
-                // check if the protection is exempt from being removed
-                if (protection.hasFlag(Flag.Type.EXEMPTION) || exemptedBlocks.contains(protection.getBlockId())) {
-                    continue;
-                }
-
-                count++;
-
-                if (count % 100000 == 0 || count == totalProtections || count == 1) {
-                    sender.sendMessage(Colors.Red + count + " / " + totalProtections);
-                }
-
-                if (world == null) {
-                    continue;
-                }
-
-                // remove the protection
-                toRemove.add(protection.getId());
-
-                // remove the block ?
-                if (shouldRemoveBlocks) {
-                    removeBlocks.add(protection.getBlock());
-                }
-
-                // Remove it from the cache if it's in there
-                Protection cached = protectionCache.getProtection(protection.getCacheKey());
-                if (cached != null) {
-                    cached.removeCache();
-                }
-
-                completed++;
-            }
-
-            // Close the streaming statement
-            result.close();
-            resultStatement.close();
-
-            // flush all of the queries
-            fullRemoveProtections(sender, toRemove);
-
-            if (shouldRemoveBlocks) {
-                removeBlocks(sender, removeBlocks);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
-        return completed;
-    }
+        // remove the inventory from the block if it has one
+        removeInventory(block);
 
-    /**
-     * Push removal changes to the database
-     *
-     * @param sender
-     * @param toRemove
-     */
-    private void fullRemoveProtections(CommandSender sender, List<Integer> toRemove) throws SQLException {
-        StringBuilder deleteProtectionsQuery = new StringBuilder();
-        StringBuilder deleteHistoryQuery = new StringBuilder();
-        int total = toRemove.size();
-        int count = 0;
-
-        // iterate over the items to remove
-        Iterator<Integer> iter = toRemove.iterator();
-
-        // the database prefix
-        String prefix = getPhysicalDatabase().getPrefix();
-
-        // create the statement to use
-        Statement statement = getPhysicalDatabase().getConnection().createStatement();
-
-        while (iter.hasNext()) {
-            int protectionId = iter.next();
-
-            if (count % 10000 == 0) {
-                deleteProtectionsQuery.append("DELETE FROM ").append(prefix).append("protections WHERE id IN (").append(protectionId);
-                deleteHistoryQuery.append("UPDATE ").append(prefix).append("history SET status = " + History.Status.INACTIVE.ordinal() + " WHERE protectionId IN(").append(protectionId);
-            } else {
-                deleteProtectionsQuery.append(",").append(protectionId);
-                deleteHistoryQuery.append(",").append(protectionId);
-            }
-
-            if (count % 10000 == 9999 || count == (total - 1)) {
-                deleteProtectionsQuery.append(")");
-                deleteHistoryQuery.append(")");
-                statement.executeUpdate(deleteProtectionsQuery.toString());
-                statement.executeUpdate(deleteHistoryQuery.toString());
-                deleteProtectionsQuery.setLength(0);
-                deleteHistoryQuery.setLength(0);
-
-                sender.sendMessage(Colors.Green + "REMOVED " + (count + 1) + " / " + total);
-            }
-
-            count++;
-            physicalDatabase.decrementProtectionCount();
-        }
-
-        statement.close();
-    }
-
-    /**
-     * Remove a list of blocks from the world
-     *
-     * @param sender
-     * @param blocks
-     */
-    private void removeBlocks(CommandSender sender, List<Block> blocks) {
-        int count = 0;
-
-        for (Block block : blocks) {
-            if (block == null || !isProtectable(block)) {
-                continue;
-            }
-
-            // possibility of a double chest
-            if (DoubleChestMatcher.PROTECTABLES_CHESTS.contains(block.getType())) {
-                Block doubleChest = findAdjacentDoubleChest(block);
-
-                if (doubleChest != null) {
-                    removeInventory(doubleChest);
-                    doubleChest.setType(Material.AIR);
-                }
-            }
-
-            // remove the inventory from the block if it has one
-            removeInventory(block);
-
-            // and now remove the block
-            block.setType(Material.AIR);
-
-            count++;
-        }
-
-        sender.sendMessage("Removed " + count + " blocks from the world");
+        // and now remove the block
+        block.setType(Material.AIR);
+        return true;
     }
 
     /**
@@ -1173,13 +1109,11 @@ public class LWC {
      * @return
      */
     public Protection findProtection(Location location) {
-        String cacheKey = protectionCache.cacheKey(location);
-
-        if (protectionCache.isKnownNull(cacheKey)) {
+        if (protectionCache.isKnownNull(location)) {
             return null;
         }
 
-        Protection protection = protectionCache.getProtection(cacheKey);
+        Protection protection = protectionCache.getProtection(location);
 
         return protection != null ? protection : findProtection(location.getBlock());
     }
@@ -1225,7 +1159,7 @@ public class LWC {
         }
 
         if (found == null) {
-            protectionCache.addKnownNull(protectionCache.cacheKey(state.getLocation()));
+            protectionCache.addKnownNull(state.getWorld().getName(), state.getX(), state.getY(), state.getZ());
         }
 
         return found;
@@ -1248,6 +1182,74 @@ public class LWC {
         return findProtection(new Location(world, x, y, z));
     }
 
+    /**
+     * Find the protections for a group of blocks at once. The chunks the blocks are in are loaded into the cache
+     * with a single query first, so each block does not need a query of its own.
+     *
+     * @param blocks
+     * @return every block mapped to its protection, or to null if it has none
+     */
+    public Map<Block, Protection> findProtections(Collection<Block> blocks) {
+        Map<Block, Protection> protections = new HashMap<Block, Protection>(blocks.size() * 2);
+
+        if (blocks.isEmpty()) {
+            return protections;
+        }
+
+        // the chunk bounds of the blocks in each world: minX, minZ, maxX, maxZ
+        Map<String, int[]> bounds = new HashMap<String, int[]>();
+
+        for (Block block : blocks) {
+            String world = block.getWorld().getName();
+            int chunkX = block.getX() >> 4;
+            int chunkZ = block.getZ() >> 4;
+            int[] bound = bounds.get(world);
+
+            if (bound == null) {
+                bounds.put(world, new int[]{chunkX, chunkZ, chunkX, chunkZ});
+            } else {
+                bound[0] = Math.min(bound[0], chunkX);
+                bound[1] = Math.min(bound[1], chunkZ);
+                bound[2] = Math.max(bound[2], chunkX);
+                bound[3] = Math.max(bound[3], chunkZ);
+            }
+        }
+
+        for (Map.Entry<String, int[]> entry : bounds.entrySet()) {
+            String world = entry.getKey();
+            int[] bound = entry.getValue();
+
+            // protections near the edge can reach into the next chunk
+            int minX = bound[0] - 1, minZ = bound[1] - 1, maxX = bound[2] + 1, maxZ = bound[3] + 1;
+
+            // spread out groups are cheaper to look up block by block
+            if ((maxX - minX + 1) * (maxZ - minZ + 1) > BULK_LOOKUP_MAX_CHUNKS) {
+                continue;
+            }
+
+            boolean cached = true;
+
+            for (int chunkX = minX; chunkX <= maxX && cached; chunkX++) {
+                for (int chunkZ = minZ; chunkZ <= maxZ; chunkZ++) {
+                    if (!protectionCache.isChunkLoaded(world, chunkX, chunkZ)) {
+                        cached = false;
+                        break;
+                    }
+                }
+            }
+
+            if (!cached) {
+                physicalDatabase.preloadChunks(world, minX, minZ, maxX, maxZ);
+            }
+        }
+
+        for (Block block : blocks) {
+            protections.put(block, findProtection(block.getLocation()));
+        }
+
+        return protections;
+    }
+
     /**
      * Check if a player has either access to lwc.admin or the specified node
      *
@@ -1334,13 +1336,7 @@ public class LWC {
      * @return
      */
     public boolean isProtectable(Block block) {
-        Material material = block.getType();
-
-        if (material == null) {
-            return false;
-        }
-
-        return Boolean.parseBoolean(resolveProtectionConfiguration(block, "enabled"));
+        return protectionConfiguration.isProtectable(block.getType(), block.getData());
     }
 
     /**
@@ -1350,13 +1346,7 @@ public class LWC {
      * @return
      */
     public boolean isProtectable(BlockState state) {
-        Material material = state.getType();
-
-        if (material == null) {
-            return false;
-        }
-
-        return Boolean.parseBoolean(resolveProtectionConfiguration(state, "enabled"));
+        return protectionConfiguration.isProtectable(state.getType(), state.getRawData());
     }
 
     /**
@@ -1367,42 +1357,7 @@ public class LWC {
      * @return
      */
     public String resolveProtectionConfiguration(Block block, String node) {
-        Material material = block.getType();
-        String cacheKey = block.getData() + "-" + material.toString() + "-" + node;
-        if (protectionConfigurationCache.containsKey(cacheKey)) {
-            return protectionConfigurationCache.get(cacheKey);
-        }
-
-        List<String> names = new ArrayList<String>();
-
-        String materialName = normalizeMaterialName(material);
-
-        // add the name & the block id
-        names.add(materialName);
-        names.add(material.getId() + "");
-        names.add(material.getId() + ":" + block.getData());
-        names.add(materialName + ":" + block.getData());
-
-        if (!materialName.equals(material.toString().toLowerCase())) {
-            names.add(material.toString().toLowerCase());
-        }
-
-        // Add the wildcards last so it can be overriden
-        names.add("*");
-        names.add(material.getId() + ":*");
-
-        String value = configuration.getString("protections." + node);
-
-        for (String name : names) {
-            String temp = configuration.getString("protections.blocks." + name + "." + node);
-
-            if (temp != null && !temp.isEmpty()) {
-                value = temp;
-            }
-        }
-
-        protectionConfigurationCache.put(cacheKey, value);
-        return value;
+        return protectionConfiguration.get(block.getType(), block.getData(), node);
     }
 
     /**
@@ -1413,42 +1368,7 @@ public class LWC {
      * @return
      */
     public String resolveProtectionConfiguration(BlockState state, String node) {
-        Material material = state.getType();
-        String cacheKey = state.getRawData() + "-" + material.toString() + "-" + node;
-        if (protectionConfigurationCache.containsKey(cacheKey)) {
-            return protectionConfigurationCache.get(cacheKey);
-        }
-
-        List<String> names = new ArrayList<String>();
-
-        String materialName = normalizeMaterialName(material);
-
-        // add the name & the block id
-        names.add(materialName);
-        names.add(material.getId() + "");
-        names.add(material.getId() + ":" + state.getRawData());
-        names.add(materialName + ":" + state.getRawData());
-
-        if (!materialName.equals(material.toString().toLowerCase())) {
-            names.add(material.toString().toLowerCase());
-        }
-
-        // Add the wildcards last so it can be overriden
-        names.add("*");
-        names.add(material.getId() + ":*");
-
-        String value = configuration.getString("protections." + node);
-
-        for (String name : names) {
-            String temp = configuration.getString("protections.blocks." + name + "." + node);
-
-            if (temp != null && !temp.isEmpty()) {
-                value = temp;
-            }
-        }
-
-        protectionConfigurationCache.put(cacheKey, value);
-        return value;
+        return protectionConfiguration.get(state.getType(), state.getRawData(), node);
     }
 
     /**
@@ -1459,39 +1379,14 @@ public class LWC {
      * @return
      */
     public String resolveProtectionConfiguration(Material material, String node) {
-        String cacheKey = "00-" + material.toString() + "-" + node;
-        if (protectionConfigurationCache.containsKey(cacheKey)) {
-            return protectionConfigurationCache.get(cacheKey);
-        }
-
-        List<String> names = new ArrayList<String>();
-
-        String materialName = normalizeMaterialName(material);
-
-        // add the name & the block id
-        names.add(materialName);
-        names.add(material.getId() + "");
-
-        if (!materialName.equals(material.toString().toLowerCase())) {
-            names.add(material.toString().toLowerCase());
-        }
-
-        // Add the wildcards last so it can be overriden
-        names.add("*");
-        names.add(material.getId() + ":*");
-
-        String value = configuration.getString("protections." + node);
-
-        for (String name : names) {
-            String temp = configuration.getString("protections.blocks." + name + "." + node);
-
-            if (temp != null && !temp.isEmpty()) {
-                value = temp;
-            }
-        }
+        return protectionConfiguration.get(material, node);
+    }
 
-        protectionConfigurationCache.put(cacheKey, value);
-        return value;
+    /**
+     * @return the protection configuration compiled for every material
+     */
+    public ProtectionConfiguration getProtectionConfiguration() {
+        return protectionConfiguration;
     }
 
     /**
@@ -1503,12 +1398,15 @@ public class LWC {
 
         // check for upgrade before everything else
         new ConfigPost300().run();
+        protectionConfiguration = new ProtectionConfiguration(configuration);
         plugin.loadDatabase();
 
         Statistics.init();
 
         physicalDatabase = new PhysDB();
         databaseThread = new DatabaseThread(this);
+        historyWriter = createHistoryWriter();
+        lookupThread = new LookupThread(this);
 
         // Permissions init
         permissions = new SuperPermsPermissions();
@@ -1570,6 +1468,75 @@ public class LWC {
         // precache protections
         physicalDatabase.precache();
 
+        // count each owner's protections for the protection limits
+        if (configuration.getBoolean("optional.useProtectionLimits", true)) {
+            protectionCountCache.load();
+        }
+
+        permissionCacheTime = configuration.getInt("core.permissionCacheTime", 10) * 1000L;
+
+        // load the players that were seen before so their names do not have to be looked up again
+        UUIDRegistry.setCacheSize(configuration.getInt("core.uuidCacheSize", UUIDRegistry.DEFAULT_CACHE_SIZE));
+        UUIDRegistry.load(new File(UUIDRegistry.CACHE_FILE));
+
+        plugin.getServer().getScheduler().scheduleAsyncRepeatingTask(plugin, new Runnable() {
+            public void run() {
+                UUIDRegistry.save(new File(UUIDRegistry.CACHE_FILE));
+            }
+        }, UUID_CACHE_SAVE_INTERVAL, UUID_CACHE_SAVE_INTERVAL);
+
+        // archive old inactive history out of the database
+        if (configuration.getBoolean("history.retention", false)) {
+            long interval = TimeUtil.parseTime(" " + configuration.getString("history.interval", "1 day")) * 20L;
+
+            if (interval > 0) {
+                plugin.getServer().getScheduler().scheduleAsyncRepeatingTask(plugin, new HistoryArchiver(this), interval, interval);
+            } else {
+                log("Not archiving history: invalid history.interval");
+            }
+        }
+
+        // expire unused protections continuously instead of in one large run
+        if (configuration.getBoolean("expire.enabled", false)) {
+            final long maxAge = TimeUtil.parseTime(" " + configuration.getString("expire.time", "90 days"));
+            final boolean removeBlocks = configuration.getBoolean("expire.removeBlocks", false);
+            long interval = TimeUtil.parseTime(" " + configuration.getString("expire.interval", "1 hour")) * 20L;
+
+            if (maxAge > 0 && interval > 0) {
+                plugin.getServer().getScheduler().scheduleAsyncRepeatingTask(plugin, new Runnable() {
+                    public void run() {
+                        ProtectionFilter filter = new ProtectionFilter().setLastAccessedBefore(System.currentTimeMillis() / 1000L - maxAge);
+
+                        // a purge or manual expire that is already running is left alone; this runs again later
+                        protectionRemover.start(null, filter, removeBlocks, new ProtectionRemover.Listener() {
+                            public void onComplete(ProtectionFilter filter, int removed) {
+                                if (removed > 0) {
+                                    log("Expired " + removed + " protections that were not accessed in " + TimeUtil.timeToString(maxAge));
+                                }
+                            }
+                        });
+                    }
+                }, interval, interval);
+            } else {
+                log("Not expiring protections: invalid expire.time or expire.interval");
+            }
+        }
+
+        // resume a UUID conversion that was interrupted
+        uuidConverter = new UUIDConverter(this);
+        if (uuidConverter.isIncomplete()) {
+            uuidConverter.start();
+        }
+
+        // chunks loaded before LWC was enabled will not fire a load event, so load them in the background as well
+        if (configuration.getBoolean("core.preloadChunks", true)) {
+            for (World world : plugin.getServer().getWorlds()) {
+                for (Chunk chunk : world.getLoadedChunks()) {
+                    lookupThread.prefetch(world.getName(), chunk.getX(), chunk.getZ());
+                }
+            }
+        }
+
         // We are now done loading!
         moduleLoader.loadAll();
 
@@ -1680,6 +1647,7 @@ public class LWC {
         registerModule(new AdminRebuild());
         registerModule(new AdminBackup());
         registerModule(new AdminView());
+        registerModule(new AdminUUIDs());
 
         // /lwc setup
         registerModule(new BaseSetupModule());
@@ -1894,11 +1862,29 @@ public class LWC {
      */
     public void reload() {
         plugin.loadLocales();
-        protectionConfigurationCache.clear();
         Configuration.reload();
+        protectionConfiguration = new ProtectionConfiguration(configuration);
+        moveDecisionCache.clear();
+        permissionCacheTime = configuration.getInt("core.permissionCacheTime", 10) * 1000L;
+        LWCPlayer.invalidateAllPermissions();
         moduleLoader.dispatchEvent(new LWCReloadEvent());
     }
 
+    /**
+     * Create the history writer for the database being used
+     *
+     * @return the history writer, or null if history should be written by the thread that saves it
+     */
+    private HistoryWriter createHistoryWriter() {
+        // SQLite shares one connection between every thread, so a batch written in the background would be
+        // interleaved with other threads' writes and could read back the ids of their inserts
+        if (physicalDatabase.getType() == Database.Type.SQLite) {
+            return null;
+        }
+
+        return new HistoryWriter(this);
+    }
+
     /**
      * Reload the database
      */
@@ -1906,10 +1892,16 @@ public class LWC {
         try {
             databaseThread.flush();
             databaseThread.stop();
+
+            if (historyWriter != null) {
+                historyWriter.stop();
+            }
+
             physicalDatabase = new PhysDB();
             physicalDatabase.connect();
             physicalDatabase.load();
             databaseThread = new DatabaseThread(this);
+            historyWriter = createHistoryWriter();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -2001,6 +1993,15 @@ public class LWC {
         return permissions;
     }
 
+    /**
+     * Set the Permissions handler
+     *
+     * @param permissions
+     */
+    public void setPermissions(IPermissions permissions) {
+        this.permissions = permissions;
+    }
+
     /**
      * @return physical database object
      */
@@ -2022,6 +2023,41 @@ public class LWC {
         return protectionCache;
     }
 
+    /**
+     * @return the cached hopper move decisions
+     */
+    public MoveDecisionCache getMoveDecisionCache() {
+        return moveDecisionCache;
+    }
+
+    /**
+     * @return the amount of protections each owner has
+     */
+    public ProtectionCountCache getProtectionCountCache() {
+        return protectionCountCache;
+    }
+
+    /**
+     * @return the converter of player names to UUIDs
+     */
+    public UUIDConverter getUUIDConverter() {
+        return uuidConverter;
+    }
+
+    /**
+     * @return the bulk protection remover
+     */
+    public ProtectionRemover getProtectionRemover() {
+        return protectionRemover;
+    }
+
+    /**
+     * @return the bulk region protector
+     */
+    public RegionProtector getRegionProtector() {
+        return regionProtector;
+    }
+
     /**
      * @return the update thread
      */
@@ -2029,6 +2065,20 @@ public class LWC {
         return databaseThread;
     }
 
+    /**
+     * @return the history writer
+     */
+    public HistoryWriter getHistoryWriter() {
+        return historyWriter;
+    }
+
+    /**
+     * @return the thread protections can be looked up on without blocking the server thread
+     */
+    public LookupThread getLookupThread() {
+        return lookupThread;
+    }
+
     /**
      * @return the plugin version
      */
@@ -28,67 +28,392 @@
 
 package com.griefcraft.migration;
 
-import com.griefcraft.model.History;
-import com.griefcraft.model.Protection;
+import com.griefcraft.sql.Database;
 import com.griefcraft.sql.PhysDB;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 public class DatabaseMigrator {
     private static Logger logger = Logger.getLogger("LWCMigrator");
 
     /**
-     * Converts the current database to the given database type
+     * The columns copied from the protections table. The old flags column is left out as it is dropped once
+     * its values were converted
+     */
+    private static final String[] PROTECTION_COLUMNS = {"id", "owner", "type", "x", "y", "z", "data", "blockId", "world", "password", "date", "last_accessed"};
+
+    /**
+     * The columns copied from the history table
+     */
+    private static final String[] HISTORY_COLUMNS = {"id", "protectionId", "player", "player_lower", "x", "y", "z", "type", "status", "metadata", "timestamp"};
+
+    /**
+     * The amount of rows read from the source database at a time
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * The amount of rows written by one insert statement. Kept low enough that SQLite's limit of 999 bound
+     * variables per statement is never reached.
+     */
+    private static final int ROWS_PER_INSERT = 50;
+
+    /**
+     * The amount of rows written before the transaction is committed
+     */
+    private static final int ROWS_PER_TRANSACTION = 5000;
+
+    /**
+     * How often progress is logged, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 5000L;
+
+    /**
+     * Converts the current database to the given database type. Protections and history are streamed a page at
+     * a time and written in batches so the tables never have to fit into memory; when the target database can
+     * accept concurrent writers both tables are copied at the same time.
      *
      * @param fromDatabase The database to convert from
      * @param toDatabase The database to convert to - does not need to be initialized; new PhysDB(type) is fine
      * @return true if the conversion was most likely successful
      */
-    public boolean migrate(PhysDB fromDatabase, PhysDB toDatabase) {
+    public boolean migrate(final PhysDB fromDatabase, final PhysDB toDatabase) {
+        long start = System.currentTimeMillis();
+
+        // SQLite only has the one connection so concurrent writers would share a transaction
+        boolean parallel = toDatabase.getType() != Database.Type.SQLite;
+        ExecutorService executor = Executors.newFixedThreadPool(parallel ? 2 : 1, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LWC Migrator-" + (++ count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
         try {
-            toDatabase.getConnection().setAutoCommit(false);
+            Future<Boolean> protections = executor.submit(new TableCopier(fromDatabase, toDatabase, "protections", PROTECTION_COLUMNS));
+            Future<Boolean> history = executor.submit(new TableCopier(fromDatabase, toDatabase, "history", HISTORY_COLUMNS));
+
+            // wait for both even if one of them failed so neither is left writing behind our back
+            boolean success = protections.get();
+            success = history.get() && success;
+
+            if (!success) {
+                return false;
+            }
 
-            // some prelim data
-            int startProtections = toDatabase.getProtectionCount();
-            int protectionCount = fromDatabase.getProtectionCount();
-            int historyCount = fromDatabase.getHistoryCount();
-            int expectedProtections = protectionCount + startProtections;
+            logger.info("Migration finished in " + ((System.currentTimeMillis() - start) / 1000L) + "s");
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return false;
+        } finally {
+            executor.shutdown();
+            fromDatabase.dispose();
+        }
+    }
+
+    /**
+     * Copies one table from the source database to the target database
+     */
+    private static class TableCopier implements Callable<Boolean> {
+
+        private final PhysDB fromDatabase;
+        private final PhysDB toDatabase;
+        private final String table;
+        private final String[] columns;
+
+        /**
+         * The column types of the source table, used when binding nulls
+         */
+        private int[] types;
+
+        /**
+         * The amount of rows copied so far
+         */
+        private long copied = 0;
+
+        public TableCopier(PhysDB fromDatabase, PhysDB toDatabase, String table, String[] columns) {
+            this.fromDatabase = fromDatabase;
+            this.toDatabase = toDatabase;
+            this.table = table;
+            this.columns = columns;
+        }
+
+        public Boolean call() throws Exception {
+            Connection target = toDatabase.getConnection();
 
-            if (protectionCount > 0) {
-                List<Protection> tmp = fromDatabase.loadProtections();
+            try {
+                long[] expected = checksum(fromDatabase, Long.MIN_VALUE, Long.MAX_VALUE);
+                long total = expected[0];
 
-                for (Protection protection : tmp) {
-                    // sync it to the live database
-                    protection.saveNow();
+                if (total == 0) {
+                    return true;
                 }
 
-                toDatabase.getConnection().commit();
-                if (expectedProtections != (protectionCount = fromDatabase.getProtectionCount())) {
-                    logger.info("Weird, only " + protectionCount + " protections are in the database? Continuing...");
+                logger.info("Migrating " + total + " " + table);
+                target.setAutoCommit(false);
+
+                long start = System.currentTimeMillis();
+                long nextProgress = start + PROGRESS_INTERVAL;
+                long uncommitted = 0;
+                long lastId = Long.MIN_VALUE;
+                List<Object[]> rows = new ArrayList<Object[]>(PAGE_SIZE);
+
+                while (true) {
+                    rows.clear();
+                    lastId = readPage(lastId, rows);
+
+                    if (rows.isEmpty()) {
+                        break;
+                    }
+
+                    write(rows);
+                    copied += rows.size();
+                    uncommitted += rows.size();
+
+                    if (uncommitted >= ROWS_PER_TRANSACTION) {
+                        target.commit();
+                        uncommitted = 0;
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextProgress) {
+                        nextProgress = now + PROGRESS_INTERVAL;
+                        logger.info(table + ": " + copied + "/" + total + " rows (" + rate(copied, now - start) + " rows/s)");
+                    }
                 }
+
+                target.commit();
+                target.setAutoCommit(true);
+                logger.info(table + ": copied " + copied + " rows (" + rate(copied, System.currentTimeMillis() - start) + " rows/s)");
+
+                // compare the copied range of the target with the source
+                long[] actual = checksum(toDatabase, expected[1], expected[2]);
+
+                if (actual[0] != expected[0] || actual[3] != expected[3] || actual[4] != expected[4]) {
+                    logger.info(table + ": verification failed! Expected " + expected[0] + " rows (checksum " + expected[3] + "/" + expected[4]
+                            + ") but found " + actual[0] + " rows (checksum " + actual[3] + "/" + actual[4] + ")");
+                    return false;
+                }
+
+                logger.info(table + ": verified " + actual[0] + " rows");
+                return true;
+            } catch (SQLException e) {
+                logger.info(table + ": migration failed after " + copied + " rows: " + e.getMessage());
+
+                try {
+                    target.rollback();
+                    target.setAutoCommit(true);
+                } catch (SQLException ex) { }
+
+                throw e;
+            } finally {
+                fromDatabase.releaseConnection();
+                toDatabase.releaseConnection();
             }
+        }
+
+        /**
+         * Read the next page of rows from the source table
+         *
+         * @param afterId the id of the last row that was read
+         * @param rows the list to add the rows to
+         * @return the id of the last row read
+         */
+        private long readPage(long afterId, List<Object[]> rows) throws SQLException {
+            PreparedStatement statement = fromDatabase.prepare("SELECT " + join(columns) + " FROM " + fromDatabase.getPrefix() + table + " WHERE id > ? ORDER BY id LIMIT " + PAGE_SIZE);
+            statement.setLong(1, afterId);
+
+            ResultSet set = statement.executeQuery();
+
+            try {
+                if (types == null) {
+                    types = new int[columns.length];
+
+                    for (int i = 0; i < columns.length; i++) {
+                        types[i] = set.getMetaData().getColumnType(i + 1);
+                    }
+                }
 
-            if (historyCount > 0) {
-                List<History> tmp = fromDatabase.loadHistory();
+                while (set.next()) {
+                    Object[] row = new Object[columns.length];
 
-                for (History history : tmp) {
-                    // make sure it's assumed it does not exist in the database
-                    history.setExists(false);
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = set.getObject(i + 1);
+                    }
 
-                    // sync the history object with the active database (ala MySQL)
-                    history.sync();
+                    afterId = set.getLong(1);
+                    rows.add(row);
                 }
+            } finally {
+                set.close();
             }
 
-            fromDatabase.getConnection().close();
-            toDatabase.getConnection().setAutoCommit(true);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+            return afterId;
+        }
+
+        /**
+         * Write rows to the target table using multi-row inserts
+         *
+         * @param rows
+         */
+        private void write(List<Object[]> rows) throws SQLException {
+            int offset = 0;
+
+            // full statements are batched together, the remainder is written by a smaller statement
+            int full = rows.size() / ROWS_PER_INSERT;
+            if (full > 0) {
+                PreparedStatement statement = toDatabase.prepare(insertSql(ROWS_PER_INSERT));
+
+                for (int i = 0; i < full; i++) {
+                    bind(statement, rows, offset, ROWS_PER_INSERT);
+                    statement.addBatch();
+                    offset += ROWS_PER_INSERT;
+                }
+
+                statement.executeBatch();
+            }
+
+            if (offset < rows.size()) {
+                PreparedStatement statement = toDatabase.prepare(insertSql(rows.size() - offset));
+                bind(statement, rows, offset, rows.size() - offset);
+                statement.executeUpdate();
+            }
+        }
+
+        /**
+         * Bind a set of rows to a multi-row insert
+         *
+         * @param statement
+         * @param rows
+         * @param offset
+         * @param count
+         */
+        private void bind(PreparedStatement statement, List<Object[]> rows, int offset, int count) throws SQLException {
+            int index = 1;
+
+            for (int i = offset; i < offset + count; i++) {
+                Object[] row = rows.get(i);
+
+                for (int column = 0; column < columns.length; column++) {
+                    if (row[column] == null) {
+                        statement.setNull(index++, types[column] == Types.NULL ? Types.VARCHAR : types[column]);
+                    } else {
+                        statement.setObject(index++, row[column]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Build the insert statement for the given amount of rows. Existing ids are replaced, the same as
+         * saving the protection would.
+         *
+         * @param rows
+         * @return
+         */
+        private String insertSql(int rows) {
+            StringBuilder builder = new StringBuilder("REPLACE INTO ").append(toDatabase.getPrefix()).append(table);
+            builder.append(" (").append(join(columns)).append(") VALUES ");
+
+            StringBuilder values = new StringBuilder("(");
+            for (int i = 0; i < columns.length; i++) {
+                values.append(i == 0 ? "?" : ", ?");
+            }
+            values.append(")");
+
+            for (int i = 0; i < rows; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+
+                builder.append(values);
+            }
+
+            return builder.toString();
+        }
+
+        /**
+         * Calculate a checksum of the rows in the given id range: the amount of rows, the lowest and highest id,
+         * the sum of the ids and the sum of the coordinates
+         *
+         * @param database
+         * @param minId
+         * @param maxId
+         * @return
+         */
+        private long[] checksum(PhysDB database, long minId, long maxId) throws SQLException {
+            PreparedStatement statement = database.prepare("SELECT COUNT(*), MIN(id), MAX(id), SUM(id), SUM(x) + SUM(y) + SUM(z) FROM " + database.getPrefix() + table + " WHERE id >= ? AND id <= ?");
+            statement.setLong(1, minId);
+            statement.setLong(2, maxId);
+
+            ResultSet set = statement.executeQuery();
+
+            try {
+                long[] checksum = new long[5];
+
+                if (set.next()) {
+                    for (int i = 0; i < checksum.length; i++) {
+                        checksum[i] = set.getLong(i + 1);
+                    }
+                }
+
+                return checksum;
+            } finally {
+                set.close();
+            }
+        }
+
+        /**
+         * Join the column names into a comma separated list
+         *
+         * @param columns
+         * @return
+         */
+        private static String join(String[] columns) {
+            StringBuilder builder = new StringBuilder();
+
+            for (String column : columns) {
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+
+                builder.append(column);
+            }
+
+            return builder.toString();
+        }
+
+        /**
+         * Calculate the amount of rows copied per second
+         *
+         * @param rows
+         * @param time in milliseconds
+         * @return
+         */
+        private static long rate(long rows, long time) {
+            return time <= 0 ? rows : rows * 1000L / time;
         }
 
-        return true;
     }
 
 }
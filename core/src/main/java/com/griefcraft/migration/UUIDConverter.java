@@ -0,0 +1,474 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.migration;
+
+import com.griefcraft.cache.ProtectionCountCache;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.PhysDB;
+import com.griefcraft.util.OfflineUUIDResolver;
+import com.griefcraft.util.UUIDResolver;
+import com.griefcraft.util.WebUUIDResolver;
+import org.bukkit.Bukkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Converts the player names stored in protections to UUIDs in the background. The protections table is walked a
+ * page at a time; the distinct names in each page are resolved in batches and the converted protections are
+ * written back together. The id of the last page converted is stored so an interrupted conversion resumes where
+ * it left off.
+ */
+public class UUIDConverter implements Runnable {
+
+    /**
+     * The internal key the conversion progress is stored under
+     */
+    public static final String PROGRESS_KEY = "uuidConversion";
+
+    /**
+     * The progress value stored once every protection has been scanned
+     */
+    private static final String COMPLETE = "complete";
+
+    /**
+     * The amount of protections loaded at a time
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * The amount of names passed to a resolver at a time
+     */
+    private static final int RESOLVE_BATCH_SIZE = 100;
+
+    /**
+     * The maximum amount of resolved names remembered between pages
+     */
+    private static final int MAX_REMEMBERED = 50000;
+
+    /**
+     * How often progress is logged, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 30000L;
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The resolvers names are passed through, in order. Names one resolver could not resolve are passed on to the next.
+     */
+    private final List<UUIDResolver> resolvers;
+
+    /**
+     * Names that were already looked up keyed by their lowercase form, including the ones that could not be resolved (mapped to null)
+     */
+    private final Map<String, UUID> resolved = new HashMap<String, UUID>();
+
+    /**
+     * The thread the conversion is running in
+     */
+    private Thread thread = null;
+
+    /**
+     * If the conversion should keep running
+     */
+    private volatile boolean running = false;
+
+    /**
+     * The amount of protections in the table when the conversion started
+     */
+    private volatile int total = 0;
+
+    /**
+     * The amount of protections scanned
+     */
+    private volatile int scanned = 0;
+
+    /**
+     * The amount of protections converted
+     */
+    private volatile int converted = 0;
+
+    /**
+     * The amount of names that could not be resolved
+     */
+    private volatile int unresolved = 0;
+
+    /**
+     * The time the conversion was started at
+     */
+    private volatile long startTime = 0;
+
+    public UUIDConverter(LWC lwc) {
+        this(lwc, createDefaultResolvers());
+    }
+
+    public UUIDConverter(LWC lwc, List<UUIDResolver> resolvers) {
+        this.lwc = lwc;
+        this.resolvers = new ArrayList<UUIDResolver>(resolvers);
+    }
+
+    /**
+     * Players that have been on the server are looked up locally first; only the remaining names are sent to the
+     * account servers
+     *
+     * @return
+     */
+    private static List<UUIDResolver> createDefaultResolvers() {
+        List<UUIDResolver> resolvers = new ArrayList<UUIDResolver>();
+        resolvers.add(new OfflineUUIDResolver());
+
+        if (Bukkit.getOnlineMode()) {
+            resolvers.add(new WebUUIDResolver());
+        }
+
+        return resolvers;
+    }
+
+    /**
+     * Start the conversion, resuming from the last page that was converted
+     *
+     * @return false if the conversion is already running
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return false;
+        }
+
+        running = true;
+        thread = new Thread(this, "LWC UUID Converter");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stop the conversion after the current page. The progress is kept so it can be resumed later.
+     */
+    public synchronized void stop() {
+        running = false;
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Forget the stored progress so the next conversion starts from the first protection
+     */
+    public void reset() {
+        lwc.getPhysicalDatabase().setInternal(PROGRESS_KEY, "0");
+    }
+
+    /**
+     * @return true if a conversion was started but did not finish
+     */
+    public boolean isIncomplete() {
+        String progress = lwc.getPhysicalDatabase().getInternal(PROGRESS_KEY);
+        return progress != null && !progress.equals(COMPLETE);
+    }
+
+    /**
+     * @return true if the conversion is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the amount of protections in the table when the conversion started
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the amount of protections scanned
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return the amount of protections converted
+     */
+    public int getConverted() {
+        return converted;
+    }
+
+    /**
+     * @return the amount of names that could not be resolved
+     */
+    public int getUnresolved() {
+        return unresolved;
+    }
+
+    /**
+     * @return the amount of protections scanned per second
+     */
+    public long getRate() {
+        long time = System.currentTimeMillis() - startTime;
+        return time <= 0 ? 0 : scanned * 1000L / time;
+    }
+
+    public void run() {
+        PhysDB database = lwc.getPhysicalDatabase();
+
+        try {
+            String progress = database.getInternal(PROGRESS_KEY);
+            int lastId = 0;
+
+            if (progress != null && !progress.equals(COMPLETE)) {
+                lastId = Integer.parseInt(progress);
+            }
+
+            total = database.getProtectionCount();
+            scanned = 0;
+            converted = 0;
+            unresolved = 0;
+            startTime = System.currentTimeMillis();
+            long nextProgress = startTime + PROGRESS_INTERVAL;
+
+            lwc.log("Converting player names to UUIDs" + (lastId > 0 ? " (resuming after protection id " + lastId + ")" : ""));
+
+            while (running) {
+                List<Protection> page = database.loadProtectionPage(lastId, PAGE_SIZE);
+
+                if (page.isEmpty()) {
+                    database.setInternal(PROGRESS_KEY, COMPLETE);
+                    lwc.log("UUID conversion complete: converted " + converted + " protections; " + unresolved + " names could not be resolved");
+                    break;
+                }
+
+                lastId = page.get(page.size() - 1).getId();
+                convertPage(page);
+                scanned += page.size();
+                database.setInternal(PROGRESS_KEY, Integer.toString(lastId));
+
+                if (System.currentTimeMillis() >= nextProgress) {
+                    nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+                    lwc.log("UUID conversion: scanned " + scanned + "/" + total + " protections, converted " + converted + " (" + getRate() + " protections/s)");
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (Exception e) {
+            lwc.log("UUID conversion stopped: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            running = false;
+            resolved.clear();
+            database.releaseConnection();
+        }
+    }
+
+    /**
+     * Convert the protections in a page that still use player names
+     *
+     * @param page
+     */
+    private void convertPage(List<Protection> page) throws Exception {
+        final List<Protection> candidates = new ArrayList<Protection>();
+        final Map<Integer, String> loadedOwners = new HashMap<Integer, String>();
+        final Map<Integer, String> loadedData = new HashMap<Integer, String>();
+
+        // the names to resolve keyed by their lowercase form, in the case they were first seen with
+        Map<String, String> names = new LinkedHashMap<String, String>();
+
+        for (Protection protection : page) {
+            // what the row holds now, so the update can tell if it changed after this page was loaded
+            String owner = protection.getOwner();
+            String data = protection.getEncodedData();
+            Set<String> legacy = protection.getLegacyPlayerNames();
+
+            if (!legacy.isEmpty()) {
+                candidates.add(protection);
+                loadedOwners.put(protection.getId(), owner);
+                loadedData.put(protection.getId(), data);
+
+                for (String name : legacy) {
+                    String lowerName = name.toLowerCase();
+
+                    if (!names.containsKey(lowerName) && !resolved.containsKey(lowerName)) {
+                        names.put(lowerName, name);
+                    }
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        resolve(new ArrayList<String>(names.values()));
+
+        final Map<String, UUID> lookup = Collections.unmodifiableMap(resolved);
+
+        // protections that are in the cache may be in use; those are converted on the server thread and saved normally.
+        // Protections waiting to be written are left alone, the pending write would undo the conversion.
+        Future<List<Protection>> future = Bukkit.getScheduler().callSyncMethod(lwc.getPlugin(), new Callable<List<Protection>>() {
+            public List<Protection> call() throws Exception {
+                List<Protection> uncached = new ArrayList<Protection>(candidates.size());
+
+                for (Protection protection : candidates) {
+                    Protection cached = lwc.getProtectionCache().getProtectionById(protection.getId());
+
+                    if (cached == null) {
+                        if (!lwc.getDatabaseThread().contains(protection)) {
+                            uncached.add(protection);
+                        }
+                    } else if (cached.convertPlayerNamesToUUIDs(lookup)) {
+                        cached.save();
+                        converted ++;
+                    }
+                }
+
+                return uncached;
+            }
+        });
+
+        List<Protection> uncached;
+
+        try {
+            uncached = future.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+
+        List<Protection> modified = new ArrayList<Protection>(uncached.size());
+        List<String> owners = new ArrayList<String>(uncached.size());
+        List<String> data = new ArrayList<String>(uncached.size());
+
+        for (Protection protection : uncached) {
+            // the copy may not be written, so its counts are only moved once the row is updated
+            if (protection.convertPlayerNamesToUUIDs(lookup, false)) {
+                modified.add(protection);
+                owners.add(loadedOwners.get(protection.getId()));
+                data.add(loadedData.get(protection.getId()));
+            }
+        }
+
+        if (!modified.isEmpty()) {
+            PhysDB database = lwc.getPhysicalDatabase();
+            List<Protection> updated;
+            database.setAutoCommit(false);
+
+            try {
+                // only the owner and rights are written, and only to rows that did not change since they were loaded
+                updated = database.updateConvertedProtections(modified, owners, data);
+            } finally {
+                database.setAutoCommit(true);
+            }
+
+            ProtectionCountCache counts = lwc.getProtectionCountCache();
+
+            for (Protection protection : updated) {
+                String loadedOwner = loadedOwners.get(protection.getId());
+
+                if (loadedOwner != null && !loadedOwner.equalsIgnoreCase(protection.getOwner())) {
+                    counts.decrement(loadedOwner, protection.getBlockId());
+                    counts.increment(protection.getOwner(), protection.getBlockId());
+                }
+            }
+
+            converted += updated.size();
+        }
+
+        if (resolved.size() > MAX_REMEMBERED) {
+            resolved.clear();
+        }
+    }
+
+    /**
+     * Resolve names in batches, passing what one resolver could not find on to the next
+     *
+     * @param names
+     */
+    private void resolve(List<String> names) throws InterruptedException {
+        if (names.isEmpty()) {
+            return;
+        }
+
+        for (int index = 0; index < names.size(); index += RESOLVE_BATCH_SIZE) {
+            List<String> remaining = new ArrayList<String>(names.subList(index, Math.min(index + RESOLVE_BATCH_SIZE, names.size())));
+
+            for (UUIDResolver resolver : resolvers) {
+                if (remaining.isEmpty()) {
+                    break;
+                }
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                try {
+                    Map<String, UUID> results = resolver.resolve(remaining);
+
+                    for (Map.Entry<String, UUID> entry : results.entrySet()) {
+                        resolved.put(entry.getKey(), entry.getValue());
+                    }
+
+                    Iterator<String> iter = remaining.iterator();
+
+                    while (iter.hasNext()) {
+                        if (results.containsKey(iter.next().toLowerCase())) {
+                            iter.remove();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    lwc.log("Failed to resolve " + remaining.size() + " names using " + resolver.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
+
+            // remember the names that could not be resolved so they are not looked up again
+            for (String name : remaining) {
+                resolved.put(name.toLowerCase(), null);
+            }
+
+            unresolved += remaining.size();
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.model;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A lookup of a protection's permissions by type and lowercase name, so an access check does not scan every
+ * permission. Item keys are kept as a set of item ids so they do not need to be parsed on every check.
+ * <p/>
+ * The index is a snapshot; the protection throws it away whenever its permissions change.
+ */
+final class AccessIndex {
+
+    /**
+     * The access of each name, for each permission type
+     */
+    private final Map<Permission.Type, Map<String, Permission.Access>> entries = new EnumMap<Permission.Type, Map<String, Permission.Access>>(Permission.Type.class);
+
+    /**
+     * The ids of the items that open the protection
+     */
+    private final Set<Integer> items = new HashSet<Integer>();
+
+    AccessIndex(Collection<Permission> permissions) {
+        for (Permission permission : permissions) {
+            if (permission == null || permission.getName() == null) {
+                continue;
+            }
+
+            Permission.Type type = permission.getType();
+            Map<String, Permission.Access> names = entries.get(type);
+
+            if (names == null) {
+                names = new HashMap<String, Permission.Access>();
+                entries.put(type, names);
+            }
+
+            // names that only differ by case keep the highest access
+            String name = permission.getName().toLowerCase();
+            Permission.Access existing = names.get(name);
+
+            if (existing == null || permission.getAccess().ordinal() > existing.ordinal()) {
+                names.put(name, permission.getAccess());
+            }
+
+            if (type == Permission.Type.ITEM) {
+                try {
+                    int item = Integer.parseInt(permission.getName());
+
+                    if (item >= 0) {
+                        items.add(item);
+                    }
+                } catch (NumberFormatException e) {
+                    // not an item id
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the access a name has
+     *
+     * @param name
+     * @param type
+     * @return
+     */
+    Permission.Access getAccess(String name, Permission.Type type) {
+        Map<String, Permission.Access> names = entries.get(type);
+
+        if (names == null || name == null) {
+            return Permission.Access.NONE;
+        }
+
+        Permission.Access access = names.get(name.toLowerCase());
+        return access == null ? Permission.Access.NONE : access;
+    }
+
+    /**
+     * Check if there are any permissions of a type
+     *
+     * @param type
+     * @return
+     */
+    boolean hasType(Permission.Type type) {
+        return entries.containsKey(type);
+    }
+
+    /**
+     * Check if an item opens the protection
+     *
+     * @param itemId
+     * @return
+     */
+    boolean hasItem(int itemId) {
+        return items.contains(itemId);
+    }
+
+}
@@ -29,6 +29,7 @@
 package com.griefcraft.model;
 
 import com.griefcraft.lwc.LWC;
+import com.griefcraft.util.HistoryWriter;
 import com.griefcraft.util.StringUtil;
 
 import java.util.Arrays;
@@ -142,6 +143,11 @@ public class History {
      */
     private boolean saving = false;
 
+    /**
+     * Incremented every time the history object is modified so a write can tell if it is still up to date
+     */
+    private volatile int revision = 0;
+
     public History() {
         // set some defaults to account for stupidness
         status = Status.INACTIVE;
@@ -155,6 +161,31 @@ public class History {
         return modified;
     }
 
+    /**
+     * Set if the history object should be synced to the database
+     *
+     * @param modified
+     */
+    public void setModified(boolean modified) {
+        if (modified) {
+            markModified();
+        } else {
+            this.modified = false;
+        }
+    }
+
+    /**
+     * Mark the history object as modified and make sure the protection it belongs to saves it
+     */
+    private void markModified() {
+        this.modified = true;
+        revision ++;
+
+        if (protection != null) {
+            protection.checkHistory(this);
+        }
+    }
+
     /**
      * @return the Protection this history value is associated with
      */
@@ -182,7 +213,7 @@ public class History {
 
         // we're okey
         this.metadata = temp;
-        this.modified = true;
+        markModified();
     }
 
     /**
@@ -287,7 +318,7 @@ public class History {
 
         // that went better than expected
         this.metadata = temp.toArray(new String[temp.size()]);
-        this.modified = true;
+        markModified();
 
         return metadata.length == expected;
     }
@@ -320,7 +351,7 @@ public class History {
      */
     public void setExists(boolean exists) {
         this.exists = exists;
-        this.modified = true;
+        markModified();
     }
 
     /**
@@ -361,14 +392,53 @@ public class History {
     }
 
     /**
-     * Force the history object to be saved immediately
+     * Queue the history object to be written to the database by the history writer as soon as possible
      */
     public void saveNow() {
+        HistoryWriter writer = LWC.getInstance().getHistoryWriter();
+
+        if (writer == null) {
+            writeNow();
+        } else {
+            writer.add(this);
+        }
+    }
+
+    /**
+     * Write the history object to the database on the current thread
+     */
+    public void writeNow() {
         LWC.getInstance().getPhysicalDatabase().saveHistory(this);
         this.modified = false;
         this.saving = false;
     }
 
+    /**
+     * Called once the history object was written to the database. It is only marked as saved if it was not
+     * modified again while it was being written.
+     *
+     * @param revision the revision that was written
+     * @param id the id the database generated for it, or 0 if it already existed
+     */
+    public void onSaved(int revision, int id) {
+        if (id > 0) {
+            this.id = id;
+            this.exists = true;
+        }
+
+        if (this.revision == revision) {
+            this.modified = false;
+            this.saving = false;
+        }
+    }
+
+    /**
+     * @return the revision of the history object, incremented every time it is modified
+     */
+    public int getRevision() {
+        return revision;
+    }
+
     /**
      * Alias for {@see save}
      */
@@ -428,52 +498,52 @@ public class History {
     public void setId(int id) {
         this.id = id;
         this.exists = true;
-        this.modified = true;
+        markModified();
     }
 
     public void setProtectionId(int protectionId) {
         this.protectionId = protectionId;
-        this.modified = true;
+        markModified();
     }
 
     public void setPlayer(String player) {
         this.player = player;
-        this.modified = true;
+        markModified();
     }
 
     public void setX(int x) {
         this.x = x;
-        this.modified = true;
+        markModified();
     }
 
     public void setY(int y) {
         this.y = y;
-        this.modified = true;
+        markModified();
     }
 
     public void setZ(int z) {
         this.z = z;
-        this.modified = true;
+        markModified();
     }
 
     public void setType(Type type) {
         this.type = type;
-        this.modified = true;
+        markModified();
     }
 
     public void setStatus(Status status) {
         this.status = status;
-        this.modified = true;
+        markModified();
     }
 
     public void setMetaData(String[] metadata) {
         this.metadata = metadata;
-        this.modified = true;
+        markModified();
     }
 
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
-        this.modified = true;
+        markModified();
     }
 
 }
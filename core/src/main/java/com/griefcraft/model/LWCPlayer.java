@@ -38,7 +38,6 @@ import org.bukkit.permissions.PermissionAttachment;
 import org.bukkit.permissions.PermissionAttachmentInfo;
 import org.bukkit.plugin.Plugin;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -78,6 +77,11 @@ public class LWCPlayer implements CommandSender {
      */
     private final Set<Protection> accessibleProtections = new HashSet<Protection>();
 
+    /**
+     * The player's resolved permissions; null until they are first needed
+     */
+    private volatile PermissionSnapshot permissionSnapshot = null;
+
     public LWCPlayer(LWC lwc, Player player) {
         this.lwc = lwc;
         this.player = player;
@@ -90,11 +94,16 @@ public class LWCPlayer implements CommandSender {
      * @return
      */
     public static LWCPlayer getPlayer(Player player) {
-        if (!playerCache.containsKey(player)) {
-            playerCache.put(player, new LWCPlayer(LWC.getInstance(), player));
-        }
+        synchronized (playerCache) {
+            LWCPlayer lwcPlayer = playerCache.get(player);
 
-        return playerCache.get(player);
+            if (lwcPlayer == null) {
+                lwcPlayer = new LWCPlayer(LWC.getInstance(), player);
+                playerCache.put(player, lwcPlayer);
+            }
+
+            return lwcPlayer;
+        }
     }
 
     /**
@@ -103,10 +112,51 @@ public class LWCPlayer implements CommandSender {
      * @param player
      */
     public static void removePlayer(Player player) {
-        LWCPlayer lwcPlayer = getPlayer(player);
-
         // uncache them
-        playerCache.remove(player);
+        synchronized (playerCache) {
+            playerCache.remove(player);
+        }
+    }
+
+    /**
+     * Throw away the resolved permissions of every player, e.g. after the permissions were reloaded
+     */
+    public static void invalidateAllPermissions() {
+        synchronized (playerCache) {
+            for (LWCPlayer lwcPlayer : playerCache.values()) {
+                lwcPlayer.invalidatePermissions();
+            }
+        }
+    }
+
+    /**
+     * Get the player's resolved permissions, resolving them again if they are older than core.permissionCacheTime
+     *
+     * @return
+     */
+    public PermissionSnapshot getPermissionSnapshot() {
+        PermissionSnapshot snapshot = permissionSnapshot;
+
+        if (snapshot == null || snapshot.isOlderThan(lwc.getPermissionCacheTime())) {
+            snapshot = new PermissionSnapshot(lwc, player);
+            permissionSnapshot = snapshot;
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Throw away the player's resolved permissions so they are resolved again when next needed
+     */
+    public void invalidatePermissions() {
+        permissionSnapshot = null;
+    }
+
+    /**
+     * @return the player's groups
+     */
+    public List<String> getGroups() {
+        return getPermissionSnapshot().getGroups();
     }
 
     /**
@@ -341,15 +391,7 @@ public class LWCPlayer implements CommandSender {
      * @return
      */
     public List<History> getRelatedHistory(History.Type type) {
-        List<History> related = new ArrayList<History>();
-
-        for (History history : getRelatedHistory()) {
-            if (history.getType() == type) {
-                related.add(history);
-            }
-        }
-
-        return related;
+        return lwc.getPhysicalDatabase().loadHistory(player.getName(), type);
     }
 
     public void sendMessage(String s) {
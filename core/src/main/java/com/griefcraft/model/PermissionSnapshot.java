@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.model;
+
+import com.griefcraft.lwc.LWC;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a player's permissions resolved to at one point in time: their groups and if they are an LWC admin or mod.
+ * Modules can keep values they resolved from the player's permissions (e.g. limits) with the snapshot so they are
+ * thrown away together.
+ * <p/>
+ * Snapshots are held by {@link LWCPlayer} and rebuilt when they expire or the player's permissions may have changed.
+ */
+public class PermissionSnapshot {
+
+    /**
+     * The player's groups
+     */
+    private final List<String> groups;
+
+    /**
+     * If the player is an LWC admin
+     */
+    private final boolean admin;
+
+    /**
+     * If the player is an LWC mod
+     */
+    private final boolean mod;
+
+    /**
+     * The time the snapshot was taken at
+     */
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * Values resolved from the player's permissions by modules
+     */
+    private final Map<String, Object> resolved = new HashMap<String, Object>();
+
+    PermissionSnapshot(LWC lwc, Player player) {
+        List<String> groups = lwc.getPermissions().getGroups(player);
+        this.groups = groups == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(groups));
+        this.admin = (player.isOp() && lwc.getConfiguration().getBoolean("core.opIsLWCAdmin", true)) || lwc.hasPermission(player, "lwc.admin");
+        this.mod = lwc.hasPermission(player, "lwc.mod");
+    }
+
+    /**
+     * @return the player's groups
+     */
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return true if the player is an LWC admin
+     */
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * @return true if the player is an LWC mod
+     */
+    public boolean isMod() {
+        return mod;
+    }
+
+    /**
+     * Check if the snapshot is older than a given age
+     *
+     * @param maxAge in milliseconds
+     * @return
+     */
+    public boolean isOlderThan(long maxAge) {
+        return System.currentTimeMillis() - created > maxAge;
+    }
+
+    /**
+     * Get a value a module resolved from the player's permissions
+     *
+     * @param key
+     * @return the value, or null if it was not resolved yet
+     */
+    public Object getResolved(String key) {
+        synchronized (resolved) {
+            return resolved.get(key);
+        }
+    }
+
+    /**
+     * Keep a value resolved from the player's permissions until the snapshot is rebuilt
+     *
+     * @param key
+     * @param value
+     */
+    public void setResolved(String key, Object value) {
+        synchronized (resolved) {
+            resolved.put(key, value);
+        }
+    }
+
+}
@@ -29,9 +29,11 @@
 package com.griefcraft.model;
 
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionCountCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.event.LWCProtectionRemovePostEvent;
 import com.griefcraft.util.Colors;
+import com.griefcraft.util.HistoryWriter;
 import com.griefcraft.util.ProtectionFinder;
 import com.griefcraft.util.StringUtil;
 import com.griefcraft.util.TimeUtil;
@@ -45,10 +47,12 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -117,15 +121,21 @@ public class Protection {
     }
 
     /**
-     * All of the history items associated with this protection
+     * The history items associated with this protection that were created or modified and still need to be
+     * saved. History that was only read is not kept here so it never has to be loaded to save the protection.
      */
-    private final Set<History> historyCache = new HashSet<History>();
+    private final Set<History> modifiedHistory = new HashSet<History>();
 
     /**
      * List of the permissions rights for the protection
      */
     private final Set<Permission> permissions = new HashSet<Permission>();
 
+    /**
+     * The permissions indexed for access checks. Built when first needed and thrown away when the permissions change.
+     */
+    private volatile AccessIndex accessIndex = null;
+
     /**
      * List of flags enabled on the protection
      */
@@ -146,6 +156,12 @@ public class Protection {
      */
     private final JSONObject data = new JSONObject();
 
+    /**
+     * The rights and flags as they were read from the database. They are decoded the first time they are used so
+     * protections that are only loaded (e.g. when precaching) never pay for decoding them.
+     */
+    private volatile String encodedData;
+
     /**
      * Unique id (in sql)
      */
@@ -198,7 +214,7 @@ public class Protection {
     private boolean removed = false;
 
     /**
-     * If the protection is pending removal. Only used internally.
+     * If the protection is pending removal. Changes made to it while it is pending removal are not written.
      */
     private boolean removing = false;
 
@@ -207,6 +223,11 @@ public class Protection {
      */
     private boolean modified = false;
 
+    /**
+     * Incremented whenever the owner, block or flags change, the protection is removed or it leaves the cache
+     */
+    private int revision = 0;
+
     /**
      * The protection finder used to find this protection
      */
@@ -255,6 +276,8 @@ public class Protection {
      * @return true if the protection required conversion and conversions were done
      */
     public boolean convertPlayerNamesToUUIDs() {
+        decodeData();
+
         if (!needsUUIDConversion()) {
             return false;
         }
@@ -276,6 +299,55 @@ public class Protection {
 
                 if (uuid != null) {
                     permission.setName(uuid.toString());
+                    accessIndex = null;
+                    modified = true;
+                    res = true;
+                }
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Convert the protection to use UUIDs using names that were already resolved
+     *
+     * @param resolved the resolved UUIDs keyed by the lowercase player name
+     * @return true if the protection required conversion and conversions were done
+     */
+    public boolean convertPlayerNamesToUUIDs(Map<String, UUID> resolved) {
+        return convertPlayerNamesToUUIDs(resolved, true);
+    }
+
+    /**
+     * Convert the protection to use UUIDs using names that were already resolved
+     *
+     * @param resolved the resolved UUIDs keyed by the lowercase player name
+     * @param updateCounts false if the protection is a copy that may not be written, in which case the caller moves
+     *                     the protection counts once it is
+     * @return true if the protection required conversion and conversions were done
+     */
+    public boolean convertPlayerNamesToUUIDs(Map<String, UUID> resolved, boolean updateCounts) {
+        decodeData();
+
+        boolean res = false;
+
+        if (!UUIDRegistry.isValidUUID(owner)) {
+            UUID uuid = resolved.get(owner.toLowerCase());
+
+            if (uuid != null) {
+                setOwner(uuid.toString(), updateCounts);
+                res = true;
+            }
+        }
+
+        for (Permission permission : permissions) {
+            if (permission.getType() == Permission.Type.PLAYER && !UUIDRegistry.isValidUUID(permission.getName())) {
+                UUID uuid = resolved.get(permission.getName().toLowerCase());
+
+                if (uuid != null) {
+                    permission.setName(uuid.toString());
+                    accessIndex = null;
                     modified = true;
                     res = true;
                 }
@@ -285,12 +357,37 @@ public class Protection {
         return res;
     }
 
+    /**
+     * Get the player names in the protection that have not been converted to UUIDs yet
+     *
+     * @return the player names, in the case they are stored with
+     */
+    public Set<String> getLegacyPlayerNames() {
+        decodeData();
+
+        Set<String> names = new HashSet<String>();
+
+        if (owner != null && !UUIDRegistry.isValidUUID(owner)) {
+            names.add(owner);
+        }
+
+        for (Permission permission : permissions) {
+            if (permission.getType() == Permission.Type.PLAYER && !UUIDRegistry.isValidUUID(permission.getName())) {
+                names.add(permission.getName());
+            }
+        }
+
+        return names;
+    }
+
     /**
      * Check if this protection requires conversion from plain player names to UUIDs
      *
      * @return true if the protection requires conversion
      */
     public boolean needsUUIDConversion() {
+        decodeData();
+
         if (!UUIDRegistry.isValidUUID(owner)) {
             return true;
         }
@@ -320,6 +417,8 @@ public class Protection {
      * @return
      */
     public void encodeRights() {
+        decodeData();
+
         // create the root
         JSONArray root = new JSONArray();
 
@@ -337,6 +436,8 @@ public class Protection {
      * Encode the protection flags to JSON
      */
     public void encodeFlags() {
+        decodeData();
+
         JSONArray root = new JSONArray();
 
         for (Flag flag : flags.values()) {
@@ -349,13 +450,13 @@ public class Protection {
     }
 
     /**
-     * Ensure a history object is located in our cache
+     * Ensure a modified history object is saved with the protection
      *
      * @param history
      */
     public void checkHistory(History history) {
-        if (!historyCache.contains(history)) {
-            historyCache.add(history);
+        synchronized (modifiedHistory) {
+            modifiedHistory.add(history);
         }
     }
 
@@ -408,23 +509,33 @@ public class Protection {
         history.setY(y);
         history.setZ(z);
 
-        // add it to the cache
-        historyCache.add(history);
+        // make sure it is saved with the protection
+        checkHistory(history);
 
         return history;
     }
 
     /**
+     * Get all of the related history for this protection. This loads every history item of the protection, so
+     * prefer {@link #getRelatedHistory(int, int)} or {@link #getRelatedHistory(History.Type, History.Status)}.
+     *
      * @return the related history for this protection, which is immutable
      */
     public Set<History> getRelatedHistory() {
-        // cache the database's history if we don't have any yet
-        if (historyCache.size() == 0) {
-            historyCache.addAll(LWC.getInstance().getPhysicalDatabase().loadHistory(this));
-        }
+        Set<History> related = new HashSet<History>(LWC.getInstance().getPhysicalDatabase().loadHistory(this));
+        addUnsavedHistory(related, null, null);
+        return Collections.unmodifiableSet(related);
+    }
 
-        // now we can return an immutable cache
-        return Collections.unmodifiableSet(historyCache);
+    /**
+     * Get a page of the related history for this protection, newest first
+     *
+     * @param start the amount of history items to skip
+     * @param count the maximum amount of history items to load
+     * @return
+     */
+    public List<History> getRelatedHistory(int start, int count) {
+        return LWC.getInstance().getPhysicalDatabase().loadHistory(this, start, count);
     }
 
     /**
@@ -434,16 +545,47 @@ public class Protection {
      * @return
      */
     public List<History> getRelatedHistory(History.Type type) {
-        List<History> matches = new ArrayList<History>();
-        Set<History> relatedHistory = getRelatedHistory();
+        return getRelatedHistory(type, null);
+    }
 
-        for (History history : relatedHistory) {
-            if (history.getType() == type) {
-                matches.add(history);
-            }
+    /**
+     * Get the related history for this protection using the given type and status
+     *
+     * @param type
+     * @param status the status to match, or null for any
+     * @return
+     */
+    public List<History> getRelatedHistory(History.Type type, History.Status status) {
+        List<History> matches = LWC.getInstance().getPhysicalDatabase().loadHistory(this, type, status);
+        addUnsavedHistory(matches, type, status);
+        return matches;
+    }
+
+    /**
+     * Add the history items that were created but are not in the database yet
+     *
+     * @param history
+     * @param type the type to match, or null for any
+     * @param status the status to match, or null for any
+     */
+    private void addUnsavedHistory(Collection<History> history, History.Type type, History.Status status) {
+        Set<History> unsaved = new LinkedHashSet<History>();
+
+        synchronized (modifiedHistory) {
+            unsaved.addAll(modifiedHistory);
         }
 
-        return matches;
+        // history that was saved but is still waiting to be written
+        HistoryWriter writer = LWC.getInstance().getHistoryWriter();
+        if (writer != null) {
+            unsaved.addAll(writer.getPending(id));
+        }
+
+        for (History item : unsaved) {
+            if (!item.doesExist() && (type == null || item.getType() == type) && (status == null || item.getStatus() == status) && !history.contains(item)) {
+                history.add(item);
+            }
+        }
     }
 
     /**
@@ -453,6 +595,7 @@ public class Protection {
      * @return
      */
     public boolean hasFlag(Flag.Type type) {
+        decodeData();
         return flags.containsKey(type);
     }
 
@@ -463,6 +606,7 @@ public class Protection {
      * @return
      */
     public Flag getFlag(Flag.Type type) {
+        decodeData();
         return flags.get(type);
     }
 
@@ -473,6 +617,8 @@ public class Protection {
      * @return
      */
     public boolean addFlag(Flag flag) {
+        decodeData();
+
         if (removed || flag == null) {
             return false;
         }
@@ -480,6 +626,7 @@ public class Protection {
         if (!flags.containsKey(flag.getType())) {
             flags.put(flag.getType(), flag);
             modified = true;
+            revision ++;
             return true;
         }
 
@@ -493,12 +640,15 @@ public class Protection {
      * @return
      */
     public void removeFlag(Flag flag) {
+        decodeData();
+
         if (removed) {
             return;
         }
 
         flags.remove(flag.getType());
         this.modified = true;
+        revision ++;
     }
 
     /**
@@ -509,19 +659,52 @@ public class Protection {
      * @return the permissions the player has
      */
     public Permission.Access getAccess(String name, Permission.Type type) {
-        for (Permission permission : permissions) {
-            if (permission.getType() == type && permission.getName().equalsIgnoreCase(name)) {
-                return permission.getAccess();
-            }
+        return getAccessIndex().getAccess(name, type);
+    }
+
+    /**
+     * Check if the protection has any permissions of a type
+     *
+     * @param type
+     * @return
+     */
+    public boolean hasPermissions(Permission.Type type) {
+        return getAccessIndex().hasType(type);
+    }
+
+    /**
+     * Check if an item is a key to the protection
+     *
+     * @param itemId
+     * @return true if holding the item gives access to the protection
+     */
+    public boolean hasItemKey(int itemId) {
+        return getAccessIndex().hasItem(itemId);
+    }
+
+    /**
+     * Get the permissions indexed for access checks, building the index if the permissions changed
+     *
+     * @return
+     */
+    private AccessIndex getAccessIndex() {
+        decodeData();
+
+        AccessIndex index = accessIndex;
+
+        if (index == null) {
+            index = new AccessIndex(permissions);
+            accessIndex = index;
         }
 
-        return Permission.Access.NONE;
+        return index;
     }
 
     /**
      * @return the list of permissions
      */
     public List<Permission> getPermissions() {
+        decodeData();
         return Collections.unmodifiableList(new ArrayList<Permission>(permissions));
     }
 
@@ -529,6 +712,8 @@ public class Protection {
      * Remove temporary permissions rights from the protection
      */
     public void removeTemporaryPermissions() {
+        decodeData();
+
         Iterator<Permission> iter = permissions.iterator();
 
         while (iter.hasNext()) {
@@ -536,6 +721,7 @@ public class Protection {
 
             if (permission.isVolatile()) {
                 iter.remove();
+                accessIndex = null;
             }
         }
     }
@@ -546,6 +732,8 @@ public class Protection {
      * @param permission
      */
     public void addPermission(Permission permission) {
+        decodeData();
+
         if (removed || permission == null) {
             return;
         }
@@ -555,6 +743,7 @@ public class Protection {
 
         // now we can safely add it
         permissions.add(permission);
+        accessIndex = null;
         modified = true;
     }
 
@@ -565,6 +754,8 @@ public class Protection {
      * @param type
      */
     public void removePermissions(String name, Permission.Type type) {
+        decodeData();
+
         if (removed) {
             return;
         }
@@ -576,6 +767,7 @@ public class Protection {
 
             if ((permission.getName().equals(name) || name.equals("*")) && permission.getType() == type) {
                 iter.remove();
+                accessIndex = null;
                 modified = true;
             }
         }
@@ -585,7 +777,10 @@ public class Protection {
      * Remove all of the permissions
      */
     public void removeAllPermissions() {
+        decodeData();
+
         permissions.clear();
+        accessIndex = null;
         modified = true;
     }
 
@@ -612,8 +807,106 @@ public class Protection {
         }
     }
 
+    /**
+     * Get the revision of the protection. It changes whenever the owner, block or flags change, or the protection
+     * is removed, so it can be used to tell if something derived from them is out of date.
+     *
+     * @return
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * Change the revision without changing the protection. Called when this instance leaves the protection cache:
+     * changes made through an instance that is loaded later do not change this one's revision, so nothing derived
+     * from this instance can be trusted anymore.
+     */
+    public void invalidateRevision() {
+        revision ++;
+    }
+
+    /**
+     * Get the JSON data for the protection, including its rights and flags
+     *
+     * @return
+     */
     public JSONObject getData() {
-        return data;
+        decodeData();
+
+        synchronized (this) {
+            encodeRights();
+            encodeFlags();
+            return data;
+        }
+    }
+
+    /**
+     * Set the rights and flags as they are stored in the database when the protection is loaded. They are decoded
+     * the first time they are used.
+     *
+     * @param encodedData
+     */
+    public void setEncodedData(String encodedData) {
+        this.encodedData = encodedData;
+    }
+
+    /**
+     * Get the rights and flags exactly as they were loaded from the database
+     *
+     * @return the loaded value, or null if it was empty or has been decoded
+     */
+    public String getEncodedData() {
+        return encodedData;
+    }
+
+    /**
+     * Encode the rights and flags so they can be stored in the database. If they were never decoded the value
+     * that was loaded is returned as-is.
+     *
+     * @return
+     */
+    public String encodeData() {
+        // held while decoding, so this never sees rights and flags that are only partly decoded
+        synchronized (this) {
+            String encoded = encodedData;
+
+            if (encoded != null) {
+                return encoded;
+            }
+
+            return ProtectionDataCodec.encode(this, permissions, flags.values(), data);
+        }
+    }
+
+    /**
+     * Decode the rights and flags loaded from the database if they have not been decoded yet
+     */
+    private void decodeData() {
+        if (encodedData == null) {
+            return;
+        }
+
+        synchronized (this) {
+            String encoded = encodedData;
+
+            if (encoded == null) {
+                return;
+            }
+
+            Set<Permission> decodedPermissions = new HashSet<Permission>();
+            Map<Flag.Type, Flag> decodedFlags = new HashMap<Flag.Type, Flag>();
+            JSONObject decodedData = new JSONObject();
+            ProtectionDataCodec.decode(encoded, decodedPermissions, decodedFlags, decodedData);
+
+            data.putAll(decodedData);
+            permissions.addAll(decodedPermissions);
+            flags.putAll(decodedFlags);
+            accessIndex = null;
+
+            // only published once everything is decoded, other threads skip the lock once they see it cleared
+            encodedData = null;
+        }
     }
 
     public int getBlockId() {
@@ -665,8 +958,15 @@ public class Protection {
             return;
         }
 
+        if (owner != null && id > 0 && this.blockId != blockId) {
+            ProtectionCountCache counts = LWC.getInstance().getProtectionCountCache();
+            counts.decrement(owner, this.blockId);
+            counts.increment(owner, blockId);
+        }
+
         this.blockId = blockId;
         this.modified = true;
+        revision ++;
     }
 
     public void setPassword(String password) {
@@ -697,12 +997,30 @@ public class Protection {
     }
 
     public void setOwner(String owner) {
+        setOwner(owner, true);
+    }
+
+    /**
+     * Set the owner of the protection
+     *
+     * @param owner
+     * @param updateCounts if the protection should be moved to the new owner's protection count
+     */
+    private void setOwner(String owner, boolean updateCounts) {
         if (removed) {
             return;
         }
 
+        // move the protection to the new owner's protection count
+        if (updateCounts && this.owner != null && id > 0 && !this.owner.equalsIgnoreCase(owner)) {
+            ProtectionCountCache counts = LWC.getInstance().getProtectionCountCache();
+            counts.decrement(this.owner, blockId);
+            counts.increment(owner, blockId);
+        }
+
         this.owner = owner;
         this.modified = true;
+        revision ++;
     }
 
     public void setType(Type type) {
@@ -796,27 +1114,40 @@ public class Protection {
         // we broadcast before actually removing to give them a chance to use any password that would be removed otherwise
         lwc.getModuleLoader().dispatchEvent(new LWCProtectionRemovePostEvent(this));
 
-        // mark related transactions as inactive
-        for (History history : getRelatedHistory(History.Type.TRANSACTION)) {
-            if (history.getStatus() != History.Status.ACTIVE) {
-                continue;
+        // mark related transactions as inactive, the ones waiting to be saved first
+        synchronized (modifiedHistory) {
+            for (History history : modifiedHistory) {
+                if (history.getType() == History.Type.TRANSACTION && history.getStatus() == History.Status.ACTIVE) {
+                    history.setStatus(History.Status.INACTIVE);
+                }
             }
-
-            history.setStatus(History.Status.INACTIVE);
         }
 
         // ensure all history objects for this protection are saved
         checkAndSaveHistory();
+        lwc.getPhysicalDatabase().deactivateHistory(id, History.Type.TRANSACTION);
 
         // make the protection immutable
         removed = true;
+        revision ++;
 
         // and now finally remove it from the database
         lwc.getDatabaseThread().removeProtection(this);
         lwc.getPhysicalDatabase().removeProtection(id);
+        lwc.getProtectionCountCache().decrement(owner, blockId);
         removeCache();
     }
 
+    /**
+     * Mark the protection as pending removal while it is removed from the database in the background, so that
+     * queued saves cannot write it back
+     *
+     * @param removing
+     */
+    public void setRemoving(boolean removing) {
+        this.removing = removing;
+    }
+
     /**
      * Remove the protection from cache
      */
@@ -835,14 +1166,12 @@ public class Protection {
         for (int x = -3; x <= 3; x++) {
             for (int y = -3; y <= 3; y++) {
                 for (int z = -3; z <= 3; z++) {
-                    String cacheKey = world + ":" + (this.x + x) + ":" + (this.y + y) + ":" + (this.z + z);
-
                     // get the protection for that entry
-                    Protection protection = cache.getProtection(cacheKey);
+                    Protection protection = cache.getProtection(world, this.x + x, this.y + y, this.z + z);
 
                     // the ifnull compensates for the block being in the null cache. It will remove it from that.
                     if ((protection != null && id == protection.getId()) || protection == null) {
-                        cache.remove(cacheKey);
+                        cache.remove(world, this.x + x, this.y + y, this.z + z);
                     }
                 }
             }
@@ -868,12 +1197,8 @@ public class Protection {
             return;
         }
 
-        // encode JSON objects
-        encodeRights();
-        encodeFlags();
-
         // only save the protection if it was modified
-        if (modified && !removing) {
+        if (prepareSave()) {
             LWC.getInstance().getPhysicalDatabase().saveProtection(this);
         }
 
@@ -881,6 +1206,19 @@ public class Protection {
         checkAndSaveHistory();
     }
 
+    /**
+     * Check if the protection should be written to the database
+     *
+     * @return true if the protection was modified and should be written to the database
+     */
+    public boolean prepareSave() {
+        if (removed) {
+            return false;
+        }
+
+        return modified && !removing;
+    }
+
     /**
      * Saves any of the history items for the Protection that have been modified
      */
@@ -889,17 +1227,30 @@ public class Protection {
             return;
         }
 
-        for (History history : getRelatedHistory()) {
+        List<History> history;
+
+        synchronized (modifiedHistory) {
+            if (modifiedHistory.isEmpty()) {
+                return;
+            }
+
+            history = new ArrayList<History>(modifiedHistory);
+            modifiedHistory.clear();
+        }
+
+        for (History item : history) {
             // if the history object was modified we need to save it
-            if (history.wasModified()) {
-                history.saveNow();
+            if (item.wasModified()) {
+                item.saveNow();
             }
         }
     }
 
     /**
      * @return the key used for the protection cache
+     * @deprecated the cache is indexed by world and packed block coordinates; use the world and coordinates
      */
+    @Deprecated
     public String getCacheKey() {
         return world + ":" + x + ":" + y + ":" + z;
     }
@@ -945,6 +1296,8 @@ public class Protection {
      */
     @Override
     public String toString() {
+        decodeData();
+
         // format the flags prettily
         String flagStr = "";
 
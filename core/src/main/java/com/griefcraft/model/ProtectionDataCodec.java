@@ -0,0 +1,381 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.model;
+
+import com.griefcraft.lwc.LWC;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Encodes and decodes the rights and flags stored in a protection's data column.
+ * <p/>
+ * If core.compactProtectionData is enabled, protections are written in a compact text format:
+ * <code>#1;flags;rights</code> where flags is a comma separated list of flag ordinals and each right is the
+ * permission type ordinal, the access ordinal and then the name. Older versions of LWC cannot read it, so it is off
+ * by default. Protections with data that cannot be represented that way (e.g. extra keys added by other plugins) are
+ * always written as JSON, and JSON is always read.
+ */
+public final class ProtectionDataCodec {
+
+    /**
+     * The header every compactly encoded value starts with. The number is the format version
+     */
+    public static final String HEADER = "#1;";
+
+    /**
+     * Separates the sections of the encoded value
+     */
+    private static final char SECTION_SEPARATOR = ';';
+
+    /**
+     * Separates the entries in a section
+     */
+    private static final char ENTRY_SEPARATOR = ',';
+
+    /**
+     * Starts an escaped character in a permission name
+     */
+    private static final char ESCAPE = '%';
+
+    /**
+     * The JSON parsers used for legacy data. Parsers cannot be shared between threads
+     */
+    private static final ThreadLocal<JSONParser> jsonParser = new ThreadLocal<JSONParser>() {
+        @Override
+        protected JSONParser initialValue() {
+            return new JSONParser();
+        }
+    };
+
+    private ProtectionDataCodec() {
+    }
+
+    /**
+     * Encode a protection's rights and flags
+     *
+     * @param protection
+     * @param permissions
+     * @param flags
+     * @param data the protection's JSON data
+     * @return
+     */
+    static String encode(Protection protection, Collection<Permission> permissions, Collection<Flag> flags, JSONObject data) {
+        if (!LWC.getInstance().getConfiguration().getBoolean("core.compactProtectionData", false) || !isCompactable(permissions, flags, data)) {
+            protection.encodeRights();
+            protection.encodeFlags();
+            return data.toJSONString();
+        }
+
+        StringBuilder builder = new StringBuilder(HEADER.length() + 2 + permissions.size() * 40);
+        builder.append(HEADER);
+
+        boolean first = true;
+        for (Flag flag : flags) {
+            if (flag == null) {
+                continue;
+            }
+
+            if (!first) {
+                builder.append(ENTRY_SEPARATOR);
+            }
+
+            builder.append(flag.getType().ordinal());
+            first = false;
+        }
+
+        builder.append(SECTION_SEPARATOR);
+
+        first = true;
+        for (Permission permission : permissions) {
+            if (permission == null) {
+                continue;
+            }
+
+            if (!first) {
+                builder.append(ENTRY_SEPARATOR);
+            }
+
+            builder.append(permission.getType().ordinal());
+            builder.append(permission.getAccess().ordinal());
+            escape(builder, permission.getName());
+            first = false;
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Decode a value from the data column
+     *
+     * @param encoded
+     * @param permissions the decoded rights are added to this
+     * @param flags the decoded flags are added to this
+     * @param data the decoded JSON data is added to this
+     */
+    static void decode(String encoded, Collection<Permission> permissions, Map<Flag.Type, Flag> flags, JSONObject data) {
+        if (encoded == null) {
+            return;
+        }
+
+        if (encoded.startsWith(HEADER)) {
+            decodeCompact(encoded, permissions, flags);
+        } else {
+            decodeJSON(encoded, permissions, flags, data);
+        }
+    }
+
+    /**
+     * Check if the rights and flags can be written in the compact format
+     *
+     * @param permissions
+     * @param flags
+     * @param data
+     * @return
+     */
+    private static boolean isCompactable(Collection<Permission> permissions, Collection<Flag> flags, JSONObject data) {
+        for (Object key : data.keySet()) {
+            if (!"rights".equals(key) && !"flags".equals(key)) {
+                return false;
+            }
+        }
+
+        for (Flag flag : flags) {
+            // anything besides the id is extra data only JSON can hold
+            if (flag != null && flag.getData().size() > 1) {
+                return false;
+            }
+        }
+
+        for (Permission permission : permissions) {
+            if (permission != null && (permission.getName() == null || permission.getType() == null)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Decode the compact format
+     *
+     * @param encoded
+     * @param permissions
+     * @param flags
+     */
+    private static void decodeCompact(String encoded, Collection<Permission> permissions, Map<Flag.Type, Flag> flags) {
+        int flagsStart = HEADER.length();
+        int rightsStart = encoded.indexOf(SECTION_SEPARATOR, flagsStart) + 1;
+
+        if (rightsStart == 0) {
+            return;
+        }
+
+        Flag.Type[] flagTypes = Flag.Type.values();
+        int start = flagsStart;
+
+        while (start < rightsStart - 1) {
+            int end = encoded.indexOf(ENTRY_SEPARATOR, start);
+
+            if (end == -1 || end > rightsStart - 1) {
+                end = rightsStart - 1;
+            }
+
+            try {
+                int ordinal = Integer.parseInt(encoded.substring(start, end));
+
+                if (ordinal >= 0 && ordinal < flagTypes.length) {
+                    flags.put(flagTypes[ordinal], new Flag(flagTypes[ordinal]));
+                }
+            } catch (NumberFormatException e) {
+            }
+
+            start = end + 1;
+        }
+
+        Permission.Type[] types = Permission.Type.values();
+        Permission.Access[] accesses = Permission.Access.values();
+        int length = encoded.length();
+        start = rightsStart;
+
+        while (start < length) {
+            int end = encoded.indexOf(ENTRY_SEPARATOR, start);
+
+            if (end == -1) {
+                end = length;
+            }
+
+            if (end - start >= 2) {
+                int type = encoded.charAt(start) - '0';
+                int access = encoded.charAt(start + 1) - '0';
+
+                if (type >= 0 && type < types.length && access >= 0 && access < accesses.length) {
+                    Permission.Access decodedAccess = accesses[access];
+
+                    if (decodedAccess == Permission.Access.NONE) {
+                        decodedAccess = Permission.Access.PLAYER;
+                    }
+
+                    permissions.add(new Permission(unescape(encoded, start + 2, end), types[type], decodedAccess));
+                }
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decode data written as JSON
+     *
+     * @param encoded
+     * @param permissions
+     * @param flags
+     * @param data
+     */
+    private static void decodeJSON(String encoded, Collection<Permission> permissions, Map<Flag.Type, Flag> flags, JSONObject data) {
+        if (encoded.trim().isEmpty()) {
+            return;
+        }
+
+        // rev up them JSON parsers!
+        Object object;
+
+        try {
+            object = jsonParser.get().parse(encoded);
+        } catch (Exception e) {
+            return;
+        } catch (Error e) {
+            return;
+        }
+
+        if (!(object instanceof JSONObject)) {
+            return;
+        }
+
+        // obtain the root
+        JSONObject root = (JSONObject) object;
+        data.putAll(root);
+
+        // Attempt to parse rights
+        Object rights = root.get("rights");
+
+        if (rights instanceof JSONArray) {
+            for (Object node : (JSONArray) rights) {
+                // we only want to use the maps
+                if (!(node instanceof JSONObject)) {
+                    continue;
+                }
+
+                Permission permission = Permission.decodeJSON((JSONObject) node);
+
+                if (permission != null) {
+                    permissions.add(permission);
+                }
+            }
+        }
+
+        // Attempt to parse flags
+        Object flagNodes = root.get("flags");
+
+        if (flagNodes instanceof JSONArray) {
+            for (Object node : (JSONArray) flagNodes) {
+                if (!(node instanceof JSONObject)) {
+                    continue;
+                }
+
+                Flag flag = Flag.decodeJSON((JSONObject) node);
+
+                if (flag != null) {
+                    flags.put(flag.getType(), flag);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a permission name, escaping the characters used as separators
+     *
+     * @param builder
+     * @param name
+     */
+    private static void escape(StringBuilder builder, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == ESCAPE || c == ENTRY_SEPARATOR || c == SECTION_SEPARATOR) {
+                builder.append(ESCAPE);
+                builder.append(Character.forDigit((c >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(c & 0xF, 16));
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    /**
+     * Read an escaped permission name
+     *
+     * @param encoded
+     * @param start
+     * @param end
+     * @return
+     */
+    private static String unescape(String encoded, int start, int end) {
+        int escape = encoded.indexOf(ESCAPE, start);
+
+        if (escape == -1 || escape >= end) {
+            return encoded.substring(start, end);
+        }
+
+        StringBuilder builder = new StringBuilder(end - start);
+
+        for (int i = start; i < end; i++) {
+            char c = encoded.charAt(i);
+
+            if (c == ESCAPE && i + 2 < end) {
+                int high = Character.digit(encoded.charAt(i + 1), 16);
+                int low = Character.digit(encoded.charAt(i + 2), 16);
+
+                if (high != -1 && low != -1) {
+                    builder.append((char) ((high << 4) | low));
+                    i += 2;
+                    continue;
+                }
+            }
+
+            builder.append(c);
+        }
+
+        return builder.toString();
+    }
+
+}
@@ -28,7 +28,6 @@
 
 package com.griefcraft.modules.admin;
 
-import com.griefcraft.io.Backup;
 import com.griefcraft.io.BackupManager;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
@@ -68,25 +67,85 @@ public class AdminBackup extends JavaModule {
         String action = args[1].toLowerCase();
 
         if (action.equals("create")) {
-            // Dumb code for now
-            Backup created = lwc.getBackupManager().createBackup();
+            lwc.getBackupManager().createBackup();
             sender.sendMessage("Backup is being created now.");
         } else if (action.equals("restore")) {
             if (args.length < 3) {
-                lwc.sendSimpleUsage(sender, "/lwc admin backup restore <BackupName>");
+                lwc.sendSimpleUsage(sender, "/lwc admin backup restore <BackupName> [World] [RegionX RegionZ]");
                 return;
             }
 
-            final String backupName = StringUtil.join(args, 2);
-            sender.sendMessage("Restoring backup " + backupName);
+            // backup names can have spaces, so the world and region are only split off if they name a world
+            int nameEnd = args.length;
+            String worldName = null;
+            int parsedX = 0;
+            int parsedZ = 0;
+            boolean region = false;
+
+            if (args.length > 5 && isWorld(lwc, args[args.length - 3]) && isInteger(args[args.length - 2]) && isInteger(args[args.length - 1])) {
+                nameEnd = args.length - 3;
+                worldName = args[nameEnd];
+                parsedX = Integer.parseInt(args[args.length - 2]);
+                parsedZ = Integer.parseInt(args[args.length - 1]);
+                region = true;
+            } else if (args.length > 3 && isWorld(lwc, args[args.length - 1])) {
+                nameEnd = args.length - 1;
+                worldName = args[nameEnd];
+            }
+
+            String[] nameArgs = new String[nameEnd];
+            System.arraycopy(args, 0, nameArgs, 0, nameEnd);
+
+            final String backupName = StringUtil.join(nameArgs, 2);
+            final String world = worldName;
+            final int regionX = parsedX;
+            final int regionZ = parsedZ;
+            final boolean restoreRegion = region;
+            sender.sendMessage("Restoring backup " + backupName + (world != null ? " (" + world + (restoreRegion ? " region " + regionX + ", " + regionZ : "") + ")" : ""));
 
             lwc.getPlugin().getServer().getScheduler().scheduleAsyncDelayedTask(lwc.getPlugin(), new Runnable() {
                 public void run() {
-                    BackupManager.Result result = lwc.getBackupManager().restoreBackup(backupName);
+                    BackupManager backupManager = lwc.getBackupManager();
+                    BackupManager.Result result;
+
+                    if (restoreRegion) {
+                        result = backupManager.restoreBackup(backupName, world, regionX, regionZ);
+                    } else if (world != null) {
+                        result = backupManager.restoreBackup(backupName, world);
+                    } else {
+                        result = backupManager.restoreBackup(backupName);
+                    }
+
                     sender.sendMessage("Result: " + result);
                 }
             });
         }
     }
 
+    /**
+     * Check if a world with the given name is loaded
+     *
+     * @param lwc
+     * @param name
+     * @return
+     */
+    private boolean isWorld(LWC lwc, String name) {
+        return lwc.getPlugin().getServer().getWorld(name) != null;
+    }
+
+    /**
+     * Check if a string is an integer
+     *
+     * @param text
+     * @return
+     */
+    private boolean isInteger(String text) {
+        try {
+            Integer.parseInt(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
 }
\ No newline at end of file
@@ -147,6 +147,10 @@ public class AdminCleanup extends JavaModule {
             }
 
             statement.close();
+
+            if (total > 0) {
+                lwc.getProtectionCountCache().load();
+            }
         }
 
         public void run() {
@@ -168,10 +172,8 @@ public class AdminCleanup extends JavaModule {
                 int totalProtections = lwc.getPhysicalDatabase().getProtectionCount();
 
                 // TODO separate stream logic to somewhere else :)
-                // Create a new database connection, we are just reading
-                PhysDB database = new PhysDB();
-                database.connect();
-                database.load();
+                // This thread is given its own connection from the pool, we are just reading
+                PhysDB database = lwc.getPhysicalDatabase();
 
                 Statement resultStatement = database.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 
@@ -245,8 +247,10 @@ public class AdminCleanup extends JavaModule {
                 push(toRemove);
 
                 sender.sendMessage("Cleanup completed. Removed " + removed + " protections out of " + checked + " checked protections.");
-            } catch (Exception e) { // database.connect() throws Exception
+            } catch (Exception e) {
                 System.out.println("Exception caught during cleanup: " + e.getMessage());
+            } finally {
+                lwc.getPhysicalDatabase().releaseConnection();
             }
         }
 
@@ -31,6 +31,9 @@ package com.griefcraft.modules.admin;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.sql.ProtectionFilter;
+import com.griefcraft.util.Colors;
+import com.griefcraft.util.ProtectionRemover;
 import com.griefcraft.util.StringUtil;
 import com.griefcraft.util.TimeUtil;
 import org.bukkit.command.CommandSender;
@@ -47,8 +50,8 @@ public class AdminExpire extends JavaModule {
             return;
         }
 
-        LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final LWC lwc = event.getLWC();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
 
         if (!args[0].equals("expire")) {
@@ -59,7 +62,25 @@ public class AdminExpire extends JavaModule {
         event.setCancelled(true);
 
         if (args.length < 2) {
-            lwc.sendSimpleUsage(sender, "/lwc admin expire <time>");
+            lwc.sendSimpleUsage(sender, "/lwc admin expire <time|status|stop>");
+            return;
+        }
+
+        ProtectionRemover remover = lwc.getProtectionRemover();
+
+        if (args[1].equalsIgnoreCase("status")) {
+            sender.sendMessage("Protection removal is " + (remover.isRunning() ? Colors.Green + "running" : "not running") + Colors.White + ".");
+
+            if (remover.getScanned() > 0) {
+                sender.sendMessage("Scanned: " + Colors.Green + remover.getScanned() + Colors.White + " Removed: " + Colors.Green + remover.getRemoved()
+                        + Colors.White + " (" + remover.getRate() + " protections/s)");
+            }
+            return;
+        }
+
+        if (args[1].equalsIgnoreCase("stop")) {
+            remover.stop();
+            sender.sendMessage(Colors.Green + "Protection removal will stop after the current batch.");
             return;
         }
 
@@ -72,18 +93,20 @@ public class AdminExpire extends JavaModule {
             return;
         }
 
-        int threshold = (int) ((System.currentTimeMillis() / 1000L) - time);
+        ProtectionFilter filter = new ProtectionFilter().setLastAccessedBefore((System.currentTimeMillis() / 1000L) - time);
 
-        // remove the protections
-        int completed = lwc.fastRemoveProtections(sender, "last_accessed <= " + threshold + " AND last_accessed >= 0", shouldRemoveBlocks);
+        // the protections are removed in the background; the sender is told when it is done
+        boolean started = remover.start(sender, filter, shouldRemoveBlocks, new ProtectionRemover.Listener() {
+            public void onComplete(ProtectionFilter filter, int removed) {
+                lwc.sendLocale(sender, "protection.admin.expire.removed", "count", removed);
+            }
+        });
 
-        // reset the cache
-        if (completed > 0) {
-            LWC.getInstance().getPhysicalDatabase().precache();
+        if (started) {
+            sender.sendMessage(Colors.Green + "Expiring protections in the background. Use /lwc admin expire status to check on it.");
+        } else {
+            sender.sendMessage(Colors.Red + "Protections are already being removed.");
         }
-
-        lwc.sendLocale(sender, "protection.admin.expire.removed", "count", completed);
-
     }
 
 }
\ No newline at end of file
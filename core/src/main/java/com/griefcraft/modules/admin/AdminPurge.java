@@ -31,9 +31,15 @@ package com.griefcraft.modules.admin;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.sql.ProtectionFilter;
+import com.griefcraft.util.Colors;
+import com.griefcraft.util.ProtectionRemover;
 import com.griefcraft.util.StringUtil;
 import org.bukkit.command.CommandSender;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AdminPurge extends JavaModule {
 
     @Override
@@ -46,8 +52,8 @@ public class AdminPurge extends JavaModule {
             return;
         }
 
-        LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final LWC lwc = event.getLWC();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
 
         if (!args[0].equals("purge")) {
@@ -65,16 +71,24 @@ public class AdminPurge extends JavaModule {
         boolean shouldRemoveBlocks = args[1].endsWith("remove");
         String players = StringUtil.join(args, shouldRemoveBlocks ? 2 : 1);
 
-        for (String toRemove : players.split(" ")) {
-            if (toRemove.contains("'")) continue; // bad me
+        List<ProtectionFilter> filters = new ArrayList<ProtectionFilter>();
 
-            // Remove all of them
-            lwc.fastRemoveProtectionsByPlayer(sender, toRemove, shouldRemoveBlocks);
-            lwc.sendLocale(sender, "protection.admin.purge.finalize", "player", toRemove);
+        for (String toRemove : players.split(" ")) {
+            if (toRemove.length() > 0) {
+                filters.add(new ProtectionFilter().addPlayer(toRemove));
+            }
         }
 
-        // reload the cache!
-        LWC.getInstance().getPhysicalDatabase().precache();
+        // the protections are removed in the background; the sender is told as each player is finished
+        boolean started = lwc.getProtectionRemover().start(sender, filters, shouldRemoveBlocks, new ProtectionRemover.Listener() {
+            public void onComplete(ProtectionFilter filter, int removed) {
+                lwc.sendLocale(sender, "protection.admin.purge.finalize", "player", filter.getPlayers().get(0));
+            }
+        });
+
+        if (!started) {
+            sender.sendMessage(Colors.Red + "Protections are already being removed.");
+        }
     }
 
 }
\ No newline at end of file
@@ -31,6 +31,9 @@ package com.griefcraft.modules.admin;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.sql.ProtectionFilter;
+import com.griefcraft.util.Colors;
+import com.griefcraft.util.ProtectionRemover;
 import org.bukkit.command.CommandSender;
 
 import java.io.BufferedReader;
@@ -54,8 +57,8 @@ public class AdminPurgeBanned extends JavaModule {
             return;
         }
 
-        LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final LWC lwc = event.getLWC();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
 
         if (!args[0].equals("purgebanned")) {
@@ -66,11 +69,21 @@ public class AdminPurgeBanned extends JavaModule {
         event.setCancelled(true);
 
         boolean shouldRemoveBlocks = args.length > 1 && args[1].endsWith("remove");
-        List<String> players = loadBannedPlayers();
+        List<ProtectionFilter> filters = new ArrayList<ProtectionFilter>();
 
-        for (String toRemove : players) {
-            lwc.fastRemoveProtectionsByPlayer(sender, toRemove, shouldRemoveBlocks);
-            lwc.sendLocale(sender, "protection.admin.purge.finalize", "player", toRemove);
+        for (String toRemove : loadBannedPlayers()) {
+            filters.add(new ProtectionFilter().addPlayer(toRemove));
+        }
+
+        // the protections are removed in the background; the sender is told as each player is finished
+        boolean started = lwc.getProtectionRemover().start(sender, filters, shouldRemoveBlocks, new ProtectionRemover.Listener() {
+            public void onComplete(ProtectionFilter filter, int removed) {
+                lwc.sendLocale(sender, "protection.admin.purge.finalize", "player", filter.getPlayers().get(0));
+            }
+        });
+
+        if (!started) {
+            sender.sendMessage(Colors.Red + "Protections are already being removed.");
         }
     }
 
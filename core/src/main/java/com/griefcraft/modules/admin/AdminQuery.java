@@ -98,10 +98,12 @@ public class AdminQuery extends JavaModule {
                 if (args[0].startsWith("update")) {
                     int affected = statement.executeUpdate("UPDATE " + database.getPrefix() + "protections " + where);
                     sender.sendMessage(Colors.Green + "Affected rows: " + affected);
+                    lwc.getProtectionCountCache().load();
                 } else if (args[0].startsWith("delete")) {
                     int affected = statement.executeUpdate("DELETE FROM " + database.getPrefix() + "protections WHERE " + where);
                     sender.sendMessage(Colors.Green + "Affected rows: " + affected);
                     database.precache();
+                    lwc.getProtectionCountCache().load();
                 } else if (args[0].startsWith("select")) {
                     ResultSet set = statement.executeQuery("SELECT * FROM " + database.getPrefix() + "protections WHERE " + where);
 
@@ -30,9 +30,14 @@ package com.griefcraft.modules.admin;
 
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.util.Colors;
+import com.griefcraft.util.Latency;
 import com.griefcraft.util.Statistics;
 import org.bukkit.command.CommandSender;
 
+import java.io.File;
+import java.io.IOException;
+
 public class AdminReport extends JavaModule {
 
     @Override
@@ -54,6 +59,25 @@ public class AdminReport extends JavaModule {
 
         // we have the right command
         event.setCancelled(true);
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("dump")) {
+            File file = new File(Latency.DUMP_FILE);
+
+            try {
+                Latency.dump(file);
+                sender.sendMessage(Colors.Green + "Wrote the latency histograms to " + file.getPath());
+            } catch (IOException e) {
+                sender.sendMessage(Colors.Red + "Failed to write " + file.getPath() + ": " + e.getMessage());
+            }
+            return;
+        }
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            Latency.reset();
+            sender.sendMessage(Colors.Green + "Reset the latency histograms.");
+            return;
+        }
+
         Statistics.sendReport(sender);
     }
 
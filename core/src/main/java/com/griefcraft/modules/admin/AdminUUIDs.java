@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.modules.admin;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.migration.UUIDConverter;
+import com.griefcraft.scripting.JavaModule;
+import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.util.Colors;
+import org.bukkit.command.CommandSender;
+
+public class AdminUUIDs extends JavaModule {
+
+    @Override
+    public void onCommand(LWCCommandEvent event) {
+        if (event.isCancelled()) {
+            return;
+        }
+
+        if (!event.hasFlag("a", "admin")) {
+            return;
+        }
+
+        LWC lwc = event.getLWC();
+        CommandSender sender = event.getSender();
+        String[] args = event.getArgs();
+
+        if (!args[0].equals("uuids")) {
+            return;
+        }
+
+        // we have the right command
+        event.setCancelled(true);
+
+        if (args.length == 1) {
+            lwc.sendSimpleUsage(sender, "/lwc admin uuids <convert|status|stop|restart>");
+            return;
+        }
+
+        UUIDConverter converter = lwc.getUUIDConverter();
+        String action = args[1].toLowerCase();
+
+        if (action.equals("convert")) {
+            if (converter.start()) {
+                sender.sendMessage(Colors.Green + "Converting player names to UUIDs in the background.");
+            } else {
+                sender.sendMessage(Colors.Red + "The UUID conversion is already running.");
+            }
+        } else if (action.equals("restart")) {
+            if (converter.isRunning()) {
+                sender.sendMessage(Colors.Red + "The UUID conversion is already running.");
+                return;
+            }
+
+            converter.reset();
+            converter.start();
+            sender.sendMessage(Colors.Green + "Converting player names to UUIDs from the first protection.");
+        } else if (action.equals("stop")) {
+            converter.stop();
+            sender.sendMessage(Colors.Green + "The UUID conversion will stop after the current page. Use /lwc admin uuids convert to resume it.");
+        } else if (action.equals("status")) {
+            if (!converter.isRunning()) {
+                sender.sendMessage("The UUID conversion is " + (converter.isIncomplete() ? Colors.Red + "paused" : "not running") + Colors.White + ".");
+            }
+
+            if (converter.getScanned() > 0) {
+                sender.sendMessage("Scanned: " + Colors.Green + converter.getScanned() + Colors.White + "/" + converter.getTotal()
+                        + " Converted: " + Colors.Green + converter.getConverted()
+                        + Colors.White + " Unresolved names: " + Colors.Red + converter.getUnresolved()
+                        + Colors.White + " (" + converter.getRate() + " protections/s)");
+            }
+        } else {
+            lwc.sendSimpleUsage(sender, "/lwc admin uuids <convert|status|stop|restart>");
+        }
+    }
+
+}
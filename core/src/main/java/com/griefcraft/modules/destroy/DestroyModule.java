@@ -62,11 +62,7 @@ public class DestroyModule extends JavaModule {
 
             // bind the player of destroyed the protection
             // We don't need to save the history we modify because it will be saved anyway immediately after this
-            for (History history : protection.getRelatedHistory(History.Type.TRANSACTION)) {
-                if (history.getStatus() != History.Status.ACTIVE) {
-                    continue;
-                }
-
+            for (History history : protection.getRelatedHistory(History.Type.TRANSACTION, History.Status.ACTIVE)) {
                 history.addMetaData("destroyer=" + player.getName());
                 history.addMetaData("destroyerTime=" + System.currentTimeMillis() / 1000L);
             }
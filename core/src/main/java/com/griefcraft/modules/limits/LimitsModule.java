@@ -139,11 +139,11 @@ public class LimitsModule extends JavaModule {
 
         switch (type) {
             case CUSTOM:
-                protections = lwc.getPhysicalDatabase().getProtectionCount(player.getName(), block.getTypeId());
+                protections = lwc.getProtectionCountCache().getProtectionCount(player, block.getTypeId());
                 break;
 
             case DEFAULT:
-                protections = lwc.getPhysicalDatabase().getProtectionCount(player.getName());
+                protections = lwc.getProtectionCountCache().getProtectionCount(player);
                 break;
 
             default:
@@ -279,7 +279,7 @@ public class LimitsModule extends JavaModule {
 
         // try the player's groups
         if (value == null) {
-            for (String groupName : lwc.getPermissions().getGroups(player)) {
+            for (String groupName : lwc.getGroups(player)) {
                 if (groupName != null && !groupName.isEmpty() && value == null) {
                     value = map("groups." + groupName + "." + node);
                 }
@@ -316,7 +316,7 @@ public class LimitsModule extends JavaModule {
 
         // try the player's groups
         if (value == -1) {
-            for (String groupName : lwc.getPermissions().getGroups(player)) {
+            for (String groupName : lwc.getGroups(player)) {
                 if (groupName != null && !groupName.isEmpty()) {
                     temp = map("groups." + groupName + "." + node);
 
@@ -28,7 +28,9 @@
 
 package com.griefcraft.modules.limits;
 
+import com.griefcraft.cache.ProtectionCountCache;
 import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.PermissionSnapshot;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.scripting.event.LWCProtectionRegisterEvent;
@@ -54,6 +56,11 @@ public class LimitsV2 extends JavaModule {
      */
     public final static int UNLIMITED = Integer.MAX_VALUE;
 
+    /**
+     * The key the limits given by permission nodes are kept under in a player's permission snapshot
+     */
+    private final static String RESOLVED_LIMITS_KEY = "limitsv2.permissions";
+
     /**
      * If the limits module is enabled
      */
@@ -135,7 +142,7 @@ public class LimitsV2 extends JavaModule {
 
         @Override
         public int getProtectionCount(Player player, Material material) {
-            return LWC.getInstance().getPhysicalDatabase().getProtectionCount(player.getName());
+            return LWC.getInstance().getProtectionCountCache().getProtectionCount(player);
         }
 
     }
@@ -154,7 +161,7 @@ public class LimitsV2 extends JavaModule {
 
         @Override
         public int getProtectionCount(Player player, Material material) {
-            return LWC.getInstance().getPhysicalDatabase().getProtectionCount(player.getName(), material.getId());
+            return LWC.getInstance().getProtectionCountCache().getProtectionCount(player, material.getId());
         }
 
         /**
@@ -174,9 +181,9 @@ public class LimitsV2 extends JavaModule {
 
         @Override
         public int getProtectionCount(Player player, Material material) {
-            LWC lwc = LWC.getInstance();
-            return lwc.getPhysicalDatabase().getProtectionCount(player.getName(), Material.SIGN_POST.getId())
-                    + lwc.getPhysicalDatabase().getProtectionCount(player.getName(), Material.WALL_SIGN.getId());
+            ProtectionCountCache counts = LWC.getInstance().getProtectionCountCache();
+            return counts.getProtectionCount(player, Material.SIGN_POST.getId())
+                    + counts.getProtectionCount(player, Material.WALL_SIGN.getId());
         }
 
     }
@@ -396,6 +403,30 @@ public class LimitsV2 extends JavaModule {
         return limits;
     }
 
+    /**
+     * Get the limits given by permission nodes. For online players they are only resolved once per permission
+     * snapshot instead of scanning the player's effective permissions every time.
+     *
+     * @param player
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private List<Limit> getLimitsViaPermissions(Player player) {
+        if (!player.isOnline()) {
+            return findLimitsViaPermissions(player);
+        }
+
+        PermissionSnapshot snapshot = LWC.getInstance().wrapPlayer(player).getPermissionSnapshot();
+        List<Limit> limits = (List<Limit>) snapshot.getResolved(RESOLVED_LIMITS_KEY);
+
+        if (limits == null) {
+            limits = Collections.unmodifiableList(findLimitsViaPermissions(player));
+            snapshot.setResolved(RESOLVED_LIMITS_KEY, limits);
+        }
+
+        return limits;
+    }
+
     /**
      * Gets the list of limits that may apply to the player.
      * For group limits, it uses the highest one found.
@@ -413,7 +444,7 @@ public class LimitsV2 extends JavaModule {
             limits.addAll(playerLimits.get(playerName));
         }
 
-        for (Limit limit : findLimitsViaPermissions(player)) {
+        for (Limit limit : getLimitsViaPermissions(player)) {
             Limit matched = findLimit(limits, limit);
 
             if (matched != null) {
@@ -428,7 +459,7 @@ public class LimitsV2 extends JavaModule {
         }
 
         // Look over the group limits
-        for (String group : lwc.getPermissions().getGroups(player)) {
+        for (String group : lwc.getGroups(player)) {
             if (groupLimits.containsKey(group.toLowerCase())) {
                 for (Limit limit : groupLimits.get(group.toLowerCase())) {
                     // try to match one already inside what we found
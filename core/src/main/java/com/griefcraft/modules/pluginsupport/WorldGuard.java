@@ -35,7 +35,10 @@ import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCAccessEvent;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.scripting.event.LWCProtectionRegisterEvent;
+import com.griefcraft.sql.ProtectionFilter;
 import com.griefcraft.util.Colors;
+import com.griefcraft.util.ProtectionRemover;
+import com.griefcraft.util.RegionProtector;
 import com.griefcraft.util.config.Configuration;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.Vector;
@@ -86,7 +89,7 @@ public class WorldGuard extends JavaModule {
         }
 
         LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
 
         if (!args[0].equals("purgeregion") && !args[0].equals("protectregion")) {
@@ -161,53 +164,42 @@ public class WorldGuard extends JavaModule {
         int maxBlockY = maximum.getBlockY();
         int maxBlockZ = maximum.getBlockZ();
 
-        // Calculate the amount of the blocks in the region
-        int numBlocks = (maxBlockX - minBlockX + 1) * (maxBlockY - minBlockY + 1) * (maxBlockZ - minBlockZ + 1);
-
         if (args[0].equals("purgeregion")) {
-            // get all of the protections inside of the region
-            List<Protection> protections = lwc.getPhysicalDatabase().loadProtections(world.getName(), minBlockX, maxBlockX, minBlockY, maxBlockY, minBlockZ, maxBlockZ);
+            final String purgedRegion = regionName;
+            ProtectionFilter filter = new ProtectionFilter().setRegion(world.getName(), minBlockX, minBlockY, minBlockZ, maxBlockX, maxBlockY, maxBlockZ);
+
+            boolean started = lwc.getProtectionRemover().start(sender, filter, false, new ProtectionRemover.Listener() {
+                public void onComplete(ProtectionFilter filter, int removed) {
+                    sender.sendMessage(Colors.Green + "Removed " + removed + " protections from the region " + purgedRegion);
+                }
+            });
 
-            // remove all of them
-            for (Protection protection : protections) {
-                protection.remove();
+            if (!started) {
+                sender.sendMessage(Colors.Red + "Protections are already being removed.");
+                return;
             }
 
-            sender.sendMessage(Colors.Green + "Removed " + protections.size() + " protections from the region " + regionName);
+            sender.sendMessage(Colors.Green + "Removing the protections in the region " + regionName + " in the background.");
         } else if (args[0].equals("protectregion")) {
+            final String protectedRegion = regionName;
+
             // The owner to assign to the protections
-            String ownerName = "LWCWorldGuard";
-
-            // the number of blocks that were registered
-            int registered = 0;
-
-            for (int x = minBlockX; x <= maxBlockX; x++) {
-                for (int y = minBlockY; y <= maxBlockY; y++) {
-                    for (int z = minBlockZ; z <= maxBlockZ; z++) {
-                        // Get the block at that location
-                        Block block = world.getBlockAt(x, y, z);
-
-                        // Ensure it's protectable
-                        if (!lwc.isProtectable(block)) {
-                            continue;
-                        }
-
-                        // Check if it's already protected
-                        if (lwc.findProtection(block.getLocation()) != null) {
-                            continue;
-                        }
-
-                        // Protect it!
-                        lwc.getPhysicalDatabase().registerProtection(block.getTypeId(), Protection.Type.PRIVATE, world.getName(),
-                                ownerName, "", x, y, z);
-                        registered ++;
-                    }
+            final String ownerName = "LWCWorldGuard";
+
+            boolean started = lwc.getRegionProtector().start(sender, world, minBlockX, minBlockY, minBlockZ, maxBlockX, maxBlockY, maxBlockZ, ownerName, new RegionProtector.Listener() {
+                public void onComplete(int registered) {
+                    sender.sendMessage("Registered " + registered + " blocks in the region " + protectedRegion);
+                    sender.sendMessage("Currently, the owner of these protections is \"" + ownerName + "\". To change this to someone else, run:");
+                    sender.sendMessage("/lwc admin updateprotections set owner = 'NewOwner' where owner = '" + ownerName + "'");
                 }
+            });
+
+            if (!started) {
+                sender.sendMessage(Colors.Red + "A region is already being protected.");
+                return;
             }
 
-            sender.sendMessage("Registered " + registered + " blocks in the region " + regionName);
-            sender.sendMessage("Currently, the owner of these protections is \"" + ownerName + "\". To change this to someone else, run:");
-            sender.sendMessage("/lwc admin updateprotections set owner = 'NewOwner' where owner = '" + ownerName + "'");
+            sender.sendMessage(Colors.Green + "Protecting the region " + regionName + " in the background.");
         }
     }
 
@@ -44,15 +44,19 @@ import com.griefcraft.scripting.event.LWCProtectionRemovePostEvent;
 import com.griefcraft.scripting.event.LWCRedstoneEvent;
 import com.griefcraft.scripting.event.LWCReloadEvent;
 import com.griefcraft.scripting.event.LWCSendLocaleEvent;
+import com.griefcraft.util.Latency;
+import com.griefcraft.util.LatencyHistogram;
 import org.bukkit.plugin.Plugin;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ModuleLoader {
@@ -153,8 +157,174 @@ public class ModuleLoader {
         int arguments;
     }
 
+    /**
+     * Calls the handler method for one event type on a module. One invoker exists per event type, so dispatching
+     * does not need to look at the event type again for every module.
+     */
+    private static abstract class EventInvoker {
+
+        /**
+         * The name of the handler method in {@link Module}
+         */
+        private final String methodName;
+
+        /**
+         * The event class the handler method accepts
+         */
+        private final Class<? extends LWCEvent> eventClass;
+
+        EventInvoker(String methodName, Class<? extends LWCEvent> eventClass) {
+            this.methodName = methodName;
+            this.eventClass = eventClass;
+        }
+
+        /**
+         * Call the handler method
+         *
+         * @param module
+         * @param event
+         */
+        abstract void invoke(Module module, LWCEvent event);
+
+    }
+
+    /**
+     * A module registered for one event type, along with how long it has spent handling it
+     */
+    public static final class Handler {
+
+        private final Module module;
+        private final Event event;
+        private final EventInvoker invoker;
+
+        /**
+         * The time spent in each call to the module
+         */
+        private final LatencyHistogram latency;
+
+        /**
+         * The amount of calls that threw an exception. Only used for reporting, so it is not synchronized.
+         */
+        private long errors = 0;
+
+        Handler(Module module, Event event, EventInvoker invoker) {
+            this.module = module;
+            this.event = event;
+            this.invoker = invoker;
+            this.latency = Latency.get("module." + module.getClass().getSimpleName() + "." + invoker.methodName);
+        }
+
+        /**
+         * @return the module handling the event
+         */
+        public Module getModule() {
+            return module;
+        }
+
+        /**
+         * @return the event handled
+         */
+        public Event getEvent() {
+            return event;
+        }
+
+        /**
+         * @return the time spent in each call to the module
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the amount of calls that threw an exception
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+    }
+
     private static Logger logger = Logger.getLogger("Loader");
 
+    /**
+     * The invoker for each event that modules can handle
+     */
+    private static final Map<Event, EventInvoker> INVOKERS = new EnumMap<Event, EventInvoker>(Event.class);
+
+    static {
+        INVOKERS.put(Event.ACCESS_REQUEST, new EventInvoker("onAccessRequest", LWCAccessEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onAccessRequest((LWCAccessEvent) event);
+            }
+        });
+        INVOKERS.put(Event.INTERACT_BLOCK, new EventInvoker("onBlockInteract", LWCBlockInteractEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onBlockInteract((LWCBlockInteractEvent) event);
+            }
+        });
+        INVOKERS.put(Event.COMMAND, new EventInvoker("onCommand", LWCCommandEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onCommand((LWCCommandEvent) event);
+            }
+        });
+        INVOKERS.put(Event.DROP_ITEM, new EventInvoker("onDropItem", LWCDropItemEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onDropItem((LWCDropItemEvent) event);
+            }
+        });
+        INVOKERS.put(Event.DESTROY_PROTECTION, new EventInvoker("onDestroyProtection", LWCProtectionDestroyEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onDestroyProtection((LWCProtectionDestroyEvent) event);
+            }
+        });
+        INVOKERS.put(Event.INTERACT_PROTECTION, new EventInvoker("onProtectionInteract", LWCProtectionInteractEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onProtectionInteract((LWCProtectionInteractEvent) event);
+            }
+        });
+        INVOKERS.put(Event.REGISTER_PROTECTION, new EventInvoker("onRegisterProtection", LWCProtectionRegisterEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onRegisterProtection((LWCProtectionRegisterEvent) event);
+            }
+        });
+        INVOKERS.put(Event.POST_REMOVAL, new EventInvoker("onPostRemoval", LWCProtectionRemovePostEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onPostRemoval((LWCProtectionRemovePostEvent) event);
+            }
+        });
+        INVOKERS.put(Event.POST_REGISTRATION, new EventInvoker("onPostRegistration", LWCProtectionRegistrationPostEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onPostRegistration((LWCProtectionRegistrationPostEvent) event);
+            }
+        });
+        INVOKERS.put(Event.SEND_LOCALE, new EventInvoker("onSendLocale", LWCSendLocaleEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onSendLocale((LWCSendLocaleEvent) event);
+            }
+        });
+        INVOKERS.put(Event.REDSTONE, new EventInvoker("onRedstone", LWCRedstoneEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onRedstone((LWCRedstoneEvent) event);
+            }
+        });
+        INVOKERS.put(Event.RELOAD_EVENT, new EventInvoker("onReload", LWCReloadEvent.class) {
+            void invoke(Module module, LWCEvent event) {
+                module.onReload((LWCReloadEvent) event);
+            }
+        });
+    }
+
+    /**
+     * The time spent dispatching each event to every module
+     */
+    private static final Map<Event, LatencyHistogram> EVENT_LATENCY = new EnumMap<Event, LatencyHistogram>(Event.class);
+
+    static {
+        for (Event event : Event.values()) {
+            EVENT_LATENCY.put(event, Latency.get("event." + event));
+        }
+    }
+
     /**
      * The LWC instance this object belongs to
      */
@@ -171,110 +341,106 @@ public class ModuleLoader {
     private final Map<Plugin, List<MetaData>> pluginModules = Collections.synchronizedMap(new LinkedHashMap<Plugin, List<MetaData>>());
 
     /**
-     * A cache used to get a list of modules for any given event. Reflection is used to find which events modules implement.
-     * This was mainly added for backwards compatibility reasons (vs events to be individually registered). This still
-     * achieves the same effect by using reflection.
+     * The modules that handle each event, in registration order. Modules only handle the events they override the
+     * handler methods of. The arrays are replaced, never modified, so events can be dispatched without locking.
      */
-    private final Map<Event, List<Module>> fastModuleCache = new HashMap<Event, List<Module>>();
+    private volatile Map<Event, Handler[]> handlers = new EnumMap<Event, Handler[]>(Event.class);
 
     /**
      * Toasty caches for doesObjectOverrideMethod
      */
-    private final Map<String, Boolean> overrideCache = new HashMap<String, Boolean>();
+    private final Map<Class<?>, Map<Method, Boolean>> overrideCache = new HashMap<Class<?>, Map<Method, Boolean>>();
 
     public ModuleLoader(LWC lwc) {
         this.lwc = lwc;
-        populateFastModuleCache();
     }
 
     /**
-     * Populate the fast module cache
+     * Rebuild the handlers for every event from the registered modules
      */
-    private void populateFastModuleCache() {
-        for (Event event : Event.values()) {
-            fastModuleCache.put(event, new ArrayList<Module>(10));
+    private synchronized void rebuildHandlers() {
+        Map<Event, List<Handler>> lists = new EnumMap<Event, List<Handler>>(Event.class);
+
+        synchronized (pluginModules) {
+            for (List<MetaData> modules : pluginModules.values()) {
+                if (modules == null) {
+                    continue;
+                }
+
+                for (MetaData metaData : modules) {
+                    Module module = metaData.getModule();
+
+                    for (Map.Entry<Event, EventInvoker> entry : INVOKERS.entrySet()) {
+                        if (!handlesEvent(module, entry.getValue())) {
+                            continue;
+                        }
+
+                        List<Handler> list = lists.get(entry.getKey());
+                        if (list == null) {
+                            list = new ArrayList<Handler>();
+                            lists.put(entry.getKey(), list);
+                        }
+
+                        list.add(findHandler(module, entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
         }
+
+        Map<Event, Handler[]> rebuilt = new EnumMap<Event, Handler[]>(Event.class);
+
+        for (Map.Entry<Event, List<Handler>> entry : lists.entrySet()) {
+            rebuilt.put(entry.getKey(), entry.getValue().toArray(new Handler[entry.getValue().size()]));
+        }
+
+        handlers = rebuilt;
     }
 
     /**
-     * Register a module into the fast cache
+     * Reuse the existing handler for a module so its counters survive a rebuild
+     *
      * @param module
+     * @param event
+     * @param invoker
+     * @return
      */
-    private void registerFastCache(Module module) {
-        // get all of the methods from the module's superclass
-        Class<?> superclass = module.getClass().getSuperclass();
+    private Handler findHandler(Module module, Event event, EventInvoker invoker) {
+        Handler[] existing = handlers.get(event);
 
-        // Impossible
-        if (superclass == null) {
-            throw new IllegalArgumentException("Method cannot be its own superclass (?)");
-        }
-        if (superclass == Object.class) {
-            // then it implements the Module interface but doesn't extend any class
-            // also means getDeclaredMethods() below wouldn't show the interface methods when acting on Object.class
-            // modules would then fail to register if they just implement the Module interface instead of extending JavaModule
-            superclass = Module.class;// the easy way
+        if (existing != null) {
+            for (Handler handler : existing) {
+                if (handler.module == module) {
+                    return handler;
+                }
+            }
         }
-        // The methods that are possible to implement
-        Method[] methods = superclass.getDeclaredMethods();
-
-        // Now check each method to see if the module implements it
-        for (Method method : methods) {
-            boolean doesOverride = doesObjectOverrideMethod(module, method);
-
-            // It does override it! Add it to the fast cache o/
-            if (doesOverride) {
-                // But adding it to the fast cache isn't so easy, we need the event object
-                Class<?>[] parameters = method.getParameterTypes();
 
-                // If it's not 1 we have a method we do not want
-                if (parameters.length != 1) {
-                    continue;
-                }
+        return new Handler(module, event, invoker);
+    }
 
-                // Start comparing on the parameter to find the event type
-                Event event = null;
-                Class<?> parameter = parameters[0];
-
-                if (parameter == LWCAccessEvent.class) {
-                    event = Event.ACCESS_REQUEST;
-                } else if (parameter == LWCBlockInteractEvent.class) {
-                    event = Event.INTERACT_BLOCK;
-                } else if (parameter == LWCCommandEvent.class) {
-                    event = Event.COMMAND;
-                } else if (parameter == LWCDropItemEvent.class) {
-                    event = Event.DROP_ITEM;
-                } else if (parameter == LWCProtectionDestroyEvent.class) {
-                    event = Event.DESTROY_PROTECTION;
-                } else if (parameter == LWCProtectionInteractEvent.class) {
-                    event = Event.INTERACT_PROTECTION;
-                } else if (parameter == LWCProtectionRegisterEvent.class) {
-                    event = Event.REGISTER_PROTECTION;
-                } else if (parameter == LWCProtectionRemovePostEvent.class) {
-                    event = Event.POST_REMOVAL;
-                } else if (parameter == LWCProtectionRegistrationPostEvent.class) {
-                    event = Event.POST_REGISTRATION;
-                } else if (parameter == LWCSendLocaleEvent.class) {
-                    event = Event.SEND_LOCALE;
-                } else if (parameter == LWCRedstoneEvent.class) {
-                    event = Event.REDSTONE;
-                } else if (parameter == LWCReloadEvent.class) {
-                    event = Event.RELOAD_EVENT;
-                }
+    /**
+     * Check if a module handles an event. Modules that implement {@link Module} directly handle every event;
+     * modules extending {@link JavaModule} only handle the events they override the handler of.
+     *
+     * @param module
+     * @param invoker
+     * @return
+     */
+    private boolean handlesEvent(Module module, EventInvoker invoker) {
+        if (!JavaModule.class.isAssignableFrom(module.getClass())) {
+            return true;
+        }
 
-                // ok!
-                if (event != null) {
-                    List<Module> modules = fastModuleCache.get(event);
-                    modules.add(module);
-                }
-            }
+        try {
+            return doesObjectOverrideMethod(module, JavaModule.class.getMethod(invoker.methodName, invoker.eventClass));
+        } catch (NoSuchMethodException e) {
+            return false;
         }
     }
 
     /**
-     * Check if a method overrides a method using reflection. This method uses a cache for constant access after
-     * the caches are warm and toasty.
-     * <p/>
-     * This assumes the object is overriding JavaModule
+     * Check if an object overrides a method of JavaModule, looking at every class between the object's class and
+     * JavaModule. The result is cached per class.
      *
      * @param object
      * @param method
@@ -287,35 +453,43 @@ public class ModuleLoader {
         if (method == null) {
             throw new IllegalArgumentException("Method cannot be null");
         }
-        String methodName = method.getName();
 
-        String cacheKey = object.getClass().getSimpleName() + methodName;
+        Class<?> clazz = object.getClass();
 
-        // Check the cache
-        if (overrideCache.containsKey(cacheKey)) {
-            return overrideCache.get(cacheKey);
-        }
+        synchronized (overrideCache) {
+            Map<Method, Boolean> cache = overrideCache.get(clazz);
+
+            if (cache == null) {
+                cache = new HashMap<Method, Boolean>();
+                overrideCache.put(clazz, cache);
+            }
 
-        // The class to compare to; the assumed superclass
-        Class<?> compare = JavaModule.class;
+            Boolean cached = cache.get(method);
+            if (cached != null) {
+                return cached;
+            }
 
-        // The result; does it actually override the method?
-        boolean result = false;
+            // The result; does it actually override the method?
+            boolean result = false;
 
-        // Compare the methods the object declares
-        for (Method declaredMethod : object.getClass().getDeclaredMethods()) {
-            if (declaredMethod.getName().equals(methodName)) {
-                result = true;
-                break;
+            for (Class<?> current = clazz; current != null && current != JavaModule.class && current != Object.class; current = current.getSuperclass()) {
+                try {
+                    current.getDeclaredMethod(method.getName(), method.getParameterTypes());
+                    result = true;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // check the superclass
+                }
             }
-        }
 
-        overrideCache.put(cacheKey, result);
-        return result;
+            cache.put(method, result);
+            return result;
+        }
     }
 
     /**
-     * Dispatch an event
+     * Dispatch an event. A module that throws an exception is logged and skipped; the event is still passed on
+     * to the modules after it.
      *
      * @param event
      */
@@ -324,41 +498,67 @@ public class ModuleLoader {
             return;
         }
 
-        try {
-            List<Module> modules = fastModuleCache.get(event.getEventType());
-            Event type = event.getEventType();
-            for (Module module : modules) {
-                if (type == Event.INTERACT_PROTECTION) {
-                    module.onProtectionInteract((LWCProtectionInteractEvent) event);
-                } else if (type == Event.INTERACT_BLOCK) {
-                    module.onBlockInteract((LWCBlockInteractEvent) event);
-                } else if (type == Event.SEND_LOCALE) {
-                    module.onSendLocale((LWCSendLocaleEvent) event);
-                } else if (type == Event.ACCESS_REQUEST) {
-                    module.onAccessRequest((LWCAccessEvent) event);
-                } else if (type == Event.COMMAND) {
-                    module.onCommand((LWCCommandEvent) event);
-                } else if (type == Event.DROP_ITEM) {
-                    module.onDropItem((LWCDropItemEvent) event);
-                } else if (type == Event.DESTROY_PROTECTION) {
-                    module.onDestroyProtection((LWCProtectionDestroyEvent) event);
-                }else if (type == Event.REGISTER_PROTECTION) {
-                    module.onRegisterProtection((LWCProtectionRegisterEvent) event);
-                } else if (type == Event.POST_REMOVAL) {
-                    module.onPostRemoval((LWCProtectionRemovePostEvent) event);
-                } else if (type == Event.POST_REGISTRATION) {
-                    module.onPostRegistration((LWCProtectionRegistrationPostEvent) event);
-                } else if (type == Event.REDSTONE) {
-                    module.onRedstone((LWCRedstoneEvent) event);
-                } else if (type == Event.RELOAD_EVENT) {
-                    module.onReload((LWCReloadEvent) event);
-                }
+        Handler[] eventHandlers = handlers.get(event.getEventType());
+
+        if (eventHandlers == null) {
+            return;
+        }
+
+        long dispatchStart = System.nanoTime();
+
+        for (Handler handler : eventHandlers) {
+            long start = System.nanoTime();
+
+            try {
+                handler.invoker.invoke(handler.module, event);
+            } catch (Throwable throwable) {
+                handler.errors ++;
+                logModuleError(handler, throwable);
             }
-        } catch (Throwable throwable) {
-            throw new ModuleException("LWC Module threw an uncaught exception! LWC version: " + LWCInfo.FULL_VERSION, throwable);
+
+            handler.latency.recordSince(start);
+        }
+
+        EVENT_LATENCY.get(event.getEventType()).recordSince(dispatchStart);
+
+        // only commands a module handled are recorded, so unknown commands cannot add histograms
+        if (event instanceof LWCCommandEvent && ((LWCCommandEvent) event).isCancelled()) {
+            Latency.record("command." + ((LWCCommandEvent) event).getCommand(), dispatchStart);
         }
     }
 
+    /**
+     * Log an exception thrown by a module. The stack trace is only printed for the first exception of each module
+     * and event so a module that throws on every event does not flood the log.
+     *
+     * @param handler
+     * @param throwable
+     */
+    private void logModuleError(Handler handler, Throwable throwable) {
+        String module = handler.module.getClass().getName();
+
+        if (handler.errors == 1) {
+            logger.log(Level.SEVERE, "LWC Module " + module + " threw an uncaught exception handling " + handler.event + "! LWC version: " + LWCInfo.FULL_VERSION, throwable);
+        } else {
+            logger.severe("LWC Module " + module + " threw an uncaught exception handling " + handler.event + " (" + handler.errors + " times): " + throwable);
+        }
+    }
+
+    /**
+     * Get the modules registered for every event along with their timings
+     *
+     * @return
+     */
+    public List<Handler> getHandlers() {
+        List<Handler> result = new ArrayList<Handler>();
+
+        for (Handler[] eventHandlers : handlers.values()) {
+            Collections.addAll(result, eventHandlers);
+        }
+
+        return result;
+    }
+
     /**
      * Shutdown the plugin loader
      *
@@ -366,6 +566,7 @@ public class ModuleLoader {
      */
     public void shutdown() {
         pluginModules.clear();
+        rebuildHandlers();
     }
 
     /**
@@ -389,6 +590,9 @@ public class ModuleLoader {
             pluginModules.putAll(newMap);
         }
 
+        // LWC's modules are called first
+        rebuildHandlers();
+
         for (List<MetaData> modules : pluginModules.values()) {
             for (MetaData metaData : modules) {
                 if (!metaData.isLoaded()) {
@@ -463,8 +667,8 @@ public class ModuleLoader {
         modules.add(metaData);
         pluginModules.put(plugin, modules);
 
-        // Populate the fast cache
-        registerFastCache(module);
+        // Add the module to the events it handles
+        rebuildHandlers();
     }
 
     /**
@@ -474,6 +678,7 @@ public class ModuleLoader {
      */
     public void removeModules(Plugin plugin) {
         pluginModules.remove(plugin);
+        rebuildHandlers();
     }
 
 }
@@ -45,6 +45,8 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
 
@@ -89,16 +91,49 @@ public abstract class Database {
     public Type currentType;
 
     /**
-     * Store cached prepared statements.
-     * <p/>
-     * Since SQLite JDBC doesn't cache them.. we do it ourselves :S
+     * The connection to the database used by the thread that connected
      */
-    private Map<String, PreparedStatement> statementCache = new HashMap<String, PreparedStatement>();
+    protected Connection connection = null;
 
     /**
-     * The connection to the database
+     * The session for the thread that connected. Its statements are cached without any locking
      */
-    protected Connection connection = null;
+    private Session primarySession = null;
+
+    /**
+     * The thread that connected to the database
+     */
+    private Thread primaryThread = null;
+
+    /**
+     * The sessions for every other thread using the database
+     */
+    private final Map<Thread, Session> sessions = new HashMap<Thread, Session>();
+
+    /**
+     * Pooled connections not currently given to a thread
+     */
+    private final LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+
+    /**
+     * The amount of pooled connections that have been opened, not including the primary connection
+     */
+    private int pooledConnections = 0;
+
+    /**
+     * The maximum amount of connections that can be open, including the primary connection
+     */
+    private int maxConnections = 1;
+
+    /**
+     * The driver used to open connections
+     */
+    private Driver driver = null;
+
+    /**
+     * The properties connections are opened with
+     */
+    private Properties properties = null;
 
     /**
      * The default database engine being used. This is set via config
@@ -170,6 +205,8 @@ public abstract class Database {
      */
     public boolean setAutoCommit(boolean autoCommit) {
         try {
+            Connection connection = getConnection();
+
             // Commit the database if we are setting auto commit back to true
             if (autoCommit) {
                 connection.commit();
@@ -183,6 +220,39 @@ public abstract class Database {
         }
     }
 
+    /**
+     * Check if the current thread has a connection of its own. A connection that is shared (with SQLite, or once
+     * the pool is used up) has one transaction for every thread using it, so rolling it back would also discard
+     * the other threads' changes.
+     *
+     * @return true if the current thread uses a pooled connection no other thread is using
+     */
+    public boolean hasOwnConnection() {
+        Session session = getSession();
+        return session != null && session.pooled;
+    }
+
+    /**
+     * Roll back the changes made since auto commit was turned off. Only use this if the thread has its own
+     * connection, see {@link #hasOwnConnection()}.
+     *
+     * @return TRUE if successful, FALSE if exception was thrown
+     */
+    public boolean rollback() {
+        try {
+            Connection connection = getConnection();
+
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * @return the table prefix
      */
@@ -232,10 +302,10 @@ public abstract class Database {
         }
 
         // Load the driver class
-        Driver driver = (Driver) classLoader.loadClass(className).newInstance();
+        driver = (Driver) classLoader.loadClass(className).newInstance();
 
         // Create the properties to pass to the driver
-        Properties properties = new Properties();
+        properties = new Properties();
 
         // if we're using mysql, append the database info
         if (currentType == Type.MySQL) {
@@ -243,11 +313,16 @@ public abstract class Database {
             properties.put("autoReconnect", "true");
             properties.put("user", lwc.getConfiguration().getString("database.username"));
             properties.put("password", lwc.getConfiguration().getString("database.password"));
+
+            // SQLite only allows one writer at a time so every thread shares the one connection
+            maxConnections = Math.max(1, lwc.getConfiguration().getInt("database.connections", 4));
         }
 
         // Connect to the database
         try {
-            connection = driver.connect("jdbc:" + currentType.toString().toLowerCase() + ":" + getDatabasePath(), properties);
+            connection = openConnection();
+            primarySession = new Session(connection, false);
+            primaryThread = Thread.currentThread();
             connected = true;
             return true;
         } catch (SQLException e) {
@@ -261,7 +336,31 @@ public abstract class Database {
     }
 
     public void dispose() {
-        statementCache.clear();
+        synchronized (sessions) {
+            for (Session session : sessions.values()) {
+                session.closeStatements();
+
+                if (session.pooled) {
+                    idleConnections.add(session.connection);
+                }
+            }
+
+            sessions.clear();
+
+            for (Connection pooled : idleConnections) {
+                try {
+                    pooled.close();
+                } catch (SQLException e) { }
+            }
+
+            idleConnections.clear();
+            pooledConnections = 0;
+        }
+
+        if (primarySession != null) {
+            primarySession.closeStatements();
+            primarySession = null;
+        }
 
         try {
             if (connection != null) {
@@ -275,10 +374,145 @@ public abstract class Database {
     }
 
     /**
+     * Get the connection for the current thread. The thread that connected uses the primary connection, other
+     * threads are given a connection from the pool (or share the primary connection if the pool is exhausted)
+     * which stays with them until {@link #releaseConnection()} is called or the thread dies.
+     *
      * @return the connection to the database
      */
     public Connection getConnection() {
-        return connection;
+        Session session = getSession();
+        return session != null ? session.connection : null;
+    }
+
+    /**
+     * Give the current thread's connection back to the pool and close the statements it prepared. Threads that
+     * only use the database for a short amount of time should call this when they are done.
+     */
+    public void releaseConnection() {
+        if (Thread.currentThread() == primaryThread) {
+            return;
+        }
+
+        synchronized (sessions) {
+            Session session = sessions.remove(Thread.currentThread());
+
+            if (session != null) {
+                release(session);
+            }
+        }
+    }
+
+    /**
+     * @return the amount of connections currently open
+     */
+    public int getOpenConnections() {
+        synchronized (sessions) {
+            return connection == null ? 0 : 1 + pooledConnections;
+        }
+    }
+
+    /**
+     * @return the amount of threads that currently have a session
+     */
+    public int getActiveSessions() {
+        synchronized (sessions) {
+            return connection == null ? 0 : 1 + sessions.size();
+        }
+    }
+
+    /**
+     * Open a new connection to the database
+     *
+     * @return
+     */
+    private Connection openConnection() throws SQLException {
+        return driver.connect("jdbc:" + currentType.toString().toLowerCase() + ":" + getDatabasePath(), properties);
+    }
+
+    /**
+     * Get the session for the current thread, creating it if needed
+     *
+     * @return
+     */
+    private Session getSession() {
+        Thread thread = Thread.currentThread();
+
+        if (thread == primaryThread || primarySession == null) {
+            return primarySession;
+        }
+
+        synchronized (sessions) {
+            Session session = sessions.get(thread);
+
+            if (session == null) {
+                session = borrowSession();
+                sessions.put(thread, session);
+            }
+
+            return session;
+        }
+    }
+
+    /**
+     * Create a session for a thread using a pooled connection if one is available. Must hold the sessions lock.
+     *
+     * @return
+     */
+    private Session borrowSession() {
+        // take back the connections of threads that have died
+        if (idleConnections.isEmpty()) {
+            Iterator<Map.Entry<Thread, Session>> iter = sessions.entrySet().iterator();
+
+            while (iter.hasNext()) {
+                Map.Entry<Thread, Session> entry = iter.next();
+
+                if (!entry.getKey().isAlive()) {
+                    iter.remove();
+                    release(entry.getValue());
+                }
+            }
+        }
+
+        if (!idleConnections.isEmpty()) {
+            return new Session(idleConnections.removeFirst(), true);
+        }
+
+        if (pooledConnections + 1 < maxConnections) {
+            try {
+                Connection pooled = openConnection();
+
+                if (pooled != null) {
+                    pooledConnections ++;
+                    return new Session(pooled, true);
+                }
+            } catch (SQLException e) {
+                log("Failed to open a pooled connection: " + e.getMessage());
+            }
+        }
+
+        // share the primary connection, but keep the statements separate
+        return new Session(connection, false);
+    }
+
+    /**
+     * Close a session's statements and return its connection to the pool. Must hold the sessions lock.
+     *
+     * @param session
+     */
+    private void release(Session session) {
+        session.closeStatements();
+
+        if (session.pooled) {
+            try {
+                if (!session.connection.getAutoCommit()) {
+                    session.connection.commit();
+                    session.connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) { }
+
+            idleConnections.add(session.connection);
+        }
     }
 
     /**
@@ -333,10 +567,14 @@ public abstract class Database {
      * @return
      */
     public PreparedStatement prepare(String sql, boolean returnGeneratedKeys) {
-        if (connection == null) {
+        Session session = getSession();
+
+        if (session == null) {
             return null;
         }
 
+        Map<String, PreparedStatement> statementCache = session.statements;
+
         if (useStatementCache && statementCache.containsKey(sql)) {
             Statistics.addQuery();
             return statementCache.get(sql);
@@ -346,12 +584,13 @@ public abstract class Database {
             PreparedStatement preparedStatement;
 
             if (returnGeneratedKeys) {
-                preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                preparedStatement = session.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             } else {
-                preparedStatement = connection.prepareStatement(sql);
+                preparedStatement = session.connection.prepareStatement(sql);
             }
 
             statementCache.put(sql, preparedStatement);
+
             Statistics.addQuery();
 
             return preparedStatement;
@@ -454,4 +693,46 @@ public abstract class Database {
         this.useStatementCache = useStatementCache;
     }
 
+    /**
+     * A connection used by one thread and the statements that thread has prepared on it.
+     * <p/>
+     * Since SQLite JDBC doesn't cache them.. we do it ourselves :S
+     */
+    private static class Session {
+
+        /**
+         * The connection the session uses
+         */
+        private final Connection connection;
+
+        /**
+         * If the connection came from the pool, instead of being the primary connection
+         */
+        private final boolean pooled;
+
+        /**
+         * Store cached prepared statements
+         */
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+        private Session(Connection connection, boolean pooled) {
+            this.connection = connection;
+            this.pooled = pooled;
+        }
+
+        /**
+         * Close every statement prepared by the session
+         */
+        private void closeStatements() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) { }
+            }
+
+            statements.clear();
+        }
+
+    }
+
 }
@@ -29,7 +29,9 @@
 package com.griefcraft.sql;
 
 import com.griefcraft.cache.LRUCache;
+import com.griefcraft.cache.LongObjectHashMap;
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionCountCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Flag;
 import com.griefcraft.model.History;
@@ -37,13 +39,13 @@ import com.griefcraft.model.Permission;
 import com.griefcraft.model.Protection;
 import com.griefcraft.modules.limits.LimitsModule;
 import com.griefcraft.scripting.Module;
+import com.griefcraft.util.Latency;
 import com.griefcraft.util.UUIDRegistry;
 import com.griefcraft.util.config.Configuration;
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -51,16 +53,37 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public class PhysDB extends Database {
 
     /**
-     * The JSON Parser object
+     * The statement used to save a protection. {prefix} is replaced with the table prefix
      */
-    private final JSONParser jsonParser = new JSONParser();
+    private static final String SAVE_PROTECTION_SQL = "REPLACE INTO {prefix}protections (id, type, blockId, world, data, owner, password, x, y, z, date, last_accessed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The maximum amount of protections sent to the database in one batch
+     */
+    private static final int SAVE_BATCH_SIZE = 500;
+
+    /**
+     * The amount of history rows written by one insert statement. Kept low enough that SQLite's limit of 999
+     * bound variables per statement is never reached.
+     */
+    private static final int HISTORY_INSERT_ROWS = 50;
+
+    /**
+     * The amount of ids bound to one statement that checks for or updates the history of removed protections
+     */
+    private static final int REMOVE_BATCH_SIZE = 100;
 
     /**
      * The database version
@@ -192,8 +215,8 @@ public class PhysDB extends Database {
         int count = 0;
 
         try {
-            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "history WHERE LOWER(player) = LOWER(?)");
-            statement.setString(1, player);
+            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "history WHERE player_lower = ?");
+            statement.setString(1, player.toLowerCase());
 
             ResultSet set = statement.executeQuery();
 
@@ -237,6 +260,72 @@ public class PhysDB extends Database {
         return count;
     }
 
+    /**
+     * Load the amount of protections every owner has, per block id. Owners are lowercased.
+     *
+     * @return the counts for each owner, or null if they could not be loaded
+     */
+    public Map<String, ProtectionCountCache.OwnerCounts> loadProtectionCounts() {
+        Map<String, ProtectionCountCache.OwnerCounts> owners = new HashMap<String, ProtectionCountCache.OwnerCounts>();
+
+        try {
+            PreparedStatement statement = prepare("SELECT owner, blockId, COUNT(*) AS count FROM " + prefix + "protections GROUP BY owner, blockId");
+            ResultSet set = statement.executeQuery();
+
+            while (set.next()) {
+                String owner = set.getString("owner");
+
+                if (owner == null) {
+                    continue;
+                }
+
+                owner = owner.toLowerCase();
+                ProtectionCountCache.OwnerCounts counts = owners.get(owner);
+
+                if (counts == null) {
+                    counts = new ProtectionCountCache.OwnerCounts();
+                    owners.put(owner, counts);
+                }
+
+                counts.add(set.getInt("blockId"), set.getInt("count"));
+            }
+
+            set.close();
+        } catch (SQLException e) {
+            log("Failed to load protection counts: " + e.getMessage());
+            return null;
+        }
+
+        return owners;
+    }
+
+    /**
+     * Load the amount of protections one owner has, per block id
+     *
+     * @param owner
+     * @return
+     */
+    public ProtectionCountCache.OwnerCounts loadProtectionCounts(String owner) {
+        ProtectionCountCache.OwnerCounts counts = new ProtectionCountCache.OwnerCounts();
+
+        try {
+            PreparedStatement statement = prepare("SELECT blockId, COUNT(*) AS count FROM " + prefix + "protections WHERE owner = ? GROUP BY blockId");
+            statement.setString(1, owner);
+
+            ResultSet set = statement.executeQuery();
+
+            while (set.next()) {
+                counts.add(set.getInt("blockId"), set.getInt("count"));
+            }
+
+            set.close();
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return counts;
+    }
+
     /**
      * Get the menu style for a player
      *
@@ -342,6 +431,10 @@ public class PhysDB extends Database {
             column.setType("VARCHAR(255)");
             history.add(column);
 
+            column = new Column("player_lower");
+            column.setType("VARCHAR(255)");
+            history.add(column);
+
             column = new Column("x");
             column.setType("INTEGER");
             history.add(column);
@@ -489,6 +582,21 @@ public class PhysDB extends Database {
             incrementDatabaseVersion();
         }
 
+        if (databaseVersion == 6) {
+            log("Indexing history by lowercase player name (One time, may take a while!)");
+            addColumn(prefix + "history", "player_lower", "VARCHAR(255)");
+            executeUpdateNoException("UPDATE " + prefix + "history SET player_lower = LOWER(player)");
+            createIndex("history", "history_player", "player_lower");
+            createIndex("history", "history_retention", "status, timestamp");
+            incrementDatabaseVersion();
+        }
+
+        if (databaseVersion == 7) {
+            log("Indexing protections by last access time");
+            createIndex("protections", "protections_expiry", "last_accessed");
+            incrementDatabaseVersion();
+        }
+
     }
 
     /**
@@ -615,30 +723,36 @@ public class PhysDB extends Database {
      * @return the Chest object
      */
     public Protection loadProtection(int id) {
-        // the protection cache
-        ProtectionCache cache = LWC.getInstance().getProtectionCache();
-
-        // check if the protection is already cached
-        Protection cached = cache.getProtectionById(id);
-        if (cached != null) {
-            return cached;
-        }
+        long startTime = System.nanoTime();
 
         try {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE id = ?");
-            statement.setInt(1, id);
+            // the protection cache
+            ProtectionCache cache = LWC.getInstance().getProtectionCache();
 
-            Protection protection = resolveProtection(statement);
+            // check if the protection is already cached
+            Protection cached = cache.getProtectionById(id);
+            if (cached != null) {
+                return cached;
+            }
 
-            if (protection != null) {
-                cache.addProtection(protection);
-                return protection;
+            try {
+                PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE id = ?");
+                statement.setInt(1, id);
+
+                Protection protection = resolveProtection(statement);
+
+                if (protection != null) {
+                    cache.addProtection(protection);
+                    return protection;
+                }
+            } catch (SQLException e) {
+                printException(e);
             }
-        } catch (SQLException e) {
-            printException(e);
-        }
 
-        return null;
+            return null;
+        } finally {
+            Latency.record("PhysDB.loadProtection(id)", startTime);
+        }
     }
 
     /**
@@ -694,75 +808,8 @@ public class PhysDB extends Database {
             protection.setCreation(date);
             protection.setLastAccessed(lastAccessed);
 
-            // check for oh so beautiful data!
-            String data = set.getString("data");
-
-            if (data == null || data.trim().isEmpty()) {
-                return protection;
-            }
-
-            // rev up them JSON parsers!
-            Object object = null;
-
-            try {
-                object = jsonParser.parse(data);
-            } catch (Exception e) {
-                return protection;
-            } catch (Error e) {
-                return protection;
-            }
-
-            if (!(object instanceof JSONObject)) {
-                return protection;
-            }
-
-            // obtain the root
-            JSONObject root = (JSONObject) object;
-            protection.getData().putAll(root);
-
-            // Attempt to parse rights
-            Object rights = root.get("rights");
-
-            if (rights != null && (rights instanceof JSONArray)) {
-                JSONArray array = (JSONArray) rights;
-
-                for (Object node : array) {
-                    // we only want to use the maps
-                    if (!(node instanceof JSONObject)) {
-                        continue;
-                    }
-
-                    JSONObject map = (JSONObject) node;
-
-                    // decode the map
-                    Permission permission = Permission.decodeJSON(map);
-
-                    // bingo!
-                    if (permission != null) {
-                        protection.addPermission(permission);
-                    }
-                }
-            }
-
-            // Attempt to parse flags
-            Object flags = root.get("flags");
-            if (flags != null && (rights instanceof JSONArray)) {
-                JSONArray array = (JSONArray) flags;
-
-                for (Object node : array) {
-                    if (!(node instanceof JSONObject)) {
-                        continue;
-                    }
-
-                    JSONObject map = (JSONObject) node;
-
-                    Flag flag = Flag.decodeJSON(map);
-
-                    if (flag != null) {
-                        protection.addFlag(flag);
-                    }
-                }
-            }
+            // the rights and flags are decoded when they are first used
+            protection.setEncodedData(set.getString("data"));
 
             return protection;
         } catch (SQLException e) {
@@ -894,25 +941,23 @@ public class PhysDB extends Database {
      * @return the Protection object
      */
     private Protection loadProtection(String worldName, int x, int y, int z, boolean ignoreProtectionCount) {
-        // the unique key to use in the cache
-        String cacheKey = worldName + ":" + x + ":" + y + ":" + z;
-
         // the protection cache
         ProtectionCache cache = LWC.getInstance().getProtectionCache();
 
         // check if the protection is already cached
-        Protection cached = cache.getProtection(cacheKey);
+        Protection cached = cache.getProtection(worldName, x, y, z);
         if (cached != null) {
             // System.out.println("loadProtection() => CACHE HIT");
             return cached;
         }
 
         // Is it possible that there are protections in the cache?
-        if (!ignoreProtectionCount && hasAllProtectionsCached()) {
+        if (!ignoreProtectionCount && (hasAllProtectionsCached() || cache.isChunkLoaded(worldName, x >> 4, z >> 4))) {
             // System.out.println("loadProtection() => HAS_ALL_PROTECTIONS_CACHED");
             return null; // nothing was in the cache, nothing assumed to be in the database
         }
         // System.out.println("loadProtection() => QUERYING");
+        long startTime = System.nanoTime();
 
         try {
             PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE x = ? AND y = ? AND z = ? AND world = ?");
@@ -931,11 +976,137 @@ public class PhysDB extends Database {
             return protection;
         } catch (SQLException e) {
             printException(e);
+        } finally {
+            // only cache misses reach the database
+            Latency.record("PhysDB.loadProtection(miss)", startTime);
         }
 
         return null;
     }
 
+    /**
+     * Load every protection in a chunk into the protection cache. While the chunk stays loaded, a cache miss
+     * inside of it does not need to query the database.
+     *
+     * @param worldName
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void preloadChunk(String worldName, int chunkX, int chunkZ) {
+        // everything is already cached, misses are already answered without the database
+        if (hasAllProtectionsCached()) {
+            return;
+        }
+
+        LWC.getInstance().getProtectionCache().loadChunk(worldName, chunkX, chunkZ, loadChunkProtections(worldName, chunkX, chunkZ));
+    }
+
+    /**
+     * Load every protection in a range of chunks into the protection cache with a single query. Only chunks that
+     * are loaded in the world are marked as fully cached.
+     *
+     * @param worldName
+     * @param minChunkX
+     * @param minChunkZ
+     * @param maxChunkX
+     * @param maxChunkZ
+     */
+    public void preloadChunks(String worldName, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        long startTime = System.nanoTime();
+
+        try {
+            if (hasAllProtectionsCached()) {
+                return;
+            }
+
+            World world = Bukkit.getWorld(worldName);
+
+            if (world == null) {
+                return;
+            }
+
+            List<Protection> protections;
+
+            try {
+                PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND z >= ? AND z <= ?");
+
+                statement.setString(1, worldName);
+                statement.setInt(2, minChunkX << 4);
+                statement.setInt(3, (maxChunkX << 4) + 15);
+                statement.setInt(4, minChunkZ << 4);
+                statement.setInt(5, (maxChunkZ << 4) + 15);
+
+                protections = resolveProtections(statement);
+            } catch (SQLException e) {
+                printException(e);
+                return;
+            }
+
+            // split them up by chunk
+            LongObjectHashMap<List<Protection>> byChunk = new LongObjectHashMap<List<Protection>>();
+
+            for (Protection protection : protections) {
+                long key = ProtectionCache.chunkKey(protection.getX() >> 4, protection.getZ() >> 4);
+                List<Protection> chunk = byChunk.get(key);
+
+                if (chunk == null) {
+                    chunk = new ArrayList<Protection>();
+                    byChunk.put(key, chunk);
+                }
+
+                chunk.add(protection);
+            }
+
+            ProtectionCache cache = LWC.getInstance().getProtectionCache();
+            List<Protection> empty = new ArrayList<Protection>(0);
+
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    List<Protection> chunk = byChunk.get(ProtectionCache.chunkKey(chunkX, chunkZ));
+
+                    if (world.isChunkLoaded(chunkX, chunkZ) && !cache.isChunkLoaded(worldName, chunkX, chunkZ)) {
+                        cache.loadChunk(worldName, chunkX, chunkZ, chunk != null ? chunk : empty);
+                    }
+                }
+            }
+        } finally {
+            Latency.record("PhysDB.preloadChunks", startTime);
+        }
+    }
+
+    /**
+     * Load every protection in a chunk without touching the protection cache. This can be called from outside of
+     * the server thread.
+     *
+     * @param worldName
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    public List<Protection> loadChunkProtections(String worldName, int chunkX, int chunkZ) {
+        long startTime = System.nanoTime();
+
+        try {
+            try {
+                PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND z >= ? AND z <= ?");
+
+                statement.setString(1, worldName);
+                statement.setInt(2, chunkX << 4);
+                statement.setInt(3, (chunkX << 4) + 15);
+                statement.setInt(4, chunkZ << 4);
+                statement.setInt(5, (chunkZ << 4) + 15);
+
+                return resolveProtections(statement);
+            } catch (SQLException e) {
+                printException(e);
+            }
+
+            return new ArrayList<Protection>();
+        } finally {
+            Latency.record("PhysDB.loadChunkProtections", startTime);
+        }
+    }
+
     /**
      * Load all protections (use sparingly !!)
      *
@@ -953,6 +1124,58 @@ public class PhysDB extends Database {
         return new ArrayList<Protection>();
     }
 
+    /**
+     * Load a page of protections ordered by their id. Passing the id of the last protection of a page loads the
+     * next one, so the whole table can be walked without loading it into memory.
+     *
+     * @param afterId the protections returned will all have a greater id than this
+     * @param count the maximum amount of protections to load
+     * @return
+     */
+    public List<Protection> loadProtectionPage(int afterId, int count) {
+        try {
+            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE id > ? ORDER BY id LIMIT ?");
+            statement.setInt(1, afterId);
+            statement.setInt(2, count);
+
+            return resolveProtections(statement);
+        } catch (Exception e) {
+            printException(e);
+        }
+
+        return new ArrayList<Protection>();
+    }
+
+    /**
+     * Load a page of the protections matched by a filter. The page after a protection is loaded by passing its
+     * last access time and id.
+     *
+     * @param filter
+     * @param afterLastAccessed the last access time of the last protection in the previous page, or -1
+     * @param afterId the id of the last protection in the previous page
+     * @param count the maximum amount of protections to load
+     * @return
+     */
+    public List<Protection> loadProtections(ProtectionFilter filter, long afterLastAccessed, int afterId, int count) {
+        long startTime = System.nanoTime();
+
+        try {
+            try {
+                PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE " + filter.toWhereClause() + " ORDER BY " + filter.getOrder() + " LIMIT ?");
+                int index = filter.bind(statement, afterLastAccessed, afterId);
+                statement.setInt(index, count);
+
+                return resolveProtections(statement);
+            } catch (Exception e) {
+                printException(e);
+            }
+
+            return new ArrayList<Protection>();
+        } finally {
+            Latency.record("PhysDB.loadProtections(filter)", startTime);
+        }
+    }
+
     /**
      * Load the first protection within a block's radius
      *
@@ -964,54 +1187,60 @@ public class PhysDB extends Database {
      * @return list of Protection objects found
      */
     public List<Protection> loadProtections(String world, int baseX, int baseY, int baseZ, int radius) {
-        if (hasAllProtectionsCached()) {
-            ProtectionCache cache = LWC.getInstance().getProtectionCache();
-            List<Protection> protections = new ArrayList<Protection>();
-
-            if (cache.size() < 1000) {
-                for (Protection protection : cache.getReferences().keySet()) {
-                    int x = protection.getX();
-                    int y = protection.getY();
-                    int z = protection.getZ();
+        long startTime = System.nanoTime();
 
-                    if (x >= baseX - radius && x <= baseX + radius && y >= baseY - radius && y <= baseY + radius && z >= baseZ - radius && z <= baseZ + radius) {
-                        protections.add(protection);
+        try {
+            if (hasAllProtectionsCached()) {
+                ProtectionCache cache = LWC.getInstance().getProtectionCache();
+                List<Protection> protections = new ArrayList<Protection>();
+
+                if (cache.size() < 1000) {
+                    for (Protection protection : cache.getReferences().keySet()) {
+                        int x = protection.getX();
+                        int y = protection.getY();
+                        int z = protection.getZ();
+
+                        if (x >= baseX - radius && x <= baseX + radius && y >= baseY - radius && y <= baseY + radius && z >= baseZ - radius && z <= baseZ + radius) {
+                            protections.add(protection);
+                        }
                     }
-                }
-            } else {
-                for (int x = baseX - radius; x < baseX + radius; x++) {
-                    for (int y = baseY - radius; y < baseY + radius; y++) {
-                        for (int z = baseZ - radius; z < baseZ + radius; z++) {
-                            Protection protection = cache.getProtection(world + ":" + x + ":" + y + ":" + z);
-
-                            if (protection != null) {
-                                protections.add(protection);
+                } else {
+                    for (int x = baseX - radius; x < baseX + radius; x++) {
+                        for (int y = baseY - radius; y < baseY + radius; y++) {
+                            for (int z = baseZ - radius; z < baseZ + radius; z++) {
+                                Protection protection = cache.getProtection(world, x, y, z);
+
+                                if (protection != null) {
+                                    protections.add(protection);
+                                }
                             }
                         }
                     }
                 }
+
+                return protections;
             }
 
-            return protections;
-        }
+            try {
+                PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ?");
 
-        try {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ?");
+                statement.setString(1, world);
+                statement.setInt(2, baseX - radius);
+                statement.setInt(3, baseX + radius);
+                statement.setInt(4, baseY - radius);
+                statement.setInt(5, baseY + radius);
+                statement.setInt(6, baseZ - radius);
+                statement.setInt(7, baseZ + radius);
 
-            statement.setString(1, world);
-            statement.setInt(2, baseX - radius);
-            statement.setInt(3, baseX + radius);
-            statement.setInt(4, baseY - radius);
-            statement.setInt(5, baseY + radius);
-            statement.setInt(6, baseZ - radius);
-            statement.setInt(7, baseZ + radius);
+                return resolveProtections(statement);
+            } catch (Exception e) {
+                printException(e);
+            }
 
-            return resolveProtections(statement);
-        } catch (Exception e) {
-            printException(e);
+            return new ArrayList<Protection>();
+        } finally {
+            Latency.record("PhysDB.loadProtections(radius)", startTime);
         }
-
-        return new ArrayList<Protection>();
     }
 
     /**
@@ -1143,72 +1372,186 @@ public class PhysDB extends Database {
      * @return
      */
     public Protection registerProtection(int blockId, Protection.Type type, String world, String player, String data, int x, int y, int z) {
-        ProtectionCache cache = LWC.getInstance().getProtectionCache();
+        long startTime = System.nanoTime();
 
         try {
-            PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, world, owner, password, x, y, z, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            ProtectionCache cache = LWC.getInstance().getProtectionCache();
 
-            statement.setInt(1, blockId);
-            statement.setInt(2, type.ordinal());
-            statement.setString(3, world);
-            statement.setString(4, player);
-            statement.setString(5, data);
-            statement.setInt(6, x);
-            statement.setInt(7, y);
-            statement.setInt(8, z);
-            statement.setString(9, new Timestamp(new Date().getTime()).toString());
-            statement.setLong(10, System.currentTimeMillis() / 1000L);
+            try {
+                PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, world, owner, password, x, y, z, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+                statement.setInt(1, blockId);
+                statement.setInt(2, type.ordinal());
+                statement.setString(3, world);
+                statement.setString(4, player);
+                statement.setString(5, data);
+                statement.setInt(6, x);
+                statement.setInt(7, y);
+                statement.setInt(8, z);
+                statement.setString(9, new Timestamp(new Date().getTime()).toString());
+                statement.setLong(10, System.currentTimeMillis() / 1000L);
 
-            statement.executeUpdate();
+                statement.executeUpdate();
 
-            // We need to create the initial transaction for this protection
-            // this transaction is viewable and modifiable during POST_REGISTRATION
-            Protection protection = loadProtection(world, x, y, z, true);
-            protection.removeCache();
+                // hopper moves that were allowed because nothing was protected here need to be decided again
+                LWC.getInstance().getMoveDecisionCache().clear();
 
-            // if history logging is enabled, create it
-            if (LWC.getInstance().isHistoryEnabled() && protection != null) {
-                History transaction = protection.createHistoryObject();
+                // We need to create the initial transaction for this protection
+                // this transaction is viewable and modifiable during POST_REGISTRATION
+                Protection protection = loadProtection(world, x, y, z, true);
+                protection.removeCache();
 
-                transaction.setPlayer(player);
-                transaction.setType(History.Type.TRANSACTION);
-                transaction.setStatus(History.Status.ACTIVE);
+                // if history logging is enabled, create it
+                if (LWC.getInstance().isHistoryEnabled() && protection != null) {
+                    History transaction = protection.createHistoryObject();
 
-                // store the player that created the protection
-                transaction.addMetaData("creator=" + player);
+                    transaction.setPlayer(player);
+                    transaction.setType(History.Type.TRANSACTION);
+                    transaction.setStatus(History.Status.ACTIVE);
 
-                // now sync the history object to the database
-                transaction.saveNow();
-            }
+                    // store the player that created the protection
+                    transaction.addMetaData("creator=" + player);
 
-            // Cache it
-            if (protection != null) {
-                cache.addProtection(protection);
-                protectionCount ++;
+                    // now sync the history object to the database
+                    transaction.saveNow();
+                }
+
+                // Cache it
+                if (protection != null) {
+                    cache.addProtection(protection);
+                    protectionCount ++;
+                    LWC.getInstance().getProtectionCountCache().increment(player, blockId);
+                }
+
+                // return the newly created protection
+                return protection;
+            } catch (SQLException e) {
+                printException(e);
             }
 
-            // return the newly created protection
-            return protection;
-        } catch (SQLException e) {
-            printException(e);
+            return null;
+        } finally {
+            Latency.record("PhysDB.registerProtection", startTime);
         }
-
-        return null;
     }
 
     /**
-     * Sync a History object to the database or save a newly created one
+     * Register a group of protections in one world using batched inserts. Locations that already have a
+     * protection are skipped, as they may have been protected since the caller checked them. The protections are
+     * loaded back with a single range query afterwards so they have their ids. They are not cached and no history
+     * is created for them.
      *
-     * @param history
+     * @param protections the protections to register; only the block id, type, world, owner, password and location are used
+     * @return the registered protections
+     */
+    public List<Protection> registerProtections(List<Protection> protections) {
+        long startTime = System.nanoTime();
+
+        try {
+            List<Protection> registered = new ArrayList<Protection>(protections.size());
+
+            if (protections.isEmpty()) {
+                return registered;
+            }
+
+            String world = protections.get(0).getWorld();
+            String date = new Timestamp(new Date().getTime()).toString();
+            long lastAccessed = System.currentTimeMillis() / 1000L;
+            LongObjectHashMap<Protection> inserted = new LongObjectHashMap<Protection>(protections.size());
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+            for (Protection protection : protections) {
+                minX = Math.min(minX, protection.getX());
+                minY = Math.min(minY, protection.getY());
+                minZ = Math.min(minZ, protection.getZ());
+                maxX = Math.max(maxX, protection.getX());
+                maxY = Math.max(maxY, protection.getY());
+                maxZ = Math.max(maxZ, protection.getZ());
+            }
+
+            // the protections that already exist are neither inserted again nor returned as registered
+            LongObjectHashMap<Boolean> existing = new LongObjectHashMap<Boolean>();
+            Set<Integer> existingIds = new HashSet<Integer>();
+
+            for (Protection protection : loadProtections(world, minX, maxX, minY, maxY, minZ, maxZ)) {
+                existing.put(ProtectionCache.blockKey(protection.getX(), protection.getY(), protection.getZ()), Boolean.TRUE);
+                existingIds.add(protection.getId());
+            }
+
+            try {
+                PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, world, owner, password, x, y, z, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                int pending = 0;
+
+                for (Protection protection : protections) {
+                    long key = ProtectionCache.blockKey(protection.getX(), protection.getY(), protection.getZ());
+
+                    if (existing.containsKey(key) || inserted.containsKey(key)) {
+                        continue;
+                    }
+
+                    statement.setInt(1, protection.getBlockId());
+                    statement.setInt(2, protection.getType().ordinal());
+                    statement.setString(3, world);
+                    statement.setString(4, protection.getOwner());
+                    statement.setString(5, protection.getPassword() == null ? "" : protection.getPassword());
+                    statement.setInt(6, protection.getX());
+                    statement.setInt(7, protection.getY());
+                    statement.setInt(8, protection.getZ());
+                    statement.setString(9, date);
+                    statement.setLong(10, lastAccessed);
+                    statement.addBatch();
+                    inserted.put(key, protection);
+
+                    if (++pending == SAVE_BATCH_SIZE) {
+                        statement.executeBatch();
+                        pending = 0;
+                    }
+                }
+
+                if (pending > 0) {
+                    statement.executeBatch();
+                }
+            } catch (SQLException e) {
+                printException(e);
+            }
+
+            // hopper moves that were allowed because nothing was protected here need to be decided again
+            LWC.getInstance().getMoveDecisionCache().clear();
+
+            for (Protection protection : loadProtections(world, minX, maxX, minY, maxY, minZ, maxZ)) {
+                if (existingIds.contains(protection.getId())) {
+                    continue;
+                }
+
+                Protection requested = inserted.remove(ProtectionCache.blockKey(protection.getX(), protection.getY(), protection.getZ()));
+
+                if (requested != null && requested.getBlockId() == protection.getBlockId()) {
+                    registered.add(protection);
+                    protectionCount ++;
+                    LWC.getInstance().getProtectionCountCache().increment(protection.getOwner(), protection.getBlockId());
+                }
+            }
+
+            return registered;
+        } finally {
+            Latency.record("PhysDB.registerProtections", startTime);
+        }
+    }
+
+    /**
+     * Sync a History object to the database or save a newly created one
+     *
+     * @param history
      */
     public void saveHistory(History history) {
         try {
             PreparedStatement statement;
 
             if (history.doesExist()) {
-                statement = prepare("UPDATE " + prefix + "history SET protectionId = ?, player = ?, x = ?, y = ?, z = ?, type = ?, status = ?, metadata = ?, timestamp = ? WHERE id = ?");
+                statement = prepare("UPDATE " + prefix + "history SET protectionId = ?, player = ?, x = ?, y = ?, z = ?, type = ?, status = ?, metadata = ?, timestamp = ?, player_lower = ? WHERE id = ?");
             } else {
-                statement = prepare("INSERT INTO " + prefix + "history (protectionId, player, x, y, z, type, status, metadata, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", true);
+                statement = prepare("INSERT INTO " + prefix + "history (protectionId, player, x, y, z, type, status, metadata, timestamp, player_lower) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", true);
                 history.setTimestamp(System.currentTimeMillis() / 1000L);
             }
 
@@ -1221,9 +1564,10 @@ public class PhysDB extends Database {
             statement.setInt(7, history.getStatus().ordinal());
             statement.setString(8, history.getSafeMetaData());
             statement.setLong(9, history.getTimestamp());
+            statement.setString(10, lowerCase(history.getPlayer()));
 
             if (history.doesExist()) {
-                statement.setInt(10, history.getId());
+                statement.setInt(11, history.getId());
             }
 
             int affectedRows = statement.executeUpdate();
@@ -1246,6 +1590,221 @@ public class PhysDB extends Database {
         }
     }
 
+    /**
+     * Insert new History objects using multi-row inserts. The ids generated for them are returned instead of set
+     * so the caller can decide if the objects are still up to date.
+     * <p/>
+     * This must not be used with a connection that is shared with other threads (i.e. SQLite): the generated keys
+     * are read from the connection, so another thread's insert could be reported instead.
+     *
+     * @param history
+     * @return the generated ids, in the same order as the history objects
+     * @throws SQLException if any of the rows could not be inserted or their ids were not returned
+     */
+    public int[] insertHistory(List<History> history) throws SQLException {
+        long startTime = System.nanoTime();
+
+        try {
+            int[] ids = new int[history.size()];
+
+            for (int offset = 0; offset < history.size(); offset += HISTORY_INSERT_ROWS) {
+                int rows = Math.min(HISTORY_INSERT_ROWS, history.size() - offset);
+
+                StringBuilder sql = new StringBuilder("INSERT INTO " + prefix + "history (protectionId, player, x, y, z, type, status, metadata, timestamp, player_lower) VALUES ");
+                for (int i = 0; i < rows; i++) {
+                    sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                }
+
+                PreparedStatement statement = prepare(sql.toString(), true);
+                int index = 1;
+
+                for (int i = offset; i < offset + rows; i++) {
+                    History item = history.get(i);
+                    statement.setInt(index++, item.getProtectionId());
+                    statement.setString(index++, item.getPlayer());
+                    statement.setInt(index++, item.getX());
+                    statement.setInt(index++, item.getY());
+                    statement.setInt(index++, item.getZ());
+                    statement.setInt(index++, item.getType().ordinal());
+                    statement.setInt(index++, item.getStatus().ordinal());
+                    statement.setString(index++, item.getSafeMetaData());
+                    statement.setLong(index++, item.getTimestamp());
+                    statement.setString(index++, lowerCase(item.getPlayer()));
+                }
+
+                statement.executeUpdate();
+
+                List<Integer> keys = new ArrayList<Integer>(rows);
+                ResultSet generatedKeys = statement.getGeneratedKeys();
+
+                while (generatedKeys.next()) {
+                    keys.add(generatedKeys.getInt(1));
+                }
+
+                generatedKeys.close();
+
+                // without an id for every row the history could not be updated later
+                if (keys.size() != rows) {
+                    throw new SQLException("Expected " + rows + " generated history ids but got " + keys.size());
+                }
+
+                for (int i = 0; i < rows; i++) {
+                    ids[offset + i] = keys.get(i);
+                }
+            }
+
+            return ids;
+        } finally {
+            Latency.record("PhysDB.insertHistory", startTime);
+        }
+    }
+
+    /**
+     * Update History objects that already exist in the database in batches
+     *
+     * @param history
+     * @throws SQLException if any of the rows could not be updated
+     */
+    public void updateHistory(List<History> history) throws SQLException {
+        long startTime = System.nanoTime();
+
+        try {
+            if (history.isEmpty()) {
+                return;
+            }
+
+            PreparedStatement statement = prepare("UPDATE " + prefix + "history SET protectionId = ?, player = ?, x = ?, y = ?, z = ?, type = ?, status = ?, metadata = ?, timestamp = ?, player_lower = ? WHERE id = ?");
+            int pending = 0;
+
+            for (History item : history) {
+                statement.setInt(1, item.getProtectionId());
+                statement.setString(2, item.getPlayer());
+                statement.setInt(3, item.getX());
+                statement.setInt(4, item.getY());
+                statement.setInt(5, item.getZ());
+                statement.setInt(6, item.getType().ordinal());
+                statement.setInt(7, item.getStatus().ordinal());
+                statement.setString(8, item.getSafeMetaData());
+                statement.setLong(9, item.getTimestamp());
+                statement.setString(10, lowerCase(item.getPlayer()));
+                statement.setInt(11, item.getId());
+                statement.addBatch();
+
+                if (++pending == SAVE_BATCH_SIZE) {
+                    statement.executeBatch();
+                    pending = 0;
+                }
+            }
+
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+        } finally {
+            Latency.record("PhysDB.updateHistory", startTime);
+        }
+    }
+
+    /**
+     * Lowercase a player name for the player_lower column
+     *
+     * @param player
+     * @return
+     */
+    private static String lowerCase(String player) {
+        return player == null ? null : player.toLowerCase();
+    }
+
+    /**
+     * Load a page of the inactive history older than the given time, ordered by id
+     *
+     * @param before the time (in seconds) the history must be older than
+     * @param afterId the history returned will all have a greater id than this
+     * @param count the maximum amount of history to load
+     * @return
+     */
+    public List<History> loadInactiveHistory(long before, int afterId, int count) {
+        List<History> temp = new ArrayList<History>();
+
+        try {
+            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE status = ? AND timestamp < ? AND id > ? ORDER BY id LIMIT ?");
+            statement.setInt(1, History.Status.INACTIVE.ordinal());
+            statement.setLong(2, before);
+            statement.setInt(3, afterId);
+            statement.setInt(4, count);
+
+            ResultSet set = statement.executeQuery();
+
+            while (set.next()) {
+                History history = resolveHistory(new History(), set);
+
+                if (history != null) {
+                    temp.add(history);
+                }
+            }
+
+            set.close();
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return temp;
+    }
+
+    /**
+     * Remove history that was loaded by {@link #loadInactiveHistory(long, int, int)}. Only the given history is
+     * removed, and only if it is still inactive and older than the given time.
+     *
+     * @param before the time (in seconds) the history must be older than
+     * @param history the history to remove
+     * @return the amount of history removed
+     */
+    public int removeInactiveHistory(long before, List<History> history) {
+        if (history.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            PreparedStatement statement = prepare("DELETE FROM " + prefix + "history WHERE id = ? AND status = ? AND timestamp < ?");
+
+            for (History entry : history) {
+                statement.setInt(1, entry.getId());
+                statement.setInt(2, History.Status.INACTIVE.ordinal());
+                statement.setLong(3, before);
+                statement.addBatch();
+            }
+
+            return countUpdated(statement.executeBatch());
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Mark the active history of one type for a protection as inactive
+     *
+     * @param protectionId
+     * @param type
+     */
+    public void deactivateHistory(int protectionId, History.Type type) {
+        if (!LWC.getInstance().isHistoryEnabled()) {
+            return;
+        }
+
+        try {
+            PreparedStatement statement = prepare("UPDATE " + prefix + "history SET status = ? WHERE protectionId = ? AND type = ? AND status = ?");
+            statement.setInt(1, History.Status.INACTIVE.ordinal());
+            statement.setInt(2, protectionId);
+            statement.setInt(3, type.ordinal());
+            statement.setInt(4, History.Status.ACTIVE.ordinal());
+
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            printException(e);
+        }
+    }
+
     /**
      * Invalid all history objects for a player
      *
@@ -1253,9 +1812,9 @@ public class PhysDB extends Database {
      */
     public void invalidateHistory(String player) {
        try {
-           PreparedStatement statement = prepare("UPDATE " + prefix + "history SET status = ? WHERE Lower(player) = Lower(?)");
+           PreparedStatement statement = prepare("UPDATE " + prefix + "history SET status = ? WHERE player_lower = ?");
            statement.setInt(1, History.Status.INACTIVE.ordinal());
-           statement.setString(2, player);
+           statement.setString(2, player.toLowerCase());
 
            statement.executeUpdate();
        } catch (SQLException e) {
@@ -1298,6 +1857,9 @@ public class PhysDB extends Database {
         history.setMetaData(metadata);
         history.setTimestamp(timestamp);
 
+        // it matches the database
+        history.setModified(false);
+
         return history;
     }
 
@@ -1308,30 +1870,118 @@ public class PhysDB extends Database {
      * @return
      */
     public List<History> loadHistory(Protection protection) {
-        List<History> temp = new ArrayList<History>();
-
         if (!LWC.getInstance().isHistoryEnabled()) {
-            return temp;
+            return new ArrayList<History>();
         }
 
         try {
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE protectionId = ? ORDER BY id DESC");
             statement.setInt(1, protection.getId());
 
-            ResultSet set = statement.executeQuery();
+            return resolveHistory(protection, statement);
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return new ArrayList<History>();
+    }
+
+    /**
+     * Load a page of the History objects for a given protection, newest first
+     *
+     * @param protection
+     * @param start
+     * @param count
+     * @return
+     */
+    public List<History> loadHistory(Protection protection, int start, int count) {
+        long startTime = System.nanoTime();
 
+        try {
+            if (!LWC.getInstance().isHistoryEnabled()) {
+                return new ArrayList<History>();
+            }
+
+            try {
+                PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE protectionId = ? ORDER BY id DESC LIMIT ?,?");
+                statement.setInt(1, protection.getId());
+                statement.setInt(2, start);
+                statement.setInt(3, count);
+
+                return resolveHistory(protection, statement);
+            } catch (SQLException e) {
+                printException(e);
+            }
+
+            return new ArrayList<History>();
+        } finally {
+            Latency.record("PhysDB.loadHistory(page)", startTime);
+        }
+    }
+
+    /**
+     * Load the History objects of a type for a given protection
+     *
+     * @param protection
+     * @param type
+     * @param status the status to match, or null for any
+     * @return
+     */
+    public List<History> loadHistory(Protection protection, History.Type type, History.Status status) {
+        long startTime = System.nanoTime();
+
+        try {
+            if (!LWC.getInstance().isHistoryEnabled()) {
+                return new ArrayList<History>();
+            }
+
+            try {
+                PreparedStatement statement;
+
+                if (status == null) {
+                    statement = prepare("SELECT * FROM " + prefix + "history WHERE protectionId = ? AND type = ? ORDER BY id DESC");
+                } else {
+                    statement = prepare("SELECT * FROM " + prefix + "history WHERE protectionId = ? AND type = ? AND status = ? ORDER BY id DESC");
+                    statement.setInt(3, status.ordinal());
+                }
+
+                statement.setInt(1, protection.getId());
+                statement.setInt(2, type.ordinal());
+
+                return resolveHistory(protection, statement);
+            } catch (SQLException e) {
+                printException(e);
+            }
+
+            return new ArrayList<History>();
+        } finally {
+            Latency.record("PhysDB.loadHistory(type)", startTime);
+        }
+    }
+
+    /**
+     * Resolve the History objects of a protection from a statement. The history is attached to the protection
+     * so it is saved with it once it is modified.
+     *
+     * @param protection
+     * @param statement
+     * @return
+     */
+    private List<History> resolveHistory(Protection protection, PreparedStatement statement) throws SQLException {
+        List<History> temp = new ArrayList<History>();
+        ResultSet set = statement.executeQuery();
+
+        try {
             while (set.next()) {
-                History history = resolveHistory(protection.createHistoryObject(), set);
+                History history = resolveHistory(new History(), set);
 
                 if (history != null) {
-                    // seems ok
+                    history.setProtection(protection);
                     temp.add(history);
                 }
             }
-
+        } finally {
             set.close();
-        } catch (SQLException e) {
-            printException(e);
         }
 
         return temp;
@@ -1361,8 +2011,46 @@ public class PhysDB extends Database {
         }
 
         try {
-            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE LOWER(player) = LOWER(?) ORDER BY id DESC");
-            statement.setString(1, player);
+            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE player_lower = ? ORDER BY id DESC");
+            statement.setString(1, player.toLowerCase());
+
+            ResultSet set = statement.executeQuery();
+
+            while (set.next()) {
+                History history = resolveHistory(new History(), set);
+
+                if (history != null) {
+                    // seems ok
+                    temp.add(history);
+                }
+            }
+
+            set.close();
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return temp;
+    }
+
+    /**
+     * Load the protection history of a type that the given player created
+     *
+     * @param player
+     * @param type
+     * @return
+     */
+    public List<History> loadHistory(String player, History.Type type) {
+        List<History> temp = new ArrayList<History>();
+
+        if (!LWC.getInstance().isHistoryEnabled()) {
+            return temp;
+        }
+
+        try {
+            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE player_lower = ? AND type = ? ORDER BY id DESC");
+            statement.setString(1, player.toLowerCase());
+            statement.setInt(2, type.ordinal());
 
             ResultSet set = statement.executeQuery();
 
@@ -1443,8 +2131,8 @@ public class PhysDB extends Database {
         }
 
         try {
-            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE LOWER(player) = LOWER(?) ORDER BY id DESC LIMIT ?,?");
-            statement.setString(1, player);
+            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE player_lower = ? ORDER BY id DESC LIMIT ?,?");
+            statement.setString(1, player.toLowerCase());
             statement.setInt(2, start);
             statement.setInt(3, count);
 
@@ -1591,8 +2279,8 @@ public class PhysDB extends Database {
         }
 
         try {
-            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE LOWER(player) = LOWER(?) AND x = ? AND y = ? AND z = ?");
-            statement.setString(1, player);
+            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE player_lower = ? AND x = ? AND y = ? AND z = ?");
+            statement.setString(1, player.toLowerCase());
             statement.setInt(2, x);
             statement.setInt(3, y);
             statement.setInt(4, z);
@@ -1659,20 +2347,8 @@ public class PhysDB extends Database {
      */
     public void saveProtection(Protection protection) {
         try {
-            PreparedStatement statement = prepare("REPLACE INTO " + prefix + "protections (id, type, blockId, world, data, owner, password, x, y, z, date, last_accessed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-
-            statement.setInt(1, protection.getId());
-            statement.setInt(2, protection.getType().ordinal());
-            statement.setInt(3, protection.getBlockId());
-            statement.setString(4, protection.getWorld());
-            statement.setString(5, protection.getData().toJSONString());
-            statement.setString(6, protection.getOwner());
-            statement.setString(7, protection.getPassword());
-            statement.setInt(8, protection.getX());
-            statement.setInt(9, protection.getY());
-            statement.setInt(10, protection.getZ());
-            statement.setString(11, protection.getCreation());
-            statement.setLong(12, protection.getLastAccessed());
+            PreparedStatement statement = prepare(SAVE_PROTECTION_SQL.replace("{prefix}", prefix));
+            bindProtection(statement, protection);
 
             statement.executeUpdate();
         } catch (SQLException e) {
@@ -1680,26 +2356,295 @@ public class PhysDB extends Database {
         }
     }
 
+    /**
+     * Save a group of protections to the database using batched statements
+     *
+     * @param protections
+     */
+    public void saveProtections(Collection<Protection> protections) {
+        long startTime = System.nanoTime();
+
+        try {
+            if (protections.isEmpty()) {
+                return;
+            }
+
+            try {
+                PreparedStatement statement = prepare(SAVE_PROTECTION_SQL.replace("{prefix}", prefix));
+                int pending = 0;
+
+                for (Protection protection : protections) {
+                    bindProtection(statement, protection);
+                    statement.addBatch();
+
+                    if (++pending == SAVE_BATCH_SIZE) {
+                        statement.executeBatch();
+                        pending = 0;
+                    }
+                }
+
+                if (pending > 0) {
+                    statement.executeBatch();
+                }
+            } catch (SQLException e) {
+                printException(e);
+            }
+        } finally {
+            Latency.record("PhysDB.saveProtections", startTime);
+        }
+    }
+
+    /**
+     * Write the owner and rights of protections whose player names were converted to UUIDs. A row is only updated
+     * if it still has the owner and data the protection was loaded with, so changes made since then are kept.
+     *
+     * @param protections the converted protections
+     * @param owners the owner each protection was loaded with
+     * @param data the data each protection was loaded with, null if it was empty
+     * @return the protections whose rows were updated
+     */
+    public List<Protection> updateConvertedProtections(List<Protection> protections, List<String> owners, List<String> data) {
+        long startTime = System.nanoTime();
+
+        try {
+            List<Protection> updated = new ArrayList<Protection>(protections.size());
+
+            if (protections.isEmpty()) {
+                return updated;
+            }
+
+            try {
+                String sql = "UPDATE " + prefix + "protections SET owner = ?, data = ? WHERE id = ? AND owner = ? AND ";
+                PreparedStatement withData = prepare(sql + "data = ?");
+                PreparedStatement withoutData = prepare(sql + "data IS NULL");
+                List<Protection> batchWithData = new ArrayList<Protection>();
+                List<Protection> batchWithoutData = new ArrayList<Protection>();
+
+                for (int index = 0; index < protections.size(); index++) {
+                    Protection protection = protections.get(index);
+                    String loadedData = data.get(index);
+                    PreparedStatement statement = loadedData != null ? withData : withoutData;
+
+                    statement.setString(1, protection.getOwner());
+                    statement.setString(2, protection.encodeData());
+                    statement.setInt(3, protection.getId());
+                    statement.setString(4, owners.get(index));
+
+                    if (loadedData != null) {
+                        statement.setString(5, loadedData);
+                        batchWithData.add(protection);
+                    } else {
+                        batchWithoutData.add(protection);
+                    }
+
+                    statement.addBatch();
+                }
+
+                if (!batchWithData.isEmpty()) {
+                    addUpdated(batchWithData, withData.executeBatch(), updated);
+                }
+
+                if (!batchWithoutData.isEmpty()) {
+                    addUpdated(batchWithoutData, withoutData.executeBatch(), updated);
+                }
+            } catch (SQLException e) {
+                printException(e);
+            }
+
+            return updated;
+        } finally {
+            Latency.record("PhysDB.updateConvertedProtections", startTime);
+        }
+    }
+
+    /**
+     * Collect the protections whose rows were changed by a batch
+     *
+     * @param batch the protections in the order they were added to the batch
+     * @param counts the update counts returned by executeBatch
+     * @param updated the protections that were changed are added to this
+     */
+    private void addUpdated(List<Protection> batch, int[] counts, List<Protection> updated) {
+        for (int index = 0; index < counts.length && index < batch.size(); index++) {
+            if (counts[index] > 0 || counts[index] == Statement.SUCCESS_NO_INFO) {
+                updated.add(batch.get(index));
+            }
+        }
+    }
+
+    /**
+     * Count the rows changed by a batch
+     *
+     * @param counts the update counts returned by executeBatch
+     * @return
+     */
+    private int countUpdated(int[] counts) {
+        int updated = 0;
+
+        for (int count : counts) {
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                updated += count > 0 ? count : 1;
+            }
+        }
+
+        return updated;
+    }
+
+    /**
+     * Bind a protection's values to a statement created from {@link #SAVE_PROTECTION_SQL}
+     *
+     * @param statement
+     * @param protection
+     */
+    private void bindProtection(PreparedStatement statement, Protection protection) throws SQLException {
+        statement.setInt(1, protection.getId());
+        statement.setInt(2, protection.getType().ordinal());
+        statement.setInt(3, protection.getBlockId());
+        statement.setString(4, protection.getWorld());
+        statement.setString(5, protection.encodeData());
+        statement.setString(6, protection.getOwner());
+        statement.setString(7, protection.getPassword());
+        statement.setInt(8, protection.getX());
+        statement.setInt(9, protection.getY());
+        statement.setInt(10, protection.getZ());
+        statement.setString(11, protection.getCreation());
+        statement.setLong(12, protection.getLastAccessed());
+    }
+
     /**
      * Free a chest from protection
      *
      * @param protectionId the protection Id
      */
     public void removeProtection(int protectionId) {
+        long startTime = System.nanoTime();
+
         try {
-            PreparedStatement statement = prepare("DELETE FROM " + prefix + "protections WHERE id = ?");
-            statement.setInt(1, protectionId);
+            try {
+                PreparedStatement statement = prepare("DELETE FROM " + prefix + "protections WHERE id = ?");
+                statement.setInt(1, protectionId);
 
-            int affected = statement.executeUpdate();
+                int affected = statement.executeUpdate();
 
-            if (affected >= 1) {
-                protectionCount -= affected;
+                if (affected >= 1) {
+                    protectionCount -= affected;
+                }
+            } catch (SQLException e) {
+                printException(e);
             }
-        } catch (SQLException e) {
-            printException(e);
+
+            // removeProtectionHistory(protectionId);
+        } finally {
+            Latency.record("PhysDB.removeProtection", startTime);
+        }
+    }
+
+    /**
+     * Remove a list of protections and mark their history as inactive. The protections are deleted with one
+     * batched statement so it is known which of them were removed; the history is updated for those ids in fixed
+     * size batches, a partial batch padded by repeating its last id so the same statement is reused.
+     *
+     * @param protectionIds
+     * @return the ids of the protections that were removed
+     * @throws SQLException if the protections could not be removed
+     */
+    public List<Integer> removeProtections(List<Integer> protectionIds) throws SQLException {
+        long startTime = System.nanoTime();
+
+        try {
+            List<Integer> removed = new ArrayList<Integer>(protectionIds.size());
+
+            if (protectionIds.isEmpty()) {
+                return removed;
+            }
+
+            PreparedStatement deleteProtection = prepare("DELETE FROM " + prefix + "protections WHERE id = ?");
+
+            for (int protectionId : protectionIds) {
+                deleteProtection.setInt(1, protectionId);
+                deleteProtection.addBatch();
+            }
+
+            int[] counts = deleteProtection.executeBatch();
+
+            for (int index = 0; index < counts.length; index++) {
+                if (counts[index] > 0 || counts[index] == Statement.SUCCESS_NO_INFO) {
+                    removed.add(protectionIds.get(index));
+                }
+            }
+
+            if (!removed.isEmpty()) {
+                StringBuilder placeholders = new StringBuilder("?");
+                for (int index = 1; index < REMOVE_BATCH_SIZE; index++) {
+                    placeholders.append(", ?");
+                }
+
+                PreparedStatement deactivateHistory = prepare("UPDATE " + prefix + "history SET status = " + History.Status.INACTIVE.ordinal() + " WHERE protectionId IN (" + placeholders + ")");
+
+                for (int start = 0; start < removed.size(); start += REMOVE_BATCH_SIZE) {
+                    List<Integer> batch = removed.subList(start, Math.min(start + REMOVE_BATCH_SIZE, removed.size()));
+
+                    for (int index = 0; index < REMOVE_BATCH_SIZE; index++) {
+                        deactivateHistory.setInt(index + 1, batch.get(Math.min(index, batch.size() - 1)));
+                    }
+
+                    deactivateHistory.executeUpdate();
+                }
+            }
+
+            protectionCount -= removed.size();
+            return removed;
+        } finally {
+            Latency.record("PhysDB.removeProtections", startTime);
         }
+    }
 
-        // removeProtectionHistory(protectionId);
+    /**
+     * Find which of a list of protections no longer exist, e.g. to tell what a failed call to
+     * {@link #removeProtections(List)} removed before it failed
+     *
+     * @param protectionIds
+     * @return the ids of the protections that do not exist
+     * @throws SQLException if the protections could not be looked up
+     */
+    public List<Integer> findRemovedProtections(List<Integer> protectionIds) throws SQLException {
+        List<Integer> removed = new ArrayList<Integer>();
+
+        if (protectionIds.isEmpty()) {
+            return removed;
+        }
+
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int index = 1; index < REMOVE_BATCH_SIZE; index++) {
+            placeholders.append(", ?");
+        }
+
+        PreparedStatement statement = prepare("SELECT id FROM " + prefix + "protections WHERE id IN (" + placeholders + ")");
+        Set<Integer> existing = new HashSet<Integer>();
+
+        for (int start = 0; start < protectionIds.size(); start += REMOVE_BATCH_SIZE) {
+            List<Integer> batch = protectionIds.subList(start, Math.min(start + REMOVE_BATCH_SIZE, protectionIds.size()));
+
+            for (int index = 0; index < REMOVE_BATCH_SIZE; index++) {
+                statement.setInt(index + 1, batch.get(Math.min(index, batch.size() - 1)));
+            }
+
+            ResultSet set = statement.executeQuery();
+
+            while (set.next()) {
+                existing.add(set.getInt("id"));
+            }
+
+            set.close();
+        }
+
+        for (int protectionId : protectionIds) {
+            if (!existing.contains(protectionId)) {
+                removed.add(protectionId);
+            }
+        }
+
+        return removed;
     }
 
     public void removeProtectionHistory(int protectionId) {
@@ -1732,6 +2677,7 @@ public class PhysDB extends Database {
             Statement statement = connection.createStatement();
             statement.executeUpdate("DELETE FROM " + prefix + "protections");
             protectionCount = 0;
+            LWC.getInstance().getProtectionCountCache().load();
             statement.close();
         } catch (SQLException e) {
             printException(e);
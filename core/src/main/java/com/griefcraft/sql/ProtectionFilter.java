@@ -0,0 +1,371 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.sql;
+
+import com.griefcraft.model.Protection;
+import com.griefcraft.util.UUIDRegistry;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects protections for bulk operations such as purging and expiring. Every value is bound to the query as a
+ * parameter; only the shape of the WHERE clause depends on which filters are set.
+ */
+public class ProtectionFilter {
+
+    /**
+     * The owners the protections must have. Empty to match any owner.
+     */
+    private final Set<String> owners = new LinkedHashSet<String>();
+
+    /**
+     * Player names whose protections are matched. These are resolved to owners by the code running the filter.
+     */
+    private final List<String> players = new ArrayList<String>();
+
+    /**
+     * The world the protections must be in
+     */
+    private String world = null;
+
+    /**
+     * If the protections must be within the region bounds
+     */
+    private boolean region = false;
+
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+
+    /**
+     * The protection type to match
+     */
+    private Protection.Type type = null;
+
+    /**
+     * Only protections last accessed at or before this time (in seconds) are matched; -1 to ignore access times
+     */
+    private long lastAccessedBefore = -1;
+
+    /**
+     * Match protections owned by the given owner (a name or a UUID, as stored in the database). Names are matched
+     * regardless of case, UUIDs exactly.
+     *
+     * @param owner
+     * @return
+     */
+    public ProtectionFilter addOwner(String owner) {
+        owners.add(owner);
+        return this;
+    }
+
+    /**
+     * Match protections owned by the given player. The name is resolved to the owners it may be stored as when
+     * the filter is run.
+     *
+     * @param player
+     * @return
+     */
+    public ProtectionFilter addPlayer(String player) {
+        players.add(player);
+        return this;
+    }
+
+    /**
+     * Match protections in a world
+     *
+     * @param world
+     * @return
+     */
+    public ProtectionFilter setWorld(String world) {
+        this.world = world;
+        return this;
+    }
+
+    /**
+     * Match protections within a cuboid region of a world. The bounds are inclusive.
+     *
+     * @param world
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return
+     */
+    public ProtectionFilter setRegion(String world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.world = world;
+        this.region = true;
+        this.minX = Math.min(minX, maxX);
+        this.minY = Math.min(minY, maxY);
+        this.minZ = Math.min(minZ, maxZ);
+        this.maxX = Math.max(minX, maxX);
+        this.maxY = Math.max(minY, maxY);
+        this.maxZ = Math.max(minZ, maxZ);
+        return this;
+    }
+
+    /**
+     * Match protections of a type
+     *
+     * @param type
+     * @return
+     */
+    public ProtectionFilter setType(Protection.Type type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * Match protections that were last accessed at or before a time
+     *
+     * @param time the time in seconds
+     * @return
+     */
+    public ProtectionFilter setLastAccessedBefore(long time) {
+        this.lastAccessedBefore = time;
+        return this;
+    }
+
+    /**
+     * @return the owners the protections must have
+     */
+    public Set<String> getOwners() {
+        return Collections.unmodifiableSet(owners);
+    }
+
+    /**
+     * @return the player names whose protections are matched
+     */
+    public List<String> getPlayers() {
+        return Collections.unmodifiableList(players);
+    }
+
+    /**
+     * @return the world the protections must be in
+     */
+    public String getWorld() {
+        return world;
+    }
+
+    /**
+     * @return the protection type to match
+     */
+    public Protection.Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the time protections must have been last accessed at or before, or -1
+     */
+    public long getLastAccessedBefore() {
+        return lastAccessedBefore;
+    }
+
+    /**
+     * Protections matched by access time are paged in (last_accessed, id) order so the last_accessed index is used;
+     * everything else is paged by id
+     *
+     * @return true if the protections are paged by their last access time
+     */
+    public boolean isPagedByLastAccess() {
+        return lastAccessedBefore >= 0;
+    }
+
+    /**
+     * Check if a protection loaded from the database still matches the filter
+     *
+     * @param protection
+     * @return
+     */
+    public boolean matches(Protection protection) {
+        if (isPagedByLastAccess() && protection.getLastAccessed() > lastAccessedBefore) {
+            return false;
+        }
+
+        return type == null || protection.getType() == type;
+    }
+
+    /**
+     * Build the conditions of the WHERE clause, including the paging condition. The parameters are bound in the
+     * same order by {@link #bind(PreparedStatement, long, int)}.
+     *
+     * @return
+     */
+    String toWhereClause() {
+        StringBuilder builder = new StringBuilder();
+
+        if (!owners.isEmpty()) {
+            Set<String> uuids = getOwnerUUIDs();
+            Set<String> names = getOwnerNames();
+
+            builder.append("(");
+
+            if (!uuids.isEmpty()) {
+                appendIn(builder, "owner", uuids.size());
+            }
+
+            if (!names.isEmpty()) {
+                if (!uuids.isEmpty()) {
+                    builder.append(" OR ");
+                }
+
+                appendIn(builder, "LOWER(owner)", names.size());
+            }
+
+            builder.append(") AND ");
+        }
+
+        if (world != null) {
+            builder.append("world = ? AND ");
+        }
+
+        if (region) {
+            builder.append("x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ? AND ");
+        }
+
+        if (type != null) {
+            builder.append("type = ? AND ");
+        }
+
+        if (isPagedByLastAccess()) {
+            builder.append("last_accessed <= ? AND last_accessed >= ? AND (last_accessed > ? OR id > ?)");
+        } else {
+            builder.append("id > ?");
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @return the ORDER BY columns that match the paging condition
+     */
+    String getOrder() {
+        return isPagedByLastAccess() ? "last_accessed, id" : "id";
+    }
+
+    /**
+     * Bind the filter's parameters to a statement built from {@link #toWhereClause()}
+     *
+     * @param statement
+     * @param afterLastAccessed the last access time of the last protection in the previous page, or -1
+     * @param afterId the id of the last protection in the previous page
+     * @return the index of the next parameter
+     */
+    int bind(PreparedStatement statement, long afterLastAccessed, int afterId) throws SQLException {
+        int index = 1;
+
+        if (!owners.isEmpty()) {
+            for (String owner : getOwnerUUIDs()) {
+                statement.setString(index++, owner);
+            }
+
+            for (String owner : getOwnerNames()) {
+                statement.setString(index++, owner);
+            }
+        }
+
+        if (world != null) {
+            statement.setString(index++, world);
+        }
+
+        if (region) {
+            statement.setInt(index++, minX);
+            statement.setInt(index++, maxX);
+            statement.setInt(index++, minY);
+            statement.setInt(index++, maxY);
+            statement.setInt(index++, minZ);
+            statement.setInt(index++, maxZ);
+        }
+
+        if (type != null) {
+            statement.setInt(index++, type.ordinal());
+        }
+
+        if (isPagedByLastAccess()) {
+            statement.setLong(index++, lastAccessedBefore);
+            statement.setLong(index++, Math.max(0, afterLastAccessed));
+            statement.setLong(index++, afterLastAccessed);
+        }
+
+        statement.setInt(index++, afterId);
+        return index;
+    }
+
+    /**
+     * @return the owners that are UUIDs, which are matched exactly
+     */
+    private Set<String> getOwnerUUIDs() {
+        Set<String> uuids = new LinkedHashSet<String>();
+
+        for (String owner : owners) {
+            if (UUIDRegistry.isValidUUID(owner)) {
+                uuids.add(owner);
+            }
+        }
+
+        return uuids;
+    }
+
+    /**
+     * @return the owners that are names, lowercased as they are matched regardless of case
+     */
+    private Set<String> getOwnerNames() {
+        Set<String> names = new LinkedHashSet<String>();
+
+        for (String owner : owners) {
+            if (!UUIDRegistry.isValidUUID(owner)) {
+                names.add(owner.toLowerCase());
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Append an IN condition with the given amount of parameters
+     *
+     * @param builder
+     * @param column
+     * @param count
+     */
+    private static void appendIn(StringBuilder builder, String column, int count) {
+        builder.append(column).append(" IN (?");
+        for (int index = 1; index < count; index++) {
+            builder.append(", ?");
+        }
+        builder.append(")");
+    }
+
+}
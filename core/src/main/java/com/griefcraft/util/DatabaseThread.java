@@ -32,9 +32,10 @@ import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
 import com.griefcraft.sql.Database;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class DatabaseThread implements Runnable {
 
@@ -44,9 +45,15 @@ public class DatabaseThread implements Runnable {
     private final LWC lwc;
 
     /**
-     * The protections waiting to be updated in the database
+     * The protections waiting to be updated in the database, keyed by protection id. Queuing a protection that
+     * is already waiting replaces the older entry so each protection is only written once per flush.
      */
-    private final Queue<Protection> updateQueue = new ConcurrentLinkedQueue<Protection>();
+    private final Map<Integer, Protection> updateQueue = new LinkedHashMap<Integer, Protection>();
+
+    /**
+     * Held while the queue is being written so flushes cannot overlap
+     */
+    private final Object flushLock = new Object();
 
     /**
      * The thread we are running in
@@ -56,12 +63,17 @@ public class DatabaseThread implements Runnable {
     /**
      * If the database thread is active and running
      */
-    private boolean running = false;
+    private volatile boolean running = false;
+
+    /**
+     * If a flush was requested before the flush interval elapsed
+     */
+    private volatile boolean flushRequested = false;
 
     /**
      * The last time the queue was flushed to the database
      */
-    private long lastFlush = -1L;
+    private volatile long lastFlush = -1L;
 
     /**
      * The time the next keepalive packet will be sent at
@@ -73,12 +85,53 @@ public class DatabaseThread implements Runnable {
      */
     private int pingInterval = 0;
 
+    /**
+     * The amount of queued protections that triggers a flush before the flush interval elapses
+     */
+    private int flushThreshold = 0;
+
+    /**
+     * The amount of times a queued protection replaced one that was already waiting
+     */
+    private volatile long coalesced = 0;
+
+    /**
+     * The amount of protections written to the database
+     */
+    private volatile long flushed = 0;
+
+    /**
+     * The amount of flushes that wrote at least one protection
+     */
+    private volatile long flushes = 0;
+
+    /**
+     * The total time spent in flushes that wrote at least one protection, in milliseconds
+     */
+    private volatile long totalFlushTime = 0;
+
+    /**
+     * The time the last flush took, in milliseconds
+     */
+    private volatile long lastFlushTime = 0;
+
+    /**
+     * The longest time a flush took, in milliseconds
+     */
+    private volatile long maxFlushTime = 0;
+
+    /**
+     * The amount of protections written by the last flush
+     */
+    private volatile int lastFlushSize = 0;
+
     public DatabaseThread(LWC lwc) {
         this.lwc = lwc;
         this.running = true;
         this.lastFlush = System.currentTimeMillis();
-        this.thread.start();
         pingInterval = lwc.getConfiguration().getInt("database.ping_interval", 300);
+        flushThreshold = Math.max(1, lwc.getConfiguration().getInt("core.flushQueueSize", 1000));
+        this.thread.start();
     }
 
     /**
@@ -87,7 +140,15 @@ public class DatabaseThread implements Runnable {
      * @param protection
      */
     public void addProtection(Protection protection) {
-        updateQueue.offer(protection);
+        synchronized (updateQueue) {
+            if (updateQueue.put(protection.getId(), protection) != null) {
+                coalesced ++;
+            }
+
+            if (updateQueue.size() >= flushThreshold) {
+                updateQueue.notify();
+            }
+        }
     }
 
     /**
@@ -96,7 +157,21 @@ public class DatabaseThread implements Runnable {
      * @param protection
      */
     public void removeProtection(Protection protection) {
-        updateQueue.remove(protection);
+        synchronized (updateQueue) {
+            updateQueue.remove(protection.getId());
+        }
+    }
+
+    /**
+     * Check if a protection is waiting to be flushed to the database
+     *
+     * @param protection
+     * @return true if the protection is queued to be updated
+     */
+    public boolean contains(Protection protection) {
+        synchronized (updateQueue) {
+            return updateQueue.containsKey(protection.getId());
+        }
     }
 
     /**
@@ -105,7 +180,59 @@ public class DatabaseThread implements Runnable {
      * @return the amount of protections queued to be updated
      */
     public int size() {
-        return updateQueue.size();
+        synchronized (updateQueue) {
+            return updateQueue.size();
+        }
+    }
+
+    /**
+     * @return the amount of times a queued protection replaced one that was already waiting
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return the amount of protections written to the database
+     */
+    public long getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * @return the amount of flushes that wrote at least one protection
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return the time the last flush took, in milliseconds
+     */
+    public long getLastFlushTime() {
+        return lastFlushTime;
+    }
+
+    /**
+     * @return the amount of protections written by the last flush
+     */
+    public int getLastFlushSize() {
+        return lastFlushSize;
+    }
+
+    /**
+     * @return the longest time a flush took, in milliseconds
+     */
+    public long getMaxFlushTime() {
+        return maxFlushTime;
+    }
+
+    /**
+     * @return the average time a flush takes, in milliseconds
+     */
+    public double getAverageFlushTime() {
+        long count = flushes;
+        return count == 0 ? 0 : (double) totalFlushTime / count;
     }
 
     /**
@@ -126,37 +253,95 @@ public class DatabaseThread implements Runnable {
      * Recommend a flush as soon as possible. This does not guarantee the database will be flushed immediately.
      */
     public void flush() {
-        lastFlush = System.currentTimeMillis() - 9999999L;
+        synchronized (updateQueue) {
+            flushRequested = true;
+            updateQueue.notify();
+        }
     }
 
     /**
      * Flush the protections to the database
      */
     private void flushDatabase() {
-        if (!updateQueue.isEmpty()) {
-            Database database = lwc.getPhysicalDatabase();
-            database.setAutoCommit(false);
-            database.setUseStatementCache(false);
-
-            // Begin iterating through the queue
-            Iterator<Protection> iter = updateQueue.iterator();
-            while (iter.hasNext()) {
-                Protection protection = iter.next();
-                iter.remove();
-                protection.saveNow();
+        synchronized (flushLock) {
+            List<Protection> protections;
+
+            synchronized (updateQueue) {
+                protections = new ArrayList<Protection>(updateQueue.values());
+                updateQueue.clear();
+                flushRequested = false;
             }
 
-            // Commit the changes to the database
-            database.setUseStatementCache(true);
-            database.setAutoCommit(true);
-        }
+            if (!protections.isEmpty()) {
+                long start = System.currentTimeMillis();
+                Database database = lwc.getPhysicalDatabase();
+                database.setAutoCommit(false);
 
-        // update the time we last flushed at
-        lastFlush = System.currentTimeMillis();
+                try {
+                    // Encode the protections and write the modified ones in batches
+                    List<Protection> modified = new ArrayList<Protection>(protections.size());
+                    for (Protection protection : protections) {
+                        if (protection.prepareSave()) {
+                            modified.add(protection);
+                        }
+                    }
 
-        if (System.currentTimeMillis() > nextKeepalivePacket && lwc.getPhysicalDatabase().isConnected()) {
-            nextKeepalivePacket = System.currentTimeMillis() + (pingInterval * 1000);
-            lwc.getPhysicalDatabase().pingDatabase();
+                    lwc.getPhysicalDatabase().saveProtections(modified);
+
+                    for (Protection protection : protections) {
+                        protection.checkAndSaveHistory();
+                    }
+                } catch (Exception e) {
+                    // write all of it again with the next flush; a shared connection cannot be rolled back without
+                    // losing other threads' changes, so what was written is committed and written again
+                    if (database.hasOwnConnection()) {
+                        database.rollback();
+                    }
+
+                    requeue(protections);
+
+                    lwc.log("Failed to flush " + protections.size() + " protection updates, retrying with the next flush");
+                    e.printStackTrace();
+                } finally {
+                    // Commit the changes to the database
+                    database.setAutoCommit(true);
+                }
+
+                long time = System.currentTimeMillis() - start;
+                lastFlushTime = time;
+                lastFlushSize = protections.size();
+                totalFlushTime += time;
+                flushed += protections.size();
+                flushes ++;
+
+                if (time > maxFlushTime) {
+                    maxFlushTime = time;
+                }
+            }
+
+            // update the time we last flushed at
+            lastFlush = System.currentTimeMillis();
+
+            if (System.currentTimeMillis() > nextKeepalivePacket && lwc.getPhysicalDatabase().isConnected()) {
+                nextKeepalivePacket = System.currentTimeMillis() + (pingInterval * 1000);
+                lwc.getPhysicalDatabase().pingDatabase();
+            }
+        }
+    }
+
+    /**
+     * Queue protections from a failed flush again. Protections that were queued again since then already hold
+     * their latest changes and keep their place.
+     *
+     * @param protections
+     */
+    private void requeue(List<Protection> protections) {
+        synchronized (updateQueue) {
+            for (Protection protection : protections) {
+                if (!updateQueue.containsKey(protection.getId())) {
+                    updateQueue.put(protection.getId(), protection);
+                }
+            }
         }
     }
 
@@ -169,18 +354,25 @@ public class DatabaseThread implements Runnable {
                 interval = 120;
             }
 
-            long currentTime = System.currentTimeMillis();
             long intervalMilliseconds = interval * 1000L;
 
-            // compare the current time to the last flush
-            if (currentTime - lastFlush > intervalMilliseconds) {
-                flushDatabase();
-            }
-
             try {
-                Thread.sleep(1000L);
+                // sleep until the interval elapses, the queue fills up or a flush is requested
+                synchronized (updateQueue) {
+                    long remaining = lastFlush + intervalMilliseconds - System.currentTimeMillis();
+
+                    if (remaining > 0 && !flushRequested && updateQueue.size() < flushThreshold) {
+                        updateQueue.wait(remaining);
+                    }
+                }
             } catch (InterruptedException e) {
                 running = false;
+                break;
+            }
+
+            // compare the current time to the last flush
+            if (flushRequested || size() >= flushThreshold || System.currentTimeMillis() - lastFlush >= intervalMilliseconds) {
+                flushDatabase();
             }
         }
     }
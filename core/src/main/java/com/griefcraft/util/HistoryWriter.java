@@ -0,0 +1,446 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.History;
+import com.griefcraft.sql.PhysDB;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes history to the database in batches. History objects are queued in the order they were saved and the
+ * queue is drained by one thread, new ones with multi-row inserts and existing ones with batched updates. The
+ * queue is bounded; once it is full the thread saving the history writes it itself.
+ * <p/>
+ * Only used with databases that give the writer a connection of its own. SQLite shares one connection between
+ * every thread, so there history is written by the thread that saves it; if the writer has to share a connection
+ * because the pool is used up, it writes the history one at a time instead of in batches.
+ */
+public class HistoryWriter implements Runnable {
+
+    /**
+     * How often the queue is drained, in milliseconds
+     */
+    private static final long FLUSH_INTERVAL = 1000L;
+
+    /**
+     * The amount of queued history objects that causes the queue to be drained before the interval elapses
+     */
+    private static final int FLUSH_THRESHOLD = 500;
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The history objects waiting to be written. Queuing an object that is already waiting does nothing; the
+     * latest state of it is written.
+     */
+    private final Set<History> queue = new LinkedHashSet<History>();
+
+    /**
+     * The history objects being written right now. Guarded by the queue.
+     */
+    private List<History> writing = Collections.emptyList();
+
+    /**
+     * Held while the queue is being written so writes cannot overlap
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The maximum amount of queued history objects
+     */
+    private final int capacity;
+
+    /**
+     * The thread we are running in
+     */
+    private final Thread thread = new Thread(this, "LWC History Writer");
+
+    /**
+     * If the history writer is active and running
+     */
+    private volatile boolean running = false;
+
+    /**
+     * If a flush was requested before the flush interval elapsed
+     */
+    private volatile boolean flushRequested = false;
+
+    /**
+     * The amount of history objects that were queued
+     */
+    private volatile long queued = 0;
+
+    /**
+     * The amount of times a history object was queued while it was already waiting
+     */
+    private volatile long coalesced = 0;
+
+    /**
+     * The amount of history objects written by the caller because the queue was full
+     */
+    private volatile long overflowed = 0;
+
+    /**
+     * The amount of history objects written to the database
+     */
+    private volatile long written = 0;
+
+    /**
+     * The amount of batches written
+     */
+    private volatile long batches = 0;
+
+    /**
+     * The most history objects that were waiting at once
+     */
+    private volatile int peakSize = 0;
+
+    /**
+     * The total time spent writing batches, in milliseconds
+     */
+    private volatile long totalBatchTime = 0;
+
+    /**
+     * The longest time a batch took, in milliseconds
+     */
+    private volatile long maxBatchTime = 0;
+
+    public HistoryWriter(LWC lwc) {
+        this.lwc = lwc;
+        this.capacity = Math.max(FLUSH_THRESHOLD, lwc.getConfiguration().getInt("core.historyQueueSize", 10000));
+        this.running = true;
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a history object to be written
+     *
+     * @param history
+     */
+    public void add(History history) {
+        boolean full = false;
+
+        synchronized (queue) {
+            if (queue.contains(history)) {
+                coalesced ++;
+                return;
+            }
+
+            // the queue is full; write it ourselves unless it is being written right now
+            if (running && queue.size() >= capacity && !writing.contains(history)) {
+                full = true;
+                overflowed ++;
+                queue.notify();
+            } else {
+                if (!history.doesExist()) {
+                    history.setTimestamp(System.currentTimeMillis() / 1000L);
+                }
+
+                queue.add(history);
+                queued ++;
+
+                if (queue.size() > peakSize) {
+                    peakSize = queue.size();
+                }
+
+                if (queue.size() >= FLUSH_THRESHOLD) {
+                    queue.notify();
+                }
+            }
+        }
+
+        if (full) {
+            history.writeNow();
+        } else if (!running) {
+            // the writer was stopped so there is no one else to write it
+            writeQueued();
+        }
+    }
+
+    /**
+     * Get the history objects for a protection that are waiting to be inserted into the database
+     *
+     * @param protectionId
+     * @return
+     */
+    public List<History> getPending(int protectionId) {
+        List<History> pending = new ArrayList<History>();
+
+        synchronized (queue) {
+            for (History history : writing) {
+                if (history.getProtectionId() == protectionId && !history.doesExist()) {
+                    pending.add(history);
+                }
+            }
+
+            for (History history : queue) {
+                if (history.getProtectionId() == protectionId && !history.doesExist() && !pending.contains(history)) {
+                    pending.add(history);
+                }
+            }
+        }
+
+        return pending;
+    }
+
+    /**
+     * @return the amount of history objects waiting to be written
+     */
+    public int size() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * @return the maximum amount of queued history objects
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the amount of history objects that were queued
+     */
+    public long getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the amount of times a history object was queued while it was already waiting
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return the amount of history objects written by the caller because the queue was full
+     */
+    public long getOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return the amount of history objects written to the database
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the amount of batches written
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the most history objects that were waiting at once
+     */
+    public int getPeakSize() {
+        return peakSize;
+    }
+
+    /**
+     * @return the longest time a batch took, in milliseconds
+     */
+    public long getMaxBatchTime() {
+        return maxBatchTime;
+    }
+
+    /**
+     * @return the average time a batch takes, in milliseconds
+     */
+    public double getAverageBatchTime() {
+        long count = batches;
+        return count == 0 ? 0 : (double) totalBatchTime / count;
+    }
+
+    /**
+     * Recommend the queue is written as soon as possible
+     */
+    public void flush() {
+        synchronized (queue) {
+            flushRequested = true;
+            queue.notify();
+        }
+    }
+
+    /**
+     * Stop the history writer and write the rest of the queue
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+
+        writeQueued();
+    }
+
+    /**
+     * Write the queued history objects to the database
+     */
+    private void writeQueued() {
+        synchronized (writeLock) {
+            List<History> history;
+
+            synchronized (queue) {
+                history = new ArrayList<History>(queue);
+                queue.clear();
+                writing = history;
+                flushRequested = false;
+            }
+
+            if (history.isEmpty()) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            PhysDB database = lwc.getPhysicalDatabase();
+
+            if (!database.hasOwnConnection()) {
+                writeSeparately(history);
+                return;
+            }
+
+            // the revisions being written; anything modified after this point will still need to be saved
+            int[] revisions = new int[history.size()];
+            boolean[] inserted = new boolean[history.size()];
+            List<History> inserts = new ArrayList<History>();
+            List<History> updates = new ArrayList<History>();
+
+            for (int i = 0; i < history.size(); i++) {
+                History item = history.get(i);
+                revisions[i] = item.getRevision();
+                inserted[i] = !item.doesExist();
+
+                if (inserted[i]) {
+                    inserts.add(item);
+                } else {
+                    updates.add(item);
+                }
+            }
+
+            database.setAutoCommit(false);
+
+            try {
+                int[] ids = database.insertHistory(inserts);
+                database.updateHistory(updates);
+
+                int insertIndex = 0;
+                for (int i = 0; i < history.size(); i++) {
+                    history.get(i).onSaved(revisions[i], inserted[i] ? ids[insertIndex++] : 0);
+                }
+
+                written += history.size();
+            } catch (Exception e) {
+                // nothing from this batch is kept, so none of it is marked as saved and all of it is written again
+                database.rollback();
+
+                synchronized (queue) {
+                    queue.addAll(history);
+                }
+
+                lwc.log("Failed to write " + history.size() + " history updates, retrying with the next batch");
+                e.printStackTrace();
+            } finally {
+                database.setAutoCommit(true);
+
+                synchronized (queue) {
+                    writing = Collections.emptyList();
+                }
+            }
+
+            long time = System.currentTimeMillis() - start;
+            totalBatchTime += time;
+            batches ++;
+
+            if (time > maxBatchTime) {
+                maxBatchTime = time;
+            }
+        }
+    }
+
+    /**
+     * Write history objects one at a time without a transaction. Used when the connection is shared with other
+     * threads, which would join the transaction and could be reported the ids of each other's inserts.
+     *
+     * @param history
+     */
+    private void writeSeparately(List<History> history) {
+        int index = 0;
+
+        try {
+            for (; index < history.size(); index++) {
+                history.get(index).writeNow();
+            }
+        } catch (Exception e) {
+            synchronized (queue) {
+                queue.addAll(history.subList(index, history.size()));
+            }
+
+            lwc.log("Failed to write " + (history.size() - index) + " history updates, retrying with the next batch");
+            e.printStackTrace();
+        } finally {
+            written += index;
+
+            synchronized (queue) {
+                writing = Collections.emptyList();
+            }
+        }
+    }
+
+    public void run() {
+        try {
+            while (running) {
+                synchronized (queue) {
+                    if (!flushRequested && queue.size() < FLUSH_THRESHOLD) {
+                        queue.wait(FLUSH_INTERVAL);
+                    }
+                }
+
+                writeQueued();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } finally {
+            lwc.getPhysicalDatabase().releaseConnection();
+        }
+    }
+
+}
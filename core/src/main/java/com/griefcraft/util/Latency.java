@@ -0,0 +1,196 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The latency histograms kept for module events, commands and database calls. Names are prefixed with what they
+ * measure: event., module., command. and PhysDB.
+ */
+public class Latency {
+
+    /**
+     * The file the histograms are dumped to
+     */
+    public static final String DUMP_FILE = "plugins/LWC/latency.json";
+
+    /**
+     * The histograms, keyed by name
+     */
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * The time the histograms were last reset at
+     */
+    private static volatile long resetTime = System.currentTimeMillis();
+
+    /**
+     * Get a histogram, creating it if it does not exist yet
+     *
+     * @param name
+     * @return
+     */
+    public static LatencyHistogram get(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram(name);
+            histogram = histograms.putIfAbsent(name, created);
+
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Record the time since a {@link System#nanoTime()} value
+     *
+     * @param name
+     * @param startNanos
+     */
+    public static void record(String name, long startNanos) {
+        get(name).recordSince(startNanos);
+    }
+
+    /**
+     * Get the histograms, the ones with the most total time first
+     *
+     * @return
+     */
+    public static List<LatencyHistogram> getHistograms() {
+        List<LatencyHistogram> sorted = new ArrayList<LatencyHistogram>(histograms.values());
+
+        Collections.sort(sorted, new Comparator<LatencyHistogram>() {
+            public int compare(LatencyHistogram o1, LatencyHistogram o2) {
+                long total1 = o1.getTotal();
+                long total2 = o2.getTotal();
+                return total1 < total2 ? 1 : (total1 == total2 ? o1.getName().compareTo(o2.getName()) : -1);
+            }
+        });
+
+        return sorted;
+    }
+
+    /**
+     * Reset every histogram
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+
+        resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the time the histograms were last reset at
+     */
+    public static long getResetTime() {
+        return resetTime;
+    }
+
+    /**
+     * Write every histogram to a JSON file. Bucket bounds and values are in microseconds; only buckets with
+     * values in them are written.
+     *
+     * @param file
+     */
+    @SuppressWarnings("unchecked")
+    public static void dump(File file) throws IOException {
+        JSONObject root = new JSONObject();
+        root.put("time", System.currentTimeMillis());
+        root.put("since", resetTime);
+
+        JSONArray entries = new JSONArray();
+
+        for (LatencyHistogram histogram : getHistograms()) {
+            JSONObject entry = new JSONObject();
+            entry.put("name", histogram.getName());
+            entry.put("count", histogram.getCount());
+            entry.put("total", histogram.getTotal());
+            entry.put("mean", histogram.getMean());
+            entry.put("max", histogram.getMax());
+            entry.put("p50", histogram.getPercentile(50));
+            entry.put("p90", histogram.getPercentile(90));
+            entry.put("p99", histogram.getPercentile(99));
+            entry.put("p999", histogram.getPercentile(99.9));
+
+            JSONArray buckets = new JSONArray();
+            long[] counts = histogram.getBuckets();
+
+            for (int index = 0; index < counts.length; index++) {
+                if (counts[index] == 0) {
+                    continue;
+                }
+
+                JSONArray bucket = new JSONArray();
+                bucket.add(LatencyHistogram.getBucketLowerBound(index));
+                bucket.add(LatencyHistogram.getBucketUpperBound(index));
+                bucket.add(counts[index]);
+                buckets.add(bucket);
+            }
+
+            entry.put("buckets", buckets);
+            entries.add(entry);
+        }
+
+        root.put("histograms", entries);
+
+        File folder = file.getParentFile();
+        if (folder != null && !folder.exists()) {
+            folder.mkdirs();
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try {
+            root.writeJSONString(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+}
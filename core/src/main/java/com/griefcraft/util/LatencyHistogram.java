@@ -0,0 +1,246 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram that can be recorded into from any thread without locking. Values are kept in microseconds
+ * in log-linear buckets: every power of two is split into 8 buckets, so a percentile read from the histogram is
+ * within 12.5% of the real value no matter how large it is.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The amount of bits used for the buckets within each power of two
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The amount of buckets within each power of two
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest power of two tracked; longer values are counted in the last bucket (about 38 hours)
+     */
+    private static final int MAX_EXPONENT = 37;
+
+    /**
+     * The amount of buckets
+     */
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * The name of what is measured
+     */
+    private final String name;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of what is measured
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record the time since a {@link System#nanoTime()} value
+     *
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000L);
+    }
+
+    /**
+     * Record a value
+     *
+     * @param micros the value in microseconds
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+
+        long current;
+        while (micros > (current = max.get())) {
+            if (max.compareAndSet(current, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Forget everything that was recorded
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKETS; index++) {
+            buckets.set(index, 0);
+        }
+
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return the amount of values recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the values recorded, in microseconds
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the largest value recorded, in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, in microseconds
+     */
+    public double getMean() {
+        long values = count.get();
+        return values == 0 ? 0 : (double) total.get() / values;
+    }
+
+    /**
+     * Get the value that the given percentage of the recorded values are at or below
+     *
+     * @param percentile between 0 and 100
+     * @return the value in microseconds, rounded up to the top of its bucket
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = getBuckets();
+        long values = 0;
+
+        for (long bucket : snapshot) {
+            values += bucket;
+        }
+
+        if (values == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(values * Math.min(100, percentile) / 100.0));
+        long seen = 0;
+
+        for (int index = 0; index < snapshot.length; index++) {
+            seen += snapshot[index];
+
+            if (seen >= target) {
+                return Math.min(getBucketUpperBound(index), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * @return a copy of the bucket counts
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[BUCKETS];
+
+        for (int index = 0; index < BUCKETS; index++) {
+            snapshot[index] = buckets.get(index);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Get the smallest value counted in a bucket
+     *
+     * @param index
+     * @return the value in microseconds
+     */
+    public static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Get the largest value counted in a bucket
+     *
+     * @param index
+     * @return the value in microseconds
+     */
+    public static long getBucketUpperBound(int index) {
+        return index + 1 >= BUCKETS ? Long.MAX_VALUE : getBucketLowerBound(index + 1) - 1;
+    }
+
+    /**
+     * Get the bucket a value is counted in
+     *
+     * @param value
+     * @return
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+}
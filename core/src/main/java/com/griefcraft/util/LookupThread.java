@@ -0,0 +1,253 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.cache.LongObjectHashMap;
+import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads protections from the database off of the server thread. Chunks are loaded into the protection cache as a
+ * whole so lookups inside of them are answered by the cache once they arrive.
+ * <p/>
+ * Every method must be called from the server thread. Callbacks are also ran on the server thread.
+ */
+public class LookupThread {
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The executor the database queries are ran on
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The chunks currently being loaded, per world, and the tasks waiting on each of them
+     */
+    private final Map<String, LongObjectHashMap<List<Runnable>>> pending = new HashMap<String, LongObjectHashMap<List<Runnable>>>();
+
+    public LookupThread(LWC lwc) {
+        this.lwc = lwc;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LWC Lookup Thread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Called with the result of an asynchronous lookup
+     */
+    public interface Callback {
+
+        /**
+         * Called on the server thread once the lookup completes
+         *
+         * @param protection the protection that was found, or null if there is none
+         */
+        public void onLookup(Protection protection);
+
+    }
+
+    /**
+     * Find the protection at a block without blocking the server thread on the database. The block's chunk (and the
+     * chunks next to it if the block is on an edge) are loaded in the background first, so the lookup is answered
+     * by the cache; if they are already cached the callback is ran immediately.
+     *
+     * @param block
+     * @param callback
+     */
+    public void findProtection(final Block block, final Callback callback) {
+        String world = block.getWorld().getName();
+        int chunkX = block.getX() >> 4;
+        int chunkZ = block.getZ() >> 4;
+
+        // protections such as double chests can reach into the next chunk if the block is on the edge
+        int minX = (block.getX() & 15) == 0 ? chunkX - 1 : chunkX;
+        int maxX = (block.getX() & 15) == 15 ? chunkX + 1 : chunkX;
+        int minZ = (block.getZ() & 15) == 0 ? chunkZ - 1 : chunkZ;
+        int maxZ = (block.getZ() & 15) == 15 ? chunkZ + 1 : chunkZ;
+
+        final int[] remaining = new int[]{0};
+        Runnable lookup = new Runnable() {
+            public void run() {
+                if (--remaining[0] == 0) {
+                    callback.onLookup(lwc.findProtection(block));
+                }
+            }
+        };
+
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                if (prefetch(world, x, z, lookup)) {
+                    remaining[0] ++;
+                }
+            }
+        }
+
+        if (remaining[0] == 0) {
+            callback.onLookup(lwc.findProtection(block));
+        }
+    }
+
+    /**
+     * Start loading the protections in a chunk so later lookups inside of it are answered by the cache
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void prefetch(String world, int chunkX, int chunkZ) {
+        prefetch(world, chunkX, chunkZ, null);
+    }
+
+    /**
+     * Start loading a chunk unless it is already cached
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @param task ran on the server thread once the chunk is loaded, may be null
+     * @return true if the chunk is being loaded and the task will be ran later
+     */
+    private boolean prefetch(final String world, final int chunkX, final int chunkZ, Runnable task) {
+        ProtectionCache cache = lwc.getProtectionCache();
+
+        if (lwc.getPhysicalDatabase().hasAllProtectionsCached() || cache.isChunkLoaded(world, chunkX, chunkZ)) {
+            return false;
+        }
+
+        LongObjectHashMap<List<Runnable>> worldPending = pending.get(world);
+
+        if (worldPending == null) {
+            worldPending = new LongObjectHashMap<List<Runnable>>();
+            pending.put(world, worldPending);
+        }
+
+        final long key = ProtectionCache.chunkKey(chunkX, chunkZ);
+        List<Runnable> waiting = worldPending.get(key);
+
+        // the chunk is already being loaded
+        if (waiting != null) {
+            if (task != null) {
+                waiting.add(task);
+            }
+
+            return true;
+        }
+
+        waiting = new ArrayList<Runnable>(1);
+        if (task != null) {
+            waiting.add(task);
+        }
+        worldPending.put(key, waiting);
+
+        final long removals = cache.getRemovals();
+        executor.execute(new Runnable() {
+            public void run() {
+                List<Protection> protections = null;
+
+                try {
+                    protections = lwc.getPhysicalDatabase().loadChunkProtections(world, chunkX, chunkZ);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                final List<Protection> loaded = protections;
+                Bukkit.getScheduler().scheduleSyncDelayedTask(lwc.getPlugin(), new Runnable() {
+                    public void run() {
+                        complete(world, chunkX, chunkZ, key, loaded, removals);
+                    }
+                });
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Stop the lookup thread. Lookups that have not completed are dropped.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        pending.clear();
+    }
+
+    /**
+     * Cache a loaded chunk and run the tasks waiting on it. If the chunk could not be cached the tasks still run;
+     * their lookups then go to the database.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @param key
+     * @param protections the loaded protections, or null if the chunk could not be loaded
+     * @param removals the cache's removal count when the chunk started loading
+     */
+    private void complete(String world, int chunkX, int chunkZ, long key, List<Protection> protections, long removals) {
+        LongObjectHashMap<List<Runnable>> worldPending = pending.get(world);
+        List<Runnable> waiting = worldPending != null ? worldPending.remove(key) : null;
+
+        if (worldPending != null && worldPending.isEmpty()) {
+            pending.remove(world);
+        }
+
+        ProtectionCache cache = lwc.getProtectionCache();
+        World bukkitWorld = Bukkit.getWorld(world);
+
+        // a protection removed while loading could be in the result, and an unloaded chunk would never be uncached
+        if (protections != null && removals == cache.getRemovals() && bukkitWorld != null && bukkitWorld.isChunkLoaded(chunkX, chunkZ)) {
+            cache.loadChunk(world, chunkX, chunkZ, protections);
+        }
+
+        if (waiting != null) {
+            for (Runnable task : waiting) {
+                task.run();
+            }
+        }
+    }
+
+}
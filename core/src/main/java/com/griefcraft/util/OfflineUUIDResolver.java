@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Resolves names using the players that have joined the server before. On servers in offline mode every name
+ * resolves to its offline UUID, the same way the server would create it.
+ */
+public class OfflineUUIDResolver implements UUIDResolver {
+
+    /**
+     * The players that have joined the server, keyed by their lowercase name. Built on first use.
+     */
+    private Map<String, OfflinePlayer> players = null;
+
+    /**
+     * If the server is in online mode
+     */
+    private final boolean onlineMode;
+
+    public OfflineUUIDResolver() {
+        this.onlineMode = Bukkit.getOnlineMode();
+    }
+
+    public Map<String, UUID> resolve(List<String> names) {
+        if (players == null) {
+            players = new HashMap<String, OfflinePlayer>();
+
+            for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
+                if (player.getName() != null) {
+                    players.put(player.getName().toLowerCase(), player);
+                }
+            }
+        }
+
+        Map<String, UUID> results = new HashMap<String, UUID>();
+
+        for (String name : names) {
+            String lowerName = name.toLowerCase();
+            OfflinePlayer player = players.get(lowerName);
+
+            if (player != null && player.getUniqueId() != null) {
+                UUIDRegistry.updateCache(player.getUniqueId(), player.getName());
+                results.put(lowerName, player.getUniqueId());
+            } else if (!onlineMode) {
+                // the server hashes the name exactly as the player typed it, so the case has to be kept
+                UUID uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(Charset.forName("UTF-8")));
+                UUIDRegistry.updateCache(uuid, name);
+                results.put(lowerName, uuid);
+            }
+        }
+
+        return results;
+    }
+
+}
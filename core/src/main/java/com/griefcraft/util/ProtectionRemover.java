@@ -0,0 +1,554 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Flag;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.PhysDB;
+import com.griefcraft.sql.ProtectionFilter;
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.command.CommandSender;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Removes the protections matched by a list of filters in the background; this is what purge, purgebanned and
+ * expire use. Protections are loaded a page at a time and each page is removed in its own transaction, so no
+ * more than one page is held in memory. Cache cleanup runs on the server thread, and protected blocks are
+ * removed from the world in slices that each fit in a small part of a tick.
+ */
+public class ProtectionRemover implements Runnable {
+
+    /**
+     * Told about the progress of a removal, always on the server thread
+     */
+    public interface Listener {
+
+        /**
+         * Called once all of the protections matched by a filter were removed
+         *
+         * @param filter
+         * @param removed the amount of protections removed
+         */
+        public void onComplete(ProtectionFilter filter, int removed);
+
+    }
+
+    /**
+     * How long to pause between pages, in milliseconds (one server tick)
+     */
+    private static final long BATCH_DELAY = 50L;
+
+    /**
+     * How long one slice of block removals may take on the server thread, in nanoseconds
+     */
+    private static final long BLOCK_BUDGET = 5000000L;
+
+    /**
+     * How often progress is reported, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 10000L;
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The thread the removal is running in
+     */
+    private Thread thread = null;
+
+    /**
+     * If the removal should keep running
+     */
+    private volatile boolean running = false;
+
+    /**
+     * Who is told about the progress; null to only log it
+     */
+    private CommandSender sender;
+
+    /**
+     * The filters to remove the protections of, in order
+     */
+    private List<ProtectionFilter> filters;
+
+    /**
+     * If the protected blocks are removed from the world as well
+     */
+    private boolean removeBlocks;
+
+    /**
+     * Told when each filter is complete; may be null
+     */
+    private Listener listener;
+
+    /**
+     * The amount of protections looked at by the current or last run
+     */
+    private volatile int scanned = 0;
+
+    /**
+     * The amount of protections removed by the current or last run
+     */
+    private volatile int removed = 0;
+
+    /**
+     * The amount of blocks removed from the world by the current or last run
+     */
+    private volatile int blocksRemoved = 0;
+
+    /**
+     * The time the current or last run was started at
+     */
+    private volatile long startTime = 0;
+
+    public ProtectionRemover(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Start removing the protections matched by a filter
+     *
+     * @param sender who to report the progress to, or null to only log it
+     * @param filter
+     * @param removeBlocks if the protected blocks should be removed from the world
+     * @param listener told when the filter is complete; may be null
+     * @return false if a removal is already running
+     */
+    public boolean start(CommandSender sender, ProtectionFilter filter, boolean removeBlocks, Listener listener) {
+        List<ProtectionFilter> filters = new ArrayList<ProtectionFilter>(1);
+        filters.add(filter);
+        return start(sender, filters, removeBlocks, listener);
+    }
+
+    /**
+     * Start removing the protections matched by a list of filters, one filter after the other
+     *
+     * @param sender who to report the progress to, or null to only log it
+     * @param filters
+     * @param removeBlocks if the protected blocks should be removed from the world
+     * @param listener told when each filter is complete; may be null
+     * @return false if a removal is already running
+     */
+    public synchronized boolean start(CommandSender sender, List<ProtectionFilter> filters, boolean removeBlocks, Listener listener) {
+        if (running) {
+            return false;
+        }
+
+        this.sender = sender;
+        this.filters = new ArrayList<ProtectionFilter>(filters);
+        this.removeBlocks = removeBlocks;
+        this.listener = listener;
+        running = true;
+        thread = new Thread(this, "LWC Protection Removal");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stop the removal after the current page
+     */
+    public synchronized void stop() {
+        running = false;
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return true if a removal is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the amount of protections looked at by the current or last run
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return the amount of protections removed by the current or last run
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the amount of blocks removed from the world by the current or last run
+     */
+    public int getBlocksRemoved() {
+        return blocksRemoved;
+    }
+
+    /**
+     * @return the amount of protections looked at per second
+     */
+    public long getRate() {
+        long time = System.currentTimeMillis() - startTime;
+        return time <= 0 ? 0 : scanned * 1000L / time;
+    }
+
+    public void run() {
+        PhysDB database = lwc.getPhysicalDatabase();
+
+        scanned = 0;
+        removed = 0;
+        blocksRemoved = 0;
+        startTime = System.currentTimeMillis();
+
+        try {
+            // write pending changes first so the database matches what players last did
+            lwc.getDatabaseThread().flush();
+
+            for (ProtectionFilter filter : filters) {
+                if (!running) {
+                    break;
+                }
+
+                final ProtectionFilter completed = filter;
+                final int count = remove(resolvePlayers(filter));
+
+                // the history of purged players is no longer needed
+                for (String owner : filter.getOwners()) {
+                    database.invalidateHistory(owner);
+                }
+
+                if (listener != null) {
+                    Bukkit.getScheduler().scheduleSyncDelayedTask(lwc.getPlugin(), new Runnable() {
+                        public void run() {
+                            listener.onComplete(completed, count);
+                        }
+                    });
+                }
+            }
+        } catch (InterruptedException e) {
+            report(Colors.Red, "Protection removal stopped after removing " + removed + " protections.");
+        } catch (Exception e) {
+            lwc.log("Protection removal stopped: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            running = false;
+            database.releaseConnection();
+        }
+    }
+
+    /**
+     * Add the owners a filter's player names may be stored as: the name itself and the player's UUID
+     *
+     * @param filter
+     * @return
+     */
+    private ProtectionFilter resolvePlayers(ProtectionFilter filter) {
+        for (String player : filter.getPlayers()) {
+            filter.addOwner(player);
+
+            UUID uuid = UUIDRegistry.getUUID(player);
+            if (uuid != null) {
+                filter.addOwner(uuid.toString());
+            }
+        }
+
+        return filter;
+    }
+
+    /**
+     * Remove all of the protections matched by a filter
+     *
+     * @param filter
+     * @return the amount of protections removed
+     */
+    private int remove(ProtectionFilter filter) throws Exception {
+        PhysDB database = lwc.getPhysicalDatabase();
+        int batchSize = Math.max(1, lwc.getConfiguration().getInt("core.removalBatchSize", 500));
+        List<Integer> exemptedBlocks = lwc.getConfiguration().getIntList("optional.exemptBlocks", new ArrayList<Integer>());
+        long nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+        long lastAccessed = -1;
+        int lastId = 0;
+        int count = 0;
+
+        while (running) {
+            List<Protection> page = database.loadProtections(filter, lastAccessed, lastId, batchSize);
+
+            if (page.isEmpty()) {
+                break;
+            }
+
+            Protection last = page.get(page.size() - 1);
+            lastAccessed = last.getLastAccessed();
+            lastId = last.getId();
+            scanned += page.size();
+
+            List<Protection> candidates = new ArrayList<Protection>(page.size());
+
+            for (Protection protection : page) {
+                if (protection.hasFlag(Flag.Type.EXEMPTION) || exemptedBlocks.contains(protection.getBlockId())) {
+                    continue;
+                }
+
+                if (protection.getBukkitWorld() == null) {
+                    continue;
+                }
+
+                candidates.add(protection);
+            }
+
+            if (!candidates.isEmpty()) {
+                List<Protection> matched = select(filter, candidates);
+                List<Integer> ids = new ArrayList<Integer>(matched.size());
+
+                for (Protection protection : matched) {
+                    ids.add(protection.getId());
+                }
+
+                List<Integer> removedIds;
+                SQLException failure = null;
+                database.setAutoCommit(false);
+
+                try {
+                    removedIds = database.removeProtections(ids);
+                } catch (SQLException e) {
+                    failure = e;
+                    removedIds = rollback(ids);
+                } finally {
+                    database.setAutoCommit(true);
+                }
+
+                List<Protection> pageRemoved = uncache(matched, new HashSet<Integer>(removedIds));
+                count += pageRemoved.size();
+                removed += pageRemoved.size();
+
+                for (Protection protection : pageRemoved) {
+                    lwc.getProtectionCountCache().decrement(protection.getOwner(), protection.getBlockId());
+                }
+
+                if (removeBlocks) {
+                    removeBlocks(pageRemoved);
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+
+            if (System.currentTimeMillis() >= nextProgress) {
+                nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+                report(Colors.Green, "Removing protections: removed " + removed + ", scanned " + scanned + " (" + getRate() + " protections/s)");
+            }
+
+            Thread.sleep(BATCH_DELAY);
+        }
+
+        return count;
+    }
+
+    /**
+     * Undo a page that failed to be removed. A connection shared with other threads cannot be rolled back without
+     * discarding their changes too, so there the page is committed and whatever it removed is kept removed.
+     *
+     * @param ids the ids of the protections in the page
+     * @return the ids of the protections that stay removed
+     */
+    private List<Integer> rollback(List<Integer> ids) {
+        PhysDB database = lwc.getPhysicalDatabase();
+
+        if (database.hasOwnConnection()) {
+            database.rollback();
+            return new ArrayList<Integer>();
+        }
+
+        try {
+            return database.findRemovedProtections(ids);
+        } catch (SQLException e) {
+            // treat the page as kept; the cached protections in it are saved again
+            return new ArrayList<Integer>();
+        }
+    }
+
+    /**
+     * Select the protections to remove on the server thread. Cached protections that changed since the page was
+     * loaded so that the filter no longer matches them are kept; the others are marked as pending removal so a
+     * queued save cannot write them back once they are removed.
+     *
+     * @param filter
+     * @param candidates
+     * @return the protections that should be removed from the database
+     */
+    private List<Protection> select(final ProtectionFilter filter, final List<Protection> candidates) throws Exception {
+        return callSync(new Callable<List<Protection>>() {
+            public List<Protection> call() throws Exception {
+                List<Protection> matched = new ArrayList<Protection>(candidates.size());
+
+                for (Protection protection : candidates) {
+                    Protection cached = lwc.getProtectionCache().getProtectionById(protection.getId());
+
+                    if (cached != null) {
+                        if (!filter.matches(cached)) {
+                            continue;
+                        }
+
+                        cached.setRemoving(true);
+                    }
+
+                    matched.add(protection);
+                }
+
+                return matched;
+            }
+        });
+    }
+
+    /**
+     * Remove the protections that were removed from the database from the cache on the server thread. Cached
+     * protections that were not removed are no longer pending removal and are saved again.
+     *
+     * @param matched the protections returned by {@link #select(ProtectionFilter, List)}
+     * @param removedIds the ids of the protections that were removed from the database
+     * @return the protections that were removed
+     */
+    private List<Protection> uncache(final List<Protection> matched, final Set<Integer> removedIds) throws Exception {
+        return callSync(new Callable<List<Protection>>() {
+            public List<Protection> call() throws Exception {
+                List<Protection> removed = new ArrayList<Protection>(removedIds.size());
+
+                for (Protection protection : matched) {
+                    Protection cached = lwc.getProtectionCache().getProtectionById(protection.getId());
+
+                    if (removedIds.contains(protection.getId())) {
+                        if (cached != null) {
+                            lwc.getDatabaseThread().removeProtection(cached);
+                            cached.removeCache();
+                        }
+
+                        removed.add(protection);
+                    } else if (cached != null) {
+                        // a flush may have skipped changes made while it was pending removal
+                        cached.setRemoving(false);
+                        cached.save();
+                    }
+                }
+
+                return removed;
+            }
+        });
+    }
+
+    /**
+     * Remove the blocks of removed protections from the world, a slice per tick
+     *
+     * @param protections
+     */
+    private void removeBlocks(final List<Protection> protections) throws Exception {
+        int index = 0;
+
+        while (index < protections.size()) {
+            final int start = index;
+
+            index = callSync(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    long deadline = System.nanoTime() + BLOCK_BUDGET;
+                    int next = start;
+
+                    while (next < protections.size()) {
+                        Block block = protections.get(next++).getBlock();
+
+                        if (lwc.removeBlock(block)) {
+                            blocksRemoved ++;
+                        }
+
+                        if (System.nanoTime() >= deadline) {
+                            break;
+                        }
+                    }
+
+                    return next;
+                }
+            });
+
+            if (index < protections.size()) {
+                Thread.sleep(BATCH_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Run a task on the server thread and wait for its result
+     *
+     * @param callable
+     * @return
+     */
+    private <T> T callSync(Callable<T> callable) throws Exception {
+        Future<T> future = Bukkit.getScheduler().callSyncMethod(lwc.getPlugin(), callable);
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Send a message to whoever started the removal, or log it
+     *
+     * @param color
+     * @param message
+     */
+    private void report(final String color, final String message) {
+        final CommandSender sender = this.sender;
+
+        if (sender == null) {
+            lwc.log(message);
+            return;
+        }
+
+        Bukkit.getScheduler().scheduleSyncDelayedTask(lwc.getPlugin(), new Runnable() {
+            public void run() {
+                sender.sendMessage(color + message);
+            }
+        });
+    }
+
+}
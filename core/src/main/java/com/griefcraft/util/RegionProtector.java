@@ -0,0 +1,647 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.cache.LongObjectHashMap;
+import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.History;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.PhysDB;
+import com.griefcraft.util.config.ProtectionConfiguration;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Protects every protectable block inside of a cuboid region in the background; this is what protectregion uses.
+ * Chunks are snapshotted on the server thread a few at a time and scanned for protectable blocks in the background.
+ * The blocks found are compared against the protections that already existed in the region, which are loaded with
+ * a single range query, and the rest are checked on the server thread in slices. Each slice registers the blocks it
+ * accepted with batched inserts and caches them before it returns, so nothing can protect them in between.
+ */
+public class RegionProtector implements Runnable {
+
+    /**
+     * Told when the region is protected, on the server thread
+     */
+    public interface Listener {
+
+        /**
+         * Called once every chunk in the region was scanned
+         *
+         * @param registered the amount of protections registered
+         */
+        public void onComplete(int registered);
+
+    }
+
+    /**
+     * The amount of chunks scanned between each write to the database
+     */
+    private static final int CHUNK_BATCH_SIZE = 16;
+
+    /**
+     * How long to pause between slices, in milliseconds (one server tick)
+     */
+    private static final long BATCH_DELAY = 50L;
+
+    /**
+     * How long one slice of work may take on the server thread, in nanoseconds
+     */
+    private static final long SLICE_BUDGET = 5000000L;
+
+    /**
+     * How often progress is reported, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 10000L;
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The thread the job is running in
+     */
+    private Thread thread = null;
+
+    /**
+     * If the job should keep running
+     */
+    private volatile boolean running = false;
+
+    /**
+     * Who is told about the progress; null to only log it
+     */
+    private CommandSender sender;
+
+    /**
+     * The world the region is in
+     */
+    private World world;
+
+    /**
+     * The region's bounds, inclusive
+     */
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+
+    /**
+     * The owner the protections are registered to
+     */
+    private String owner;
+
+    /**
+     * Told when the job is complete; may be null
+     */
+    private Listener listener;
+
+    /**
+     * The amount of chunks in the region
+     */
+    private volatile int chunks = 0;
+
+    /**
+     * The amount of chunks scanned by the current or last run
+     */
+    private volatile int scanned = 0;
+
+    /**
+     * The amount of protections registered by the current or last run
+     */
+    private volatile int registered = 0;
+
+    /**
+     * The time the current or last run was started at
+     */
+    private volatile long startTime = 0;
+
+    public RegionProtector(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Start protecting the blocks in a region
+     *
+     * @param sender who to report the progress to, or null to only log it
+     * @param world
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @param owner the owner to register the protections to
+     * @param listener told when the region is protected; may be null
+     * @return false if a region is already being protected
+     */
+    public synchronized boolean start(CommandSender sender, World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, String owner, Listener listener) {
+        if (running) {
+            return false;
+        }
+
+        this.sender = sender;
+        this.world = world;
+        this.minX = Math.min(minX, maxX);
+        this.minY = Math.max(0, Math.min(minY, maxY));
+        this.minZ = Math.min(minZ, maxZ);
+        this.maxX = Math.max(minX, maxX);
+        this.maxY = Math.min(world.getMaxHeight() - 1, Math.max(minY, maxY));
+        this.maxZ = Math.max(minZ, maxZ);
+        this.owner = owner;
+        this.listener = listener;
+        running = true;
+        thread = new Thread(this, "LWC Region Protection");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stop the job after the current batch of chunks
+     */
+    public synchronized void stop() {
+        running = false;
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return true if a region is being protected
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the amount of chunks in the region of the current or last run
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the amount of chunks scanned by the current or last run
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return the amount of protections registered by the current or last run
+     */
+    public int getRegistered() {
+        return registered;
+    }
+
+    /**
+     * @return the amount of chunks scanned per second
+     */
+    public long getRate() {
+        long time = System.currentTimeMillis() - startTime;
+        return time <= 0 ? 0 : scanned * 1000L / time;
+    }
+
+    public void run() {
+        PhysDB database = lwc.getPhysicalDatabase();
+
+        scanned = 0;
+        registered = 0;
+        startTime = System.currentTimeMillis();
+
+        try {
+            // write pending changes first so the database matches what players last did
+            lwc.getDatabaseThread().flush();
+
+            boolean[][] protectable = compileProtectable();
+
+            // the protections that already exist in the region, keyed by their location
+            LongObjectHashMap<Protection> existing = new LongObjectHashMap<Protection>();
+
+            for (Protection protection : database.loadProtections(world.getName(), minX, maxX, minY, maxY, minZ, maxZ)) {
+                existing.put(ProtectionCache.blockKey(protection.getX(), protection.getY(), protection.getZ()), protection);
+            }
+
+            // every chunk the region touches, packed as x, z pairs
+            List<int[]> regionChunks = new ArrayList<int[]>();
+
+            for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                    regionChunks.add(new int[]{chunkX, chunkZ});
+                }
+            }
+
+            chunks = regionChunks.size();
+
+            // the blocks that belong to a protection registered by this run, e.g. the other half of a double chest
+            LongObjectHashMap<Boolean> claimed = new LongObjectHashMap<Boolean>();
+            long nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+
+            for (int index = 0; index < regionChunks.size() && running; index += CHUNK_BATCH_SIZE) {
+                List<int[]> batch = regionChunks.subList(index, Math.min(index + CHUNK_BATCH_SIZE, regionChunks.size()));
+                List<ChunkSnapshot> snapshots = takeSnapshots(batch);
+                List<Protection> candidates = new ArrayList<Protection>();
+
+                for (ChunkSnapshot snapshot : snapshots) {
+                    scan(snapshot, protectable, existing, candidates);
+                }
+
+                if (!candidates.isEmpty()) {
+                    List<Protection> protections = register(batch, candidates, claimed);
+
+                    if (!protections.isEmpty()) {
+                        createHistory(protections);
+                    }
+                }
+
+                scanned += batch.size();
+
+                if (System.currentTimeMillis() >= nextProgress) {
+                    nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+                    report(Colors.Green, "Protecting region: scanned " + scanned + "/" + chunks + " chunks, registered " + registered + " (" + getRate() + " chunks/s)");
+                }
+
+                Thread.sleep(BATCH_DELAY);
+            }
+
+            if (running && listener != null) {
+                final int count = registered;
+
+                Bukkit.getScheduler().scheduleSyncDelayedTask(lwc.getPlugin(), new Runnable() {
+                    public void run() {
+                        listener.onComplete(count);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            report(Colors.Red, "Region protection stopped after registering " + registered + " protections.");
+        } catch (Exception e) {
+            lwc.log("Region protection stopped: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            running = false;
+            database.releaseConnection();
+        }
+    }
+
+    /**
+     * Compile which block ids and data values are protectable so scanning does not need to resolve the setting
+     * for every block
+     *
+     * @return indexed by block id then data value; null for block ids that are never protectable
+     */
+    private boolean[][] compileProtectable() {
+        ProtectionConfiguration configuration = lwc.getProtectionConfiguration();
+        int maxId = 0;
+
+        for (Material material : Material.values()) {
+            maxId = Math.max(maxId, material.getId());
+        }
+
+        boolean[][] protectable = new boolean[maxId + 1][];
+
+        for (Material material : Material.values()) {
+            if (!material.isBlock() || material == Material.AIR) {
+                continue;
+            }
+
+            boolean[] byData = new boolean[16];
+            boolean any = false;
+
+            for (int data = 0; data < byData.length; data++) {
+                byData[data] = configuration.isProtectable(material, data);
+                any |= byData[data];
+            }
+
+            if (any) {
+                protectable[material.getId()] = byData;
+            }
+        }
+
+        return protectable;
+    }
+
+    /**
+     * Snapshot a batch of chunks on the server thread, as many as fit in each slice. Chunks that had to be loaded
+     * for the snapshot are unloaded again when the server is ready to.
+     *
+     * @param batch
+     * @return
+     */
+    private List<ChunkSnapshot> takeSnapshots(final List<int[]> batch) throws Exception {
+        final List<ChunkSnapshot> snapshots = new ArrayList<ChunkSnapshot>(batch.size());
+
+        while (snapshots.size() < batch.size()) {
+            callSync(new Callable<Void>() {
+                public Void call() throws Exception {
+                    long deadline = System.nanoTime() + SLICE_BUDGET;
+
+                    while (snapshots.size() < batch.size()) {
+                        int[] chunk = batch.get(snapshots.size());
+                        boolean loaded = world.isChunkLoaded(chunk[0], chunk[1]);
+
+                        snapshots.add(world.getChunkAt(chunk[0], chunk[1]).getChunkSnapshot(false, false, false));
+
+                        if (!loaded) {
+                            world.unloadChunkRequest(chunk[0], chunk[1]);
+                        }
+
+                        if (System.nanoTime() >= deadline) {
+                            break;
+                        }
+                    }
+
+                    return null;
+                }
+            });
+
+            if (snapshots.size() < batch.size()) {
+                Thread.sleep(BATCH_DELAY);
+            }
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Find the protectable blocks in the part of a chunk snapshot inside of the region that are not protected yet
+     *
+     * @param snapshot
+     * @param protectable
+     * @param existing
+     * @param candidates the unregistered protections for the blocks found are added to this
+     */
+    private void scan(ChunkSnapshot snapshot, boolean[][] protectable, LongObjectHashMap<Protection> existing, List<Protection> candidates) {
+        int baseX = snapshot.getX() << 4;
+        int baseZ = snapshot.getZ() << 4;
+        int fromX = Math.max(minX, baseX), toX = Math.min(maxX, baseX + 15);
+        int fromZ = Math.max(minZ, baseZ), toZ = Math.min(maxZ, baseZ + 15);
+        String worldName = world.getName();
+
+        for (int y = minY; y <= maxY; y++) {
+            // skip the rest of empty 16 block tall sections
+            if ((y == minY || (y & 15) == 0) && snapshot.isSectionEmpty(y >> 4)) {
+                y |= 15;
+                continue;
+            }
+
+            for (int x = fromX; x <= toX; x++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    int blockId = snapshot.getBlockTypeId(x & 15, y, z & 15);
+
+                    if (blockId <= 0 || blockId >= protectable.length) {
+                        continue;
+                    }
+
+                    boolean[] byData = protectable[blockId];
+
+                    if (byData == null || !byData[snapshot.getBlockData(x & 15, y, z & 15) & 15]) {
+                        continue;
+                    }
+
+                    if (existing.containsKey(ProtectionCache.blockKey(x, y, z))) {
+                        continue;
+                    }
+
+                    Protection protection = new Protection();
+                    protection.setBlockId(blockId);
+                    protection.setType(Protection.Type.PRIVATE);
+                    protection.setWorld(worldName);
+                    protection.setOwner(owner);
+                    protection.setPassword("");
+                    protection.setX(x);
+                    protection.setY(y);
+                    protection.setZ(z);
+                    candidates.add(protection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check the blocks found by the scan on the server thread and register them, a slice per tick. Blocks that
+     * changed since they were snapshotted or that are part of another protection (e.g. one just outside of the
+     * region) are dropped. The blocks a slice accepts are registered in one transaction and cached in the same
+     * slice.
+     *
+     * @param batch the chunks the candidates were found in
+     * @param candidates
+     * @param claimed the blocks that belong to protections registered by this run
+     * @return the registered protections
+     */
+    private List<Protection> register(final List<int[]> batch, final List<Protection> candidates, final LongObjectHashMap<Boolean> claimed) throws Exception {
+        final List<Protection> added = new ArrayList<Protection>();
+        int index = 0;
+
+        // load the protections of the batch's chunks and their neighbours into the cache with one query
+        callSync(new Callable<Void>() {
+            public Void call() throws Exception {
+                int minChunkX = Integer.MAX_VALUE, minChunkZ = Integer.MAX_VALUE;
+                int maxChunkX = Integer.MIN_VALUE, maxChunkZ = Integer.MIN_VALUE;
+
+                for (int[] chunk : batch) {
+                    minChunkX = Math.min(minChunkX, chunk[0]);
+                    minChunkZ = Math.min(minChunkZ, chunk[1]);
+                    maxChunkX = Math.max(maxChunkX, chunk[0]);
+                    maxChunkZ = Math.max(maxChunkZ, chunk[1]);
+                }
+
+                lwc.getPhysicalDatabase().preloadChunks(world.getName(), minChunkX - 1, minChunkZ - 1, maxChunkX + 1, maxChunkZ + 1);
+                return null;
+            }
+        });
+
+        while (index < candidates.size()) {
+            final int start = index;
+
+            index = callSync(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    long deadline = System.nanoTime() + SLICE_BUDGET;
+                    List<Protection> accepted = new ArrayList<Protection>();
+                    int next = start;
+
+                    while (next < candidates.size()) {
+                        Protection candidate = candidates.get(next++);
+                        long key = ProtectionCache.blockKey(candidate.getX(), candidate.getY(), candidate.getZ());
+                        Block block = world.getBlockAt(candidate.getX(), candidate.getY(), candidate.getZ());
+
+                        if (!claimed.containsKey(key) && block.getTypeId() == candidate.getBlockId() && lwc.isProtectable(block)) {
+                            ProtectionFinder finder = new ProtectionFinder(lwc);
+                            finder.matchBlocks(block);
+
+                            if (finder.loadProtection(true) == null) {
+                                for (BlockState state : finder.getBlocks()) {
+                                    claimed.put(ProtectionCache.blockKey(state.getX(), state.getY(), state.getZ()), Boolean.TRUE);
+                                }
+
+                                claimed.put(key, Boolean.TRUE);
+                                accepted.add(candidate);
+                            }
+                        }
+
+                        if (System.nanoTime() >= deadline) {
+                            break;
+                        }
+                    }
+
+                    if (!accepted.isEmpty()) {
+                        PhysDB database = lwc.getPhysicalDatabase();
+                        List<Protection> protections;
+
+                        database.setAutoCommit(false);
+
+                        try {
+                            protections = database.registerProtections(accepted);
+                        } catch (RuntimeException e) {
+                            rollback(accepted);
+                            throw e;
+                        } finally {
+                            database.setAutoCommit(true);
+                        }
+
+                        ProtectionCache cache = lwc.getProtectionCache();
+
+                        for (Protection protection : protections) {
+                            cache.addProtection(protection);
+                        }
+
+                        added.addAll(protections);
+                    }
+
+                    return next;
+                }
+            });
+
+            if (index < candidates.size()) {
+                Thread.sleep(BATCH_DELAY);
+            }
+        }
+
+        registered += added.size();
+        return added;
+    }
+
+    /**
+     * Undo protections that failed to be registered, on the server thread. A connection shared with other threads
+     * cannot be rolled back without discarding their changes too, so there whatever was inserted is committed and
+     * the cache is made to look the blocks up in the database again.
+     *
+     * @param accepted
+     */
+    private void rollback(List<Protection> accepted) {
+        PhysDB database = lwc.getPhysicalDatabase();
+
+        if (database.hasOwnConnection()) {
+            database.rollback();
+            return;
+        }
+
+        ProtectionCache cache = lwc.getProtectionCache();
+
+        for (Protection protection : accepted) {
+            protection.radiusRemoveCache();
+            cache.unloadChunk(protection.getWorld(), protection.getX() >> 4, protection.getZ() >> 4);
+        }
+
+        lwc.getMoveDecisionCache().clear();
+        lwc.getProtectionCountCache().invalidate(owner);
+    }
+
+    /**
+     * Create the history of newly registered protections
+     *
+     * @param protections
+     */
+    private void createHistory(List<Protection> protections) {
+        if (!lwc.isHistoryEnabled()) {
+            return;
+        }
+
+        for (Protection protection : protections) {
+            History transaction = protection.createHistoryObject();
+
+            transaction.setPlayer(owner);
+            transaction.setType(History.Type.TRANSACTION);
+            transaction.setStatus(History.Status.ACTIVE);
+            transaction.addMetaData("creator=" + owner);
+            transaction.saveNow();
+        }
+    }
+
+    /**
+     * Run a task on the server thread and wait for its result
+     *
+     * @param callable
+     * @return
+     */
+    private <T> T callSync(Callable<T> callable) throws Exception {
+        Future<T> future = Bukkit.getScheduler().callSyncMethod(lwc.getPlugin(), callable);
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Send a message to whoever started the job, or log it
+     *
+     * @param color
+     * @param message
+     */
+    private void report(final String color, final String message) {
+        final CommandSender sender = this.sender;
+
+        if (sender == null) {
+            lwc.log(message);
+            return;
+        }
+
+        Bukkit.getScheduler().scheduleSyncDelayedTask(lwc.getPlugin(), new Runnable() {
+            public void run() {
+                sender.sendMessage(color + message);
+            }
+        });
+    }
+
+}
@@ -47,6 +47,11 @@ import java.util.Map;
 
 public class Statistics {
 
+    /**
+     * The amount of latencies shown in the report; the dump file has all of them
+     */
+    private static final int REPORTED_LATENCIES = 15;
+
     /**
      * Number of queries executed on the database
      */
@@ -131,6 +136,19 @@ public class Statistics {
         sender.sendMessage("  Engine: " + Colors.Green + Database.DefaultType);
         sender.sendMessage("  Protections: " + Colors.Green + formatNumber(lwc.getPhysicalDatabase().getProtectionCount()));
         sender.sendMessage("  Queries: " + Colors.Green + formatNumber(queries) + " | " + String.format("%.2f", getAverage(queries)) + " / second");
+        sender.sendMessage("  Connections: " + Colors.Green + lwc.getPhysicalDatabase().getOpenConnections() + Colors.White + " open | " + Colors.Green + lwc.getPhysicalDatabase().getActiveSessions() + Colors.White + " threads");
+
+        DatabaseThread databaseThread = lwc.getDatabaseThread();
+        if (databaseThread != null) {
+            sender.sendMessage("  Write queue: " + Colors.Green + formatNumber(databaseThread.size()) + Colors.White + " pending | " + Colors.Green + formatNumber(databaseThread.getCoalesced()) + Colors.White + " coalesced | " + Colors.Green + formatNumber(databaseThread.getFlushed()) + Colors.White + " written");
+            sender.sendMessage("  Flushes: " + Colors.Green + formatNumber(databaseThread.getFlushes()) + Colors.White + " | last " + Colors.Green + databaseThread.getLastFlushTime() + "ms" + Colors.White + " (" + databaseThread.getLastFlushSize() + ") | avg " + Colors.Green + String.format("%.2f", databaseThread.getAverageFlushTime()) + "ms" + Colors.White + " | max " + Colors.Green + databaseThread.getMaxFlushTime() + "ms");
+        }
+
+        HistoryWriter historyWriter = lwc.getHistoryWriter();
+        if (historyWriter != null) {
+            sender.sendMessage("  History queue: " + Colors.Green + formatNumber(historyWriter.size()) + Colors.White + "/" + formatNumber(historyWriter.getCapacity()) + " pending (peak " + formatNumber(historyWriter.getPeakSize()) + ") | " + Colors.Green + formatNumber(historyWriter.getCoalesced()) + Colors.White + " coalesced | " + Colors.Green + formatNumber(historyWriter.getWritten()) + Colors.White + " written | " + Colors.Red + formatNumber(historyWriter.getOverflowed()) + Colors.White + " overflowed");
+            sender.sendMessage("  History batches: " + Colors.Green + formatNumber(historyWriter.getBatches()) + Colors.White + " | avg " + Colors.Green + String.format("%.2f", historyWriter.getAverageBatchTime()) + "ms" + Colors.White + " | max " + Colors.Green + historyWriter.getMaxBatchTime() + "ms");
+        }
         sender.sendMessage(" ");
 
         sender.sendMessage(Colors.Red + " ==== Cache ==== ");
@@ -151,10 +169,53 @@ public class Statistics {
         sender.sendMessage("  Usage: " + cacheColour + String.format("%.2f", cachePercentFilled) + "% " + Colors.White + " ( " + cache.size() + "/" + cache.totalCapacity() + " [" + cache.capacity() + "+" + cache.adaptiveCapacity() + "] )");
         sender.sendMessage("  Profile: ");
         sendMethodCounter(sender, cache.getMethodCounter());
+        sender.sendMessage(" ");
+
+        sender.sendMessage(Colors.Red + " ==== Latency (ms) ==== ");
+        sender.sendMessage("  Since " + TimeUtil.timeToString((System.currentTimeMillis() - Latency.getResetTime()) / 1000L) + " ago, most total time first");
+        sendLatencies(sender, Latency.getHistograms(), REPORTED_LATENCIES);
         // sender.sendMessage("  Reads: " + formatNumber(cache.getReads()) + " | " + String.format("%.2f", getAverage(cache.getReads())) + " / second");
         // sender.sendMessage("  Writes: " + formatNumber(cache.getWrites()) + " | " + String.format("%.2f", getAverage(cache.getWrites())) + " / second");
     }
 
+    /**
+     * Send the latencies with the most total time
+     *
+     * @param sender
+     * @param histograms
+     * @param limit
+     */
+    private static void sendLatencies(CommandSender sender, List<LatencyHistogram> histograms, int limit) {
+        int sent = 0;
+
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+
+            if (sent++ >= limit) {
+                break;
+            }
+
+            sender.sendMessage("    " + histogram.getName() + ": " + Colors.Green + formatNumber(histogram.getCount()) + Colors.White
+                    + " | total " + Colors.Green + formatMillis(histogram.getTotal()) + Colors.White
+                    + " | avg " + formatMillis((long) histogram.getMean())
+                    + " | p50 " + formatMillis(histogram.getPercentile(50))
+                    + " | p99 " + Colors.Yellow + formatMillis(histogram.getPercentile(99)) + Colors.White
+                    + " | max " + Colors.Red + formatMillis(histogram.getMax()));
+        }
+    }
+
+    /**
+     * Format microseconds as milliseconds
+     *
+     * @param micros
+     * @return
+     */
+    private static String formatMillis(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
     private static void sendMethodCounter(CommandSender sender, MethodCounter counter) {
         Map<String, Integer> sorted = counter.sortByValue();
 
@@ -1,26 +1,102 @@
 package com.griefcraft.util;
 
+import com.griefcraft.cache.LRUCache;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
 
 public class UUIDRegistry {
 
     /**
-     * Temporal caches
+     * The file the known players are saved to
      */
-    private static final Map<String, PlayerInfo> nameToUUIDCache = new HashMap<String, PlayerInfo>();
-    private static final Map<UUID, PlayerInfo> UUIDToNameCache = new HashMap<UUID, PlayerInfo>();
+    public static final String CACHE_FILE = "plugins/LWC/uuids.dat";
 
-    static class PlayerInfo {
+    /**
+     * The default amount of players remembered
+     */
+    public static final int DEFAULT_CACHE_SIZE = 20000;
+
+    /**
+     * How long a name or UUID that could not be resolved is remembered for, in milliseconds
+     */
+    private static final long NEGATIVE_TTL = 10 * 60 * 1000L;
+
+    /**
+     * The amount of names and UUIDs that could not be resolved that are remembered
+     */
+    private static final int NEGATIVE_CACHE_SIZE = 1000;
+
+    /**
+     * Identifies the cache file
+     */
+    private static final int FILE_MAGIC = 0x4C574355;
+
+    /**
+     * The revision of the cache file
+     */
+    private static final int FILE_REVISION = 1;
+
+    /**
+     * Matches a UUID in string form
+     */
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    /**
+     * The known players, keyed by their lowercase name and by their UUID. Guarded by themselves.
+     */
+    private static final LRUCache<String, PlayerInfo> nameToUUIDCache = new LRUCache<String, PlayerInfo>(DEFAULT_CACHE_SIZE);
+    private static final LRUCache<UUID, PlayerInfo> UUIDToNameCache = new LRUCache<UUID, PlayerInfo>(DEFAULT_CACHE_SIZE);
+
+    /**
+     * Names and UUIDs that could not be resolved, mapped to the time they can be looked up again. Guarded by themselves.
+     */
+    private static final LRUCache<String, Long> missingNames = new LRUCache<String, Long>(NEGATIVE_CACHE_SIZE);
+    private static final LRUCache<UUID, Long> missingUUIDs = new LRUCache<UUID, Long>(NEGATIVE_CACHE_SIZE);
 
-        private UUID uuid;
-        private String name;
+    /**
+     * The UUIDs currently being looked up in the background
+     */
+    private static final ConcurrentHashMap<UUID, Boolean> pendingLookups = new ConcurrentHashMap<UUID, Boolean>();
+
+    /**
+     * Looks up names for the server thread
+     */
+    private static final ExecutorService lookupExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LWC Name Lookup");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * If the cache was changed since it was last saved
+     */
+    private static volatile boolean dirty = false;
+
+    static class PlayerInfo {
+        private final UUID uuid;
+        private final String name;
 
         public PlayerInfo(UUID uuid, String name) {
             this.uuid = uuid;
@@ -44,8 +120,64 @@ public class UUIDRegistry {
      */
     public static void updateCache(UUID uuid, String name) {
         PlayerInfo playerInfo = new PlayerInfo(uuid, name);
-        nameToUUIDCache.put(name.toLowerCase(), playerInfo);
-        UUIDToNameCache.put(uuid, playerInfo);
+        String nameLower = name.toLowerCase();
+
+        synchronized (UUIDToNameCache) {
+            PlayerInfo previous = UUIDToNameCache.put(uuid, playerInfo);
+
+            // the player changed their name
+            if (previous != null && !previous.getName().equals(name)) {
+                synchronized (nameToUUIDCache) {
+                    PlayerInfo byName = nameToUUIDCache.get(previous.getName().toLowerCase());
+
+                    if (byName != null && byName.getUUID().equals(uuid)) {
+                        nameToUUIDCache.remove(previous.getName().toLowerCase());
+                    }
+                }
+            }
+
+            if (previous == null || !previous.getName().equals(name)) {
+                dirty = true;
+            }
+        }
+
+        synchronized (nameToUUIDCache) {
+            nameToUUIDCache.put(nameLower, playerInfo);
+        }
+
+        synchronized (missingNames) {
+            missingNames.remove(nameLower);
+        }
+
+        synchronized (missingUUIDs) {
+            missingUUIDs.remove(uuid);
+        }
+    }
+
+    /**
+     * Change the amount of players remembered
+     *
+     * @param size
+     */
+    public static void setCacheSize(int size) {
+        size = Math.max(1, size);
+
+        synchronized (UUIDToNameCache) {
+            UUIDToNameCache.setMaxCapacity(size);
+        }
+
+        synchronized (nameToUUIDCache) {
+            nameToUUIDCache.setMaxCapacity(size);
+        }
+    }
+
+    /**
+     * @return the amount of players remembered
+     */
+    public static int size() {
+        synchronized (UUIDToNameCache) {
+            return UUIDToNameCache.size();
+        }
     }
 
     /**
@@ -55,22 +187,29 @@ public class UUIDRegistry {
      * @return true if the string is a valid UUID
      */
     public static boolean isValidUUID(String uuid) {
-        return uuid.matches("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+        return UUID_PATTERN.matcher(uuid).matches();
     }
 
     /**
      * Get the name for the given UUID. If it is not already known, it will be retrieved from the account servers.
+     * On the server thread the account servers are never queried; the name is looked up in the background instead
+     * and null is returned until it is known.
      *
      * @param uuid
      * @return
      */
-    public static String getName(UUID uuid) {
+    public static String getName(final UUID uuid) {
         if (uuid == null) {
             return null;
         }
 
-        if (UUIDToNameCache.containsKey(uuid)) {
-            return UUIDToNameCache.get(uuid).getName();
+        PlayerInfo cached;
+        synchronized (UUIDToNameCache) {
+            cached = UUIDToNameCache.get(uuid);
+        }
+
+        if (cached != null) {
+            return cached.getName();
         }
 
         // First way: if they're on the server already
@@ -81,6 +220,10 @@ public class UUIDRegistry {
             return player.getName();
         }
 
+        if (isMissing(missingUUIDs, uuid)) {
+            return null;
+        }
+
         // Second way: if they have been on the server before
         OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
 
@@ -89,18 +232,45 @@ public class UUIDRegistry {
             return offlinePlayer.getName();
         }
 
-        // Third way: use the web API
+        // Third way: use the web API, but never block the server thread on it
+        if (Bukkit.isPrimaryThread()) {
+            if (pendingLookups.putIfAbsent(uuid, Boolean.TRUE) == null) {
+                lookupExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            fetchName(uuid);
+                        } finally {
+                            pendingLookups.remove(uuid);
+                        }
+                    }
+                });
+            }
+
+            return null;
+        }
+
+        return fetchName(uuid);
+    }
+
+    /**
+     * Look up the name for a UUID using the account servers
+     *
+     * @param uuid
+     * @return
+     */
+    private static String fetchName(UUID uuid) {
         try {
             Map<UUID, String> results = new NameFetcher(Arrays.asList(uuid)).call();
+            String name = results.get(uuid);
 
-            if (results.containsKey(uuid)) {
-                return results.get(uuid);
-            } else {
-                return null;
+            if (name != null) {
+                updateCache(uuid, name);
+                return name;
             }
-        } catch (Exception e) {
-            return null;
-        }
+        } catch (Exception e) { }
+
+        setMissing(missingUUIDs, uuid);
+        return null;
     }
 
     /**
@@ -114,14 +284,30 @@ public class UUIDRegistry {
         String nameLower = name.toLowerCase();
 
         try {
-            if (nameToUUIDCache.containsKey(nameLower)) {
-                return nameToUUIDCache.get(nameLower).getUUID();
+            PlayerInfo cached;
+            synchronized (nameToUUIDCache) {
+                cached = nameToUUIDCache.get(nameLower);
+            }
+
+            if (cached != null) {
+                return cached.getUUID();
             }
 
             if (isValidUUID(name)) {
                 return UUID.fromString(name);
             }
 
+            Player player = Bukkit.getPlayerExact(name);
+
+            if (player != null) {
+                updateCache(player.getUniqueId(), player.getName());
+                return player.getUniqueId();
+            }
+
+            if (isMissing(missingNames, nameLower)) {
+                return null;
+            }
+
             if (Bukkit.getOnlineMode()) {
                 Map<String, UUID> results = new UUIDFetcher(Arrays.asList(nameLower)).call();
 
@@ -147,10 +333,10 @@ public class UUIDRegistry {
                 }
             }
 
-            nameToUUIDCache.put(nameLower, null);
+            setMissing(missingNames, nameLower);
             return null;
         } catch (Exception e) {
-            nameToUUIDCache.put(nameLower, null);
+            setMissing(missingNames, nameLower);
             return null;
         }
     }
@@ -176,4 +362,133 @@ public class UUIDRegistry {
         }
     }
 
+    /**
+     * Load the players saved to a file by {@link #save(File)}
+     *
+     * @param file
+     */
+    public static void load(File file) {
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_REVISION) {
+                return;
+            }
+
+            int count = in.readInt();
+
+            // entries are saved least recently used first so loading them keeps the order
+            for (int i = 0; i < count; i++) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                String name = in.readUTF();
+                updateCache(uuid, name);
+            }
+
+            dirty = false;
+        } catch (IOException e) {
+            System.out.println("[LWC] Failed to load the UUID cache: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+    /**
+     * Save the known players to a file if they changed since they were last saved
+     *
+     * @param file
+     */
+    public static void save(File file) {
+        if (!dirty) {
+            return;
+        }
+
+        List<PlayerInfo> players;
+        synchronized (UUIDToNameCache) {
+            players = new ArrayList<PlayerInfo>(UUIDToNameCache.values());
+            dirty = false;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_REVISION);
+            out.writeInt(players.size());
+
+            for (PlayerInfo player : players) {
+                out.writeLong(player.getUUID().getMostSignificantBits());
+                out.writeLong(player.getUUID().getLeastSignificantBits());
+                out.writeUTF(player.getName());
+            }
+
+            out.close();
+            out = null;
+
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not replace " + file.getPath());
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp.getPath());
+            }
+        } catch (IOException e) {
+            dirty = true;
+            System.out.println("[LWC] Failed to save the UUID cache: " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+    /**
+     * Check if a key could not be resolved recently
+     *
+     * @param cache
+     * @param key
+     * @return
+     */
+    private static <K> boolean isMissing(LRUCache<K, Long> cache, K key) {
+        synchronized (cache) {
+            Long expires = cache.get(key);
+
+            if (expires == null) {
+                return false;
+            }
+
+            if (expires < System.currentTimeMillis()) {
+                cache.remove(key);
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Remember that a key could not be resolved
+     *
+     * @param cache
+     * @param key
+     */
+    private static <K> void setMissing(LRUCache<K, Long> cache, K key) {
+        synchronized (cache) {
+            cache.put(key, System.currentTimeMillis() + NEGATIVE_TTL);
+        }
+    }
+
 }
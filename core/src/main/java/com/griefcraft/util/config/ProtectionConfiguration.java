@@ -0,0 +1,299 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util.config;
+
+import com.griefcraft.lwc.LWC;
+import org.bukkit.Material;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The protections.blocks configuration compiled into tables indexed by material id and data value, so resolving a
+ * setting for a block does not need to build any strings.
+ * <p/>
+ * Nodes that LWC uses itself are compiled when the configuration is loaded, any other node is compiled the first
+ * time it is asked for.
+ */
+public class ProtectionConfiguration {
+
+    /**
+     * The nodes compiled when the configuration is loaded
+     */
+    private static final String[] DEFAULT_NODES = new String[] {
+            "enabled", "autoRegister", "quiet", "readonly-remove", "readonly-modify", "ignoreBlockDestruction",
+            "ignoreLeftClick", "ignoreRightClick", "ignoreExplosions", "denyHoppers", "allowEntityInteract",
+            "allowEntityBreakDoor"
+    };
+
+    /**
+     * The configuration the tables are compiled from
+     */
+    private final Configuration configuration;
+
+    /**
+     * The compiled nodes
+     */
+    private final Map<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+
+    /**
+     * The names under protections.blocks that have settings for specific data values, e.g. 54 for 54:1
+     */
+    private final Set<String> dataSpecificNames = new HashSet<String>();
+
+    /**
+     * The largest material id
+     */
+    private final int maxMaterialId;
+
+    /**
+     * The compiled enabled node, used to check if a block is protectable
+     */
+    private final Node enabled;
+
+    public ProtectionConfiguration(Configuration configuration) {
+        this.configuration = configuration;
+
+        int maxId = 0;
+        for (Material material : Material.values()) {
+            maxId = Math.max(maxId, material.getId());
+        }
+        maxMaterialId = maxId;
+
+        List<?> keys = configuration.getKeys("protections.blocks");
+
+        if (keys != null) {
+            for (Object key : keys) {
+                String name = key.toString();
+                int index = name.lastIndexOf(':');
+
+                if (index > 0 && !name.endsWith(":*")) {
+                    dataSpecificNames.add(name.substring(0, index));
+                }
+            }
+        }
+
+        for (String node : DEFAULT_NODES) {
+            getNode(node);
+        }
+
+        enabled = getNode("enabled");
+    }
+
+    /**
+     * Check if a block is protectable
+     *
+     * @param material
+     * @param data
+     * @return
+     */
+    public boolean isProtectable(Material material, int data) {
+        return material != null && Boolean.parseBoolean(enabled.get(material, data));
+    }
+
+    /**
+     * Get a setting for a material regardless of its data value
+     *
+     * @param material
+     * @param node
+     * @return
+     */
+    public String get(Material material, String node) {
+        Node compiled = getNode(node);
+        return material != null ? compiled.get(material) : compiled.defaultValue;
+    }
+
+    /**
+     * Get a setting for a material with the given data value
+     *
+     * @param material
+     * @param data
+     * @param node
+     * @return
+     */
+    public String get(Material material, int data, String node) {
+        Node compiled = getNode(node);
+        return material != null ? compiled.get(material, data) : compiled.defaultValue;
+    }
+
+    /**
+     * Get a boolean setting for a material with the given data value
+     *
+     * @param material
+     * @param data
+     * @param node
+     * @return
+     */
+    public boolean getBoolean(Material material, int data, String node) {
+        return Boolean.parseBoolean(get(material, data, node));
+    }
+
+    /**
+     * Get a compiled node, compiling it if it has not been yet
+     *
+     * @param node
+     * @return
+     */
+    private Node getNode(String node) {
+        Node compiled = nodes.get(node);
+
+        if (compiled == null) {
+            compiled = compile(node);
+            nodes.put(node, compiled);
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Compile a node for every material
+     *
+     * @param node
+     * @return
+     */
+    private Node compile(String node) {
+        Node compiled = new Node(configuration.getString("protections." + node), maxMaterialId + 1);
+
+        for (Material material : Material.values()) {
+            int id = material.getId();
+            String materialName = LWC.normalizeMaterialName(material);
+
+            compiled.values[id] = resolve(material, materialName, -1, node, compiled.defaultValue);
+
+            if (dataSpecificNames.contains(materialName) || dataSpecificNames.contains(Integer.toString(id))) {
+                String[] dataValues = new String[16];
+
+                for (int data = 0; data < dataValues.length; data++) {
+                    dataValues[data] = resolve(material, materialName, data, node, compiled.defaultValue);
+                }
+
+                compiled.dataValues[id] = dataValues;
+            }
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Resolve a setting the same way it always has been: the names are checked in order and the last one that
+     * is set wins, so the wildcards override anything more specific.
+     *
+     * @param material
+     * @param materialName
+     * @param data the data value, or -1 to not check data specific names
+     * @param node
+     * @param defaultValue
+     * @return
+     */
+    private String resolve(Material material, String materialName, int data, String node, String defaultValue) {
+        List<String> names = new ArrayList<String>();
+
+        // add the name & the block id
+        names.add(materialName);
+        names.add(material.getId() + "");
+
+        if (data != -1) {
+            names.add(material.getId() + ":" + data);
+            names.add(materialName + ":" + data);
+        }
+
+        if (!materialName.equals(material.toString().toLowerCase())) {
+            names.add(material.toString().toLowerCase());
+        }
+
+        // Add the wildcards last so it can be overriden
+        names.add("*");
+        names.add(material.getId() + ":*");
+
+        String value = defaultValue;
+
+        for (String name : names) {
+            String temp = configuration.getString("protections.blocks." + name + "." + node);
+
+            if (temp != null && !temp.isEmpty()) {
+                value = temp;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * A node compiled for every material
+     */
+    private static class Node {
+
+        /**
+         * The value of protections.node
+         */
+        private final String defaultValue;
+
+        /**
+         * The value for each material id when the data value does not matter
+         */
+        private final String[] values;
+
+        /**
+         * The value for each material id and data value. Null for materials without data specific settings
+         */
+        private final String[][] dataValues;
+
+        private Node(String defaultValue, int size) {
+            this.defaultValue = defaultValue;
+            this.values = new String[size];
+            this.dataValues = new String[size][];
+        }
+
+        /**
+         * @param material
+         * @return the value for the material
+         */
+        private String get(Material material) {
+            return values[material.getId()];
+        }
+
+        /**
+         * @param material
+         * @param data
+         * @return the value for the material and data value
+         */
+        private String get(Material material, int data) {
+            int id = material.getId();
+            String[] byData = dataValues[id];
+
+            return byData != null ? byData[data & 15] : values[id];
+        }
+
+    }
+
+}
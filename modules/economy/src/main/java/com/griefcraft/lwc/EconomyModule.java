@@ -194,13 +194,9 @@ public class EconomyModule extends JavaModule {
         }
 
         // load the transactions so we can check the server bank
-        List<History> transactions = protection.getRelatedHistory(History.Type.TRANSACTION);
+        List<History> transactions = protection.getRelatedHistory(History.Type.TRANSACTION, History.Status.ACTIVE);
 
         for (History history : transactions) {
-            if (history.getStatus() == History.Status.INACTIVE) {
-                continue;
-            }
-
             // obtain the charge
             double charge = history.getDouble("charge");
 
@@ -247,15 +243,15 @@ public class EconomyModule extends JavaModule {
         double charge = Double.parseDouble(usedDiscount ? cachedPrice.substring(1) : cachedPrice);
 
         // get related transactions..
-        List<History> transactions = protection.getRelatedHistory(History.Type.TRANSACTION);
+        List<History> transactions = protection.getRelatedHistory(History.Type.TRANSACTION, History.Status.ACTIVE);
 
         // this really should not happen either (never!)
         if (transactions.size() == 0) {
             logger.severe("LWC-iConomy POST_REGISTRATION encountered a severen problem!: transactions.size() == 0");
         }
 
-        // get the last entry
-        History history = transactions.get(transactions.size() - 1);
+        // get the newest entry
+        History history = transactions.get(0);
 
         // add the price
         history.addMetaData("charge=" + charge);
@@ -303,13 +299,9 @@ public class EconomyModule extends JavaModule {
         }
 
         // we need to refund them, load up transactions
-        List<History> transactions = protection.getRelatedHistory(History.Type.TRANSACTION);
+        List<History> transactions = protection.getRelatedHistory(History.Type.TRANSACTION, History.Status.ACTIVE);
 
         for (History history : transactions) {
-            if (history.getStatus() == History.Status.INACTIVE) {
-                continue;
-            }
-
             // obtain the charge
             double charge = history.getDouble("charge");
 